@@ -0,0 +1,140 @@
+package de.kaleidox.jim.bench;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+/*
+Prints the retained heap of [entries] pending assignments, once in the former layout and once in the AssignmentTable.
+
+The former layout is rebuilt here as it was: a ConcurrentHashMap keyed by "serverId:userId" strings holding lists
+of assignment objects with a boxed Instant and one ScheduledFuture each, plus the (serverId, roleId, userId) index.
+Both layouts include their pending expirations.
+
+Run with: gradle footprintReport
+ */
+public class AssignmentFootprint {
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long legacy = measure(() -> new LegacyLayout(entries));
+        long table = measure(() -> new TableLayout(entries));
+
+        System.out.printf("Entries:           %,d%n", entries);
+        System.out.printf("Former layout:     %,d bytes (%d bytes per entry)%n", legacy, legacy / entries);
+        System.out.printf("AssignmentTable:   %,d bytes (%d bytes per entry)%n", table, table / entries);
+        System.out.printf("Reduction:         %.1f%%%n", 100.0 - (table * 100.0 / legacy));
+    }
+
+    private static long measure(java.util.function.Supplier<AutoCloseable> layout) {
+        long before = usedHeap();
+        AutoCloseable retained = layout.get();
+        long after = usedHeap();
+
+        try {
+            retained.close();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long snowflake(Random random) {
+        return 100_000_000_000_000_000L + (random.nextLong() & 0xFF_FFFF_FFFF_FFFFL);
+    }
+
+    private static class LegacyLayout implements AutoCloseable {
+        private final Map<String, List<LegacyAssignment>> assignments = new ConcurrentHashMap<>();
+        private final Map<List<Long>, List<LegacyAssignment>> index = new ConcurrentHashMap<>();
+        private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+        private LegacyLayout(int entries) {
+            Random random = new Random(1);
+            long[] servers = new long[100];
+            for (int i = 0; i < servers.length; i++) servers[i] = snowflake(random);
+
+            for (int i = 0; i < entries; i++) {
+                long serverId = servers[i % servers.length];
+                LegacyAssignment assignment = new LegacyAssignment(snowflake(random), snowflake(random),
+                        Instant.now().plusSeconds(3600 + i));
+                assignment.scheduledRemoval = scheduler.schedule(() -> {
+                }, 3600 + i, TimeUnit.SECONDS);
+
+                assignments.computeIfAbsent(serverId + ":" + assignment.userId, k -> new ArrayList<>())
+                        .add(assignment);
+                List<Long> key = new ArrayList<>(3);
+                key.add(serverId);
+                key.add(assignment.roleid);
+                key.add(assignment.userId);
+                index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(assignment);
+            }
+        }
+
+        @Override
+        public void close() {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static class LegacyAssignment {
+        private final long userId;
+        private final Instant removeAt;
+        private final long roleid;
+        private final boolean temporaryRole = false;
+        private ScheduledFuture<?> scheduledRemoval;
+        boolean cleanupable = false;
+
+        private LegacyAssignment(long userId, long roleid, Instant removeAt) {
+            this.userId = userId;
+            this.removeAt = removeAt;
+            this.roleid = roleid;
+        }
+    }
+
+    private static class TableLayout implements AutoCloseable {
+        private final AssignmentTable table;
+        private final ExpirationWheel wheel = new ExpirationWheel("footprint", 100, TimeUnit.MILLISECONDS, ref -> {
+        }, Runnable::run);
+
+        private TableLayout(int entries) {
+            Random random = new Random(1);
+            long[] servers = new long[100];
+            for (int i = 0; i < servers.length; i++) servers[i] = snowflake(random);
+
+            table = new AssignmentTable();
+            long now = Instant.now().getEpochSecond();
+            for (int i = 0; i < entries; i++) {
+                long removeAt = now + 3600 + i;
+                long handle = table.insert(servers[i % servers.length], snowflake(random), snowflake(random),
+                        removeAt, false);
+                table.setTimeout(handle, wheel.schedule(removeAt * 1000, handle));
+            }
+        }
+
+        @Override
+        public void close() {
+            wheel.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.kaleidox.jim.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+The cleanup work of AssignmentManager with [assignments] live assignments: finishing one assignment the way a
+completed removal does, and one tick of the incremental safety net sweep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanupBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int assignments;
+
+    private AssignmentTable table;
+    private long next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        table = PersistenceBenchmark.table(assignments);
+    }
+
+    /* includes the insert, which costs about the same as the free */
+    @Benchmark
+    public boolean finish() {
+        long handle = table.insert(3000, 7_000_000, 6_000_000, next++, false);
+
+        table.setFlag(handle, AssignmentTable.REMOVING);
+        table.setFlag(handle, AssignmentTable.CLEANUPABLE);
+        return table.free(handle);
+    }
+
+    @Benchmark
+    public long sweepTick() {
+        long[] overdue = new long[1];
+
+        table.sweep(4096, (handle, removeAt, flags) -> {
+            if (removeAt < 0) overdue[0]++;
+        });
+
+        return overdue[0];
+    }
+}
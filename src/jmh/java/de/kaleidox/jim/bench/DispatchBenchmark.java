@@ -0,0 +1,85 @@
+package de.kaleidox.jim.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.jim.persistence.AssignmentPersistence;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.event.server.role.UserRoleRemoveEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+AssignmentPartition#onUserRoleRemove of a single shard with [assignments] loaded assignments, for the two events that do not lead to a
+removal: a role that is not assigned by the bot at all, and an assigned role that was removed from another user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"10000", "1000000"})
+    public int assignments;
+
+    private File directory;
+    private UserRoleRemoveEvent untrackedRole;
+    private UserRoleRemoveEvent otherUser;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("jim-bench").toFile();
+
+        AssignmentPersistence writer = persistence();
+        writer.store(PersistenceBenchmark.table(assignments));
+        writer.close();
+
+        AssignmentManager.INSTANCE.load(persistence());
+
+        Server server = Offline.server(1);
+        User user = Offline.user(1_000_000);
+        untrackedRole = Offline.roleRemoved(server, Offline.role(4_000_000, server, "Untracked"), user);
+        otherUser = Offline.roleRemoved(server, Offline.role(5_000_000, server, "Tracked"), Offline.user(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        AssignmentManager.INSTANCE.close();
+
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) Files.delete(file.toPath());
+        Files.delete(directory.toPath());
+    }
+
+    private AssignmentPersistence persistence() {
+        return new AssignmentPersistence(directory, SnapshotFormat.BINARY, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void untrackedRole() {
+        AssignmentManager.INSTANCE.getPartition(0).onUserRoleRemove(untrackedRole);
+    }
+
+    @Benchmark
+    public void otherUser() {
+        AssignmentManager.INSTANCE.getPartition(0).onUserRoleRemove(otherUser);
+    }
+}
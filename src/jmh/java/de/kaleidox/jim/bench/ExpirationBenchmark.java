@@ -0,0 +1,74 @@
+package de.kaleidox.jim.bench;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Compares the dedicated expiration wheel against one ScheduledFuture per assignment on a shared
+ScheduledThreadPoolExecutor, which is what Javacord's ThreadPool#getScheduler() hands out.
+Each benchmark inserts and cancels one assignment while [pending] other assignments are waiting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpirationBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int pending;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private ExpirationWheel wheel;
+    private long far;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        wheel = new ExpirationWheel("bench", 100, TimeUnit.MILLISECONDS, ref -> {
+        }, Runnable::run);
+        far = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(7);
+
+        for (int i = 0; i < pending; i++) {
+            long offset = TimeUnit.MINUTES.toMillis(1 + i % 10080);
+            scheduler.schedule(() -> {
+            }, offset, TimeUnit.MILLISECONDS);
+            wheel.schedule(System.currentTimeMillis() + offset, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdownNow();
+        wheel.close();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutor() {
+        ScheduledFuture<?> future = scheduler.schedule(() -> {
+        }, 7, TimeUnit.DAYS);
+        return future.cancel(false);
+    }
+
+    @Benchmark
+    public boolean expirationWheel() {
+        return wheel.schedule(far, 0).cancel();
+    }
+}
@@ -0,0 +1,119 @@
+package de.kaleidox.jim.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.kaleidox.util.concurrent.BoundedExecutor;
+import de.kaleidox.util.concurrent.ExpirationWheel;
+import de.kaleidox.util.concurrent.VirtualThreads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+[expirations] assignments expire at the same moment, and each removal blocks for a simulated REST round trip.
+At most [permits] removals run at once in both modes, like with -Djim.threads=virtual; the platform mode hands the
+removals to a cached pool, which is what the thread pool of a shard is.
+Prints the peak thread count and the latency from the deadline to the end of each removal.
+The virtual mode needs Java 21, run with -p threads=platform on older versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ExpirationLoadBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"10000"})
+    public int expirations;
+
+    @Param({"256"})
+    public int permits;
+
+    @Param({"20"})
+    public int roundTripMillis;
+
+    private ExecutorService executor;
+    private ExpirationWheel wheel;
+    private long[] latencies;
+    private AtomicInteger done;
+    private CountDownLatch finished;
+    private int baseThreads;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = threads.equals("virtual") ? VirtualThreads.newExecutor("bench #") : Executors.newCachedThreadPool();
+        BoundedExecutor bounded = new BoundedExecutor(executor, permits);
+
+        wheel = new ExpirationWheel("bench", 100, TimeUnit.MILLISECONDS, this::expire, bounded);
+    }
+
+    @Setup(Level.Iteration)
+    public void prepare() {
+        latencies = new long[expirations];
+        done = new AtomicInteger(0);
+        finished = new CountDownLatch(expirations);
+
+        baseThreads = THREADS.getThreadCount();
+        THREADS.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+
+        System.out.println();
+        System.out.println(threads + ": " + (THREADS.getPeakThreadCount() - baseThreads) + " additional platform "
+                + "threads at peak, latency p50 " + sorted[sorted.length / 2] + "ms, p99 "
+                + sorted[sorted.length * 99 / 100] + "ms, max " + sorted[sorted.length - 1] + "ms");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wheel.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void expireAtOnce() throws InterruptedException {
+        long deadline = System.currentTimeMillis();
+        for (int i = 0; i < expirations; i++) wheel.schedule(deadline, ((long) i << 32) | (deadline & 0xFFFFFFFFL));
+
+        finished.await();
+    }
+
+    private void expire(long ref) {
+        try {
+            Thread.sleep(roundTripMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long deadline = ref & 0xFFFFFFFFL;
+        latencies[done.getAndIncrement()] = (System.currentTimeMillis() & 0xFFFFFFFFL) - deadline;
+        finished.countDown();
+    }
+}
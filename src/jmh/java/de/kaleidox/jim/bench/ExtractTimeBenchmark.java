@@ -0,0 +1,53 @@
+package de.kaleidox.jim.bench;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.util.time.DurationParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+extractTime goes through the expression cache of DurationParser, uncached parses a StringBuilder, which is never
+cached. Run with -prof gc to see the allocation rate of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractTimeBenchmark {
+    @Param({"30", "10m", "1w 2d 3h 4m 5s", "P2DT3H", "until 2099-12-01T10:00Z"})
+    public String input;
+
+    private StringBuilder uncachedInput;
+    private long now;
+
+    @Setup
+    public void setup() {
+        uncachedInput = new StringBuilder(input);
+        now = System.currentTimeMillis() / 1000;
+    }
+
+    @Benchmark
+    public long extractTime() throws ParseException {
+        return AssignmentManager.extractTime(input);
+    }
+
+    @Benchmark
+    public long uncached() throws ParseException {
+        return DurationParser.resolve(uncachedInput, now);
+    }
+}
@@ -0,0 +1,219 @@
+package de.kaleidox.jim.bench;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import de.kaleidox.jim.discord.DiscordShard;
+
+/*
+An in-memory DiscordShard. Servers, roles and role holders live in maps; every member is known, and every user
+counts as a member of every server.
+
+Every call that would be a REST request completes after [latencyMillis] plus up to as much jitter on the scheduler,
+never on the calling thread. Beyond [requestsPerSecond] requests in one second, requests fail with a RateLimited,
+and any request fails with an InjectedFailure at [failureRate]. A role that is taken from a user, by a removal or by
+#revoke, is reported to the RoleListener, like Discord sends a role removal event after either.
+ */
+public class FakeDiscord implements DiscordShard, AutoCloseable {
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, daemon("fake scheduler"));
+    private final ExecutorService executor = Executors.newCachedThreadPool(daemon("fake executor"));
+    private final Set<Long> servers = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Long> roleServers = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> holders = new ConcurrentHashMap<>();
+    private final long latencyMillis;
+    private final int requestsPerSecond;
+    private final double failureRate;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger inWindow = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile RoleListener listener = (serverId, userId, roleId) -> {
+    };
+
+    /*
+    [requestsPerSecond] 0 is unlimited.
+     */
+    public FakeDiscord(long latencyMillis, int requestsPerSecond, double failureRate) {
+        this.latencyMillis = latencyMillis;
+        this.requestsPerSecond = requestsPerSecond;
+        this.failureRate = failureRate;
+    }
+
+    public void setRoleListener(RoleListener listener) {
+        this.listener = listener;
+    }
+
+    public void addRole(long serverId, long roleId) {
+        servers.add(serverId);
+        roleServers.put(roleId, serverId);
+        holders.put(roleId, ConcurrentHashMap.newKeySet());
+    }
+
+    public void grant(long roleId, long userId) {
+        holders.get(roleId).add(userId);
+    }
+
+    /*
+    Takes the role from the user like a moderator would, outside of the bot.
+     */
+    public void revoke(long serverId, long userId, long roleId) {
+        if (holders(roleId).remove(userId)) listener.roleRemoved(serverId, userId, roleId);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean hasServer(long serverId) {
+        return servers.contains(serverId);
+    }
+
+    @Override
+    public boolean roleExists(long serverId, long roleId) {
+        return roleServers.getOrDefault(roleId, 0L) == serverId;
+    }
+
+    @Override
+    public boolean isMemberCached(long serverId, long userId) {
+        return true;
+    }
+
+    @Override
+    public long[] getHolders(long roleId) {
+        return holders(roleId).stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public boolean mayHaveOtherHolders(long serverId, long roleId, long userId) {
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> memberHasRole(long serverId, long userId, long roleId) {
+        return request(() -> holders(roleId).contains(userId));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRole(long serverId, long userId, long roleId) {
+        return request(() -> {
+            revoke(serverId, userId, roleId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRoles(long serverId, long userId, long[] roleIds) {
+        return request(() -> {
+            for (long roleId : roleIds) revoke(serverId, userId, roleId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteRole(long serverId, long roleId) {
+        return request(() -> {
+            roleServers.remove(roleId);
+            holders.remove(roleId);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> request(Supplier<T> effect) {
+        requests.incrementAndGet();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long delay = latencyMillis + (latencyMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyMillis) : 0);
+
+        RuntimeException failure = null;
+        if (!acquire()) {
+            rateLimited.incrementAndGet();
+            failure = new RateLimited();
+        } else if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failed.incrementAndGet();
+            failure = new InjectedFailure();
+        }
+
+        RuntimeException error = failure;
+        scheduler.schedule(() -> {
+            if (error != null) result.completeExceptionally(error);
+            else result.complete(effect.get());
+        }, delay, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private Set<Long> holders(long roleId) {
+        return holders.getOrDefault(roleId, Collections.emptySet());
+    }
+
+    private boolean acquire() {
+        if (requestsPerSecond <= 0) return true;
+
+        long second = System.currentTimeMillis() / 1000;
+        long current = window.get();
+        if (current != second && window.compareAndSet(current, second)) inWindow.set(0);
+
+        return inWindow.incrementAndGet() <= requestsPerSecond;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    public interface RoleListener {
+        void roleRemoved(long serverId, long userId, long roleId);
+    }
+
+    public static class RateLimited extends RuntimeException {
+        private RateLimited() {
+            super("429 Too Many Requests", null, false, false);
+        }
+    }
+
+    public static class InjectedFailure extends RuntimeException {
+        private InjectedFailure() {
+            super("500 Internal Server Error", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package de.kaleidox.jim.bench;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.jim.AssignmentPartition;
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+import de.kaleidox.jim.persistence.AssignmentStore;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/*
+Drives the AssignmentManager against a FakeDiscord per shard, without a connection to Discord, in three phases:
+
+  storm    [sim.storm] assignments lose their role outside of the bot at once, from [sim.stormThreads] threads,
+           and are cancelled through the role removal events
+  add      [sim.assignments] assignments in batches of one role and duration for [sim.batch] users, like bulk
+           commands do, due [sim.lead] seconds later at the earliest; every user gets [sim.roles] roles of the
+           same duration
+  expire   the assignments of the add phase expire, [sim.burst] percent of the batches in the same second and the
+           others spread over [sim.spread] seconds
+
+Every phase reports its throughput; the expiration phase reports the lag from the planned removal until the fake
+removed the role. The fakes answer after [sim.latency] ms with jitter, allow [sim.rate] requests per second and shard
+(0 is unlimited) and fail [sim.failures] percent of the requests. Nothing is persisted.
+
+Run with: gradle loadSimulation [-Dsim.assignments=5000000 ...]
+ */
+public class LoadSimulator {
+    private static final int ASSIGNMENTS = Integer.getInteger("sim.assignments", 1_000_000);
+    private static final int SHARDS = Integer.getInteger("sim.shards", 16);
+    private static final int SERVERS = Integer.getInteger("sim.servers", 1000);
+    private static final int ROLES = Integer.getInteger("sim.roles", 1);
+    private static final int BATCH = Integer.getInteger("sim.batch", 1000);
+    private static final int STORM = Integer.getInteger("sim.storm", 100_000);
+    private static final int STORM_THREADS = Integer.getInteger("sim.stormThreads", 4);
+    private static final int BURST = Integer.getInteger("sim.burst", 20);
+    private static final int SPREAD = Integer.getInteger("sim.spread", 30);
+    private static final int LEAD = Integer.getInteger("sim.lead", 15);
+    private static final int LATENCY = Integer.getInteger("sim.latency", 5);
+    private static final int RATE = Integer.getInteger("sim.rate", 0);
+    private static final double FAILURES = Double.parseDouble(System.getProperty("sim.failures", "1"));
+    private static final long FIRST_USER = 200_000_000_000_000_000L;
+
+    private final FakeDiscord[] shards = new FakeDiscord[SHARDS];
+    private final long[] servers = new long[SERVERS];
+    private final long[][] roles = new long[SERVERS][ROLES];
+    private final long[] removeAt = new long[ASSIGNMENTS];
+    private final long[] lags = new long[ASSIGNMENTS];
+    private final AtomicInteger expired = new AtomicInteger();
+    private long firstDue;
+
+    public static void main(String[] args) throws Exception {
+        Configurator.setRootLevel(Level.ERROR);
+
+        new LoadSimulator().run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        Random random = new Random(1);
+        for (int shard = 0; shard < SHARDS; shard++) {
+            shards[shard] = new FakeDiscord(LATENCY, RATE, FAILURES / 100);
+            shards[shard].setRoleListener(this::roleRemoved);
+        }
+        for (int i = 0; i < SERVERS; i++) {
+            servers[i] = 100_000_000_000_000_000L + (random.nextLong() & 0xFF_FFFF_FFFF_FFFFL);
+            for (int r = 0; r < ROLES; r++) {
+                roles[i][r] = servers[i] + 1 + r;
+                shard(servers[i]).addRole(servers[i], roles[i][r]);
+            }
+        }
+
+        AssignmentStore[] stores = new AssignmentStore[SHARDS];
+        Arrays.setAll(stores, shard -> new MemoryStore());
+        AssignmentManager.INSTANCE.load(shard -> shards[shard], stores);
+        AssignmentManager.INSTANCE.start();
+
+        System.out.printf("%,d assignments on %,d servers in %d shards, %dms latency, %s requests per second, " +
+                        "%.1f%% failures%n", ASSIGNMENTS, SERVERS, SHARDS, LATENCY, RATE == 0 ? "unlimited" : RATE,
+                FAILURES);
+
+        storm();
+        add();
+        expire();
+
+        long requests = 0, rateLimited = 0, failed = 0;
+        for (FakeDiscord shard : shards) {
+            requests += shard.getRequests();
+            rateLimited += shard.getRateLimited();
+            failed += shard.getFailed();
+            shard.close();
+        }
+        System.out.printf("requests  %,d, %,d rate limited, %,d failed%n", requests, rateLimited, failed);
+        AssignmentManager.INSTANCE.close();
+    }
+
+    private void add() {
+        long start = System.nanoTime();
+        firstDue = Instant.now().getEpochSecond() + LEAD;
+
+        int added = 0;
+        for (int from = 0, batch = 0; from < ASSIGNMENTS / ROLES; from += BATCH, batch++) {
+            int server = batch % SERVERS;
+            int to = Math.min(from + BATCH, ASSIGNMENTS / ROLES);
+            long at = batch % 100 < BURST ? firstDue : firstDue + 1 + (batch * 31L) % SPREAD;
+            long[] users = LongStream.range(from, to).map(user -> FIRST_USER + user).toArray();
+
+            Arrays.fill(removeAt, from, to, at);
+            for (long role : roles[server]) {
+                for (long user : users) shard(servers[server]).grant(role, user);
+                added += AssignmentManager.INSTANCE.removeRoleAt(servers[server], users, role, at, false);
+            }
+        }
+
+        report("add", added, start);
+    }
+
+    private void storm() throws InterruptedException {
+        long later = Instant.now().plusSeconds(3600).getEpochSecond();
+        long[] users = new long[STORM];
+        Arrays.setAll(users, i -> FIRST_USER - 1 - i);
+
+        for (int i = 0; i < STORM; i++) shard(servers[i % SERVERS]).grant(roles[i % SERVERS][0], users[i]);
+        for (int server = 0; server < SERVERS; server++) {
+            int index = server;
+            long[] targets = IntStream.range(0, STORM)
+                    .filter(i -> i % SERVERS == index)
+                    .mapToLong(i -> users[i])
+                    .toArray();
+            AssignmentManager.INSTANCE.removeRoleAt(servers[server], targets, roles[server][0], later, false);
+        }
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[STORM_THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < STORM; i += STORM_THREADS)
+                    shard(servers[i % SERVERS]).revoke(servers[i % SERVERS], users[i], roles[i % SERVERS][0]);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        long events = System.nanoTime() - start;
+
+        awaitEmpty();
+        report("storm", STORM, start);
+        System.out.printf("          events delivered in %,dms%n", events / 1_000_000);
+    }
+
+    private void expire() throws InterruptedException {
+        while (System.currentTimeMillis() < firstDue * 1000) Thread.sleep(10);
+
+        long start = System.nanoTime();
+        awaitEmpty();
+        report("expire", expired.get(), start);
+
+        long[] sorted = Arrays.copyOf(lags, expired.get());
+        Arrays.sort(sorted);
+        if (sorted.length > 0)
+            System.out.printf("          lag p50 %,dms, p99 %,dms, max %,dms, %,d given up%n",
+                    sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)], sorted[sorted.length - 1],
+                    ASSIGNMENTS / ROLES * ROLES - sorted.length);
+    }
+
+    private void roleRemoved(long serverId, long userId, long roleId) {
+        long user = userId - FIRST_USER;
+
+        if (user >= 0 && user < ASSIGNMENTS / ROLES)
+            lags[expired.getAndIncrement()] = System.currentTimeMillis() - removeAt[(int) user] * 1000;
+        else AssignmentManager.INSTANCE.roleRemoved(serverId, userId, roleId);
+    }
+
+    private void awaitEmpty() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(30);
+
+        while (AssignmentManager.INSTANCE.getAssignmentCount() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+    }
+
+    private FakeDiscord shard(long serverId) {
+        return shards[AssignmentPartition.shardOf(serverId, SHARDS)];
+    }
+
+    private static void report(String phase, long count, long startNanos) {
+        long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+
+        System.out.printf("%-9s %,d in %,dms, %,d per second%n", phase, count, millis, count * 1000 / millis);
+    }
+
+    private static class MemoryStore implements AssignmentStore {
+        @Override
+        public boolean hasData() {
+            return false;
+        }
+
+        @Override
+        public int load(AssignmentTable table, long horizon) {
+            return 0;
+        }
+
+        @Override
+        public void record(String operation, TemporaryAssignment assignment) {
+        }
+
+        @Override
+        public void recordBatch(List<TemporaryAssignment> assignments) {
+        }
+
+        @Override
+        public long store(AssignmentTable table) {
+            return 0;
+        }
+
+        @Override
+        public long replace(AssignmentTable table) {
+            return 0;
+        }
+
+        @Override
+        public void retire() {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package de.kaleidox.jim.bench;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.kaleidox.jim.MemberRoleCache;
+
+/*
+Prints the retained heap of what the bot needs to know about the members of one large server, once with the member
+cache and once in the low-memory mode (-Djim.memory=low).
+
+The member cache is rebuilt here the way Javacord 3.0 holds it: a user object per member with its name, avatar hash,
+discriminator and client status, the member, nickname and join date maps of the server, and the member set of
+every role. The low-memory mode holds a MemberRoleCache entry for the members with live assignments only; Javacord
+3.0 still keeps its member cache next to it, so this is what the mode needs once the cache can be turned off.
+
+Run with: gradle memberFootprintReport
+ */
+public class MemberCacheFootprint {
+    private static final int ROLES = 100;
+    private static final int ROLES_PER_MEMBER = 4;
+
+    public static void main(String[] args) {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int assigned = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        long full = measure(() -> new MemberCache(members));
+        long low = measure(() -> roleCache(assigned));
+
+        System.out.printf("Members:           %,d, %,d of them with assignments%n", members, assigned);
+        System.out.printf("Member cache:      %,d bytes (%d bytes per member)%n", full, full / members);
+        System.out.printf("MemberRoleCache:   %,d bytes (%d bytes per assigned member)%n", low, low / assigned);
+        System.out.printf("Reduction:         %.1f%%%n", 100.0 - (low * 100.0 / full));
+    }
+
+    private static long measure(java.util.function.Supplier<Object> layout) {
+        long before = usedHeap();
+        Object retained = layout.get();
+        long after = usedHeap();
+
+        // keeps the layout reachable until it was measured
+        if (retained.hashCode() == 42) System.out.print("");
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long snowflake(Random random) {
+        return 100_000_000_000_000_000L + (random.nextLong() & 0xFF_FFFF_FFFF_FFFFL);
+    }
+
+    private static long[] roles(Random random, long[] serverRoles) {
+        long[] roleIds = new long[ROLES_PER_MEMBER];
+        for (int r = 0; r < roleIds.length; r++) roleIds[r] = serverRoles[random.nextInt(serverRoles.length)];
+        return roleIds;
+    }
+
+    private static MemberRoleCache roleCache(int assigned) {
+        Random random = new Random(1);
+        long serverId = snowflake(random);
+        long[] serverRoles = new long[ROLES];
+        for (int i = 0; i < serverRoles.length; i++) serverRoles[i] = snowflake(random);
+
+        MemberRoleCache cache = new MemberRoleCache(assigned);
+        for (int i = 0; i < assigned; i++) cache.put(serverId, snowflake(random), roles(random, serverRoles));
+        return cache;
+    }
+
+    private static class MemberCache {
+        private final Map<Long, CachedUser> members = new ConcurrentHashMap<>();
+        private final Map<Long, String> nicknames = new ConcurrentHashMap<>();
+        private final Map<Long, Instant> joinedAt = new ConcurrentHashMap<>();
+        private final Map<Long, Collection<CachedUser>> roleMembers = new ConcurrentHashMap<>();
+
+        private MemberCache(int count) {
+            Random random = new Random(1);
+            long[] serverRoles = new long[ROLES];
+            for (int i = 0; i < serverRoles.length; i++) {
+                serverRoles[i] = snowflake(random);
+                roleMembers.put(serverRoles[i], ConcurrentHashMap.newKeySet());
+            }
+
+            for (int i = 0; i < count; i++) {
+                CachedUser user = new CachedUser(snowflake(random), "member" + i, Long.toHexString(random.nextLong())
+                        + Long.toHexString(random.nextLong()), String.format("%04d", random.nextInt(10000)));
+
+                members.put(user.id, user);
+                joinedAt.put(user.id, Instant.ofEpochSecond(1_500_000_000L + random.nextInt(100_000_000)));
+                if (i % 3 == 0) nicknames.put(user.id, "nickname" + i);
+                for (long roleId : roles(random, serverRoles)) roleMembers.get(roleId).add(user);
+            }
+        }
+    }
+
+    private static class CachedUser {
+        private final long id;
+        private final String name;
+        private final String avatarHash;
+        private final String discriminator;
+        private final boolean bot = false;
+        private final Map<String, String> clientStatus = new ConcurrentHashMap<>();
+
+        private CachedUser(long id, String name, String avatarHash, String discriminator) {
+            this.id = id;
+            this.name = name;
+            this.avatarHash = avatarHash;
+            this.discriminator = discriminator;
+        }
+    }
+}
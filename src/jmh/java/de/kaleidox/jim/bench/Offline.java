@@ -0,0 +1,65 @@
+package de.kaleidox.jim.bench;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.event.server.role.UserRoleRemoveEvent;
+
+/*
+Offline stand-ins for the few Discord entities the benchmarks pass into the bot.
+Each stub answers only the getters listed in its map and fails on anything else, so a benchmark that
+accidentally reaches out to Discord breaks instead of silently measuring something else.
+ */
+final class Offline {
+    private Offline() {
+    }
+
+    static Server server(long id) {
+        return stub(Server.class, of("getId", id));
+    }
+
+    static User user(long id) {
+        return stub(User.class, of("getId", id));
+    }
+
+    static Server server(long id, Collection<Role> roles) {
+        return stub(Server.class, of("getId", id, "getRoles", roles));
+    }
+
+    static Role role(long id, Server server, String name) {
+        return stub(Role.class, of("getId", id, "getServer", server, "getName", name, "getPosition", (int) id));
+    }
+
+    static UserRoleRemoveEvent roleRemoved(Server server, Role role, User user) {
+        return stub(UserRoleRemoveEvent.class, of("getServer", server, "getRole", role, "getUser", user));
+    }
+
+    private static Map<String, Object> of(Object... getters) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < getters.length; i += 2) map.put((String) getters[i], getters[i + 1]);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Object> getters) {
+        return (T) Proxy.newProxyInstance(Offline.class.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + getters;
+            }
+
+            if (!getters.containsKey(method.getName()))
+                throw new UnsupportedOperationException(type.getSimpleName() + "#" + method.getName() + " is offline");
+            return getters.get(method.getName());
+        });
+    }
+}
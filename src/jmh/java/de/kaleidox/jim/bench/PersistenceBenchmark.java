@@ -0,0 +1,117 @@
+package de.kaleidox.jim.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.AssignmentPersistence;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+The offline part of AssignmentManager#init and #storeData at different state sizes.
+init loads the snapshot and a journal of 1% additions, then schedules every assignment on a fresh wheel; the
+reconciliation against Discord that follows in the bot is not part of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int assignments;
+
+    @Param({"JSON", "BINARY"})
+    public SnapshotFormat format;
+
+    private File directory;
+    private AssignmentTable table;
+    private AssignmentPersistence persistence;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("jim-bench").toFile();
+        table = table(assignments);
+
+        AssignmentPersistence writer = new AssignmentPersistence(directory, format, 50, TimeUnit.MILLISECONDS);
+        writer.load(new AssignmentTable());
+        writer.store(table);
+
+        long base = System.currentTimeMillis() / 1000 + TimeUnit.DAYS.toSeconds(1);
+        AssignmentTable added = new AssignmentTable(assignments / 100);
+        for (int i = 0; i < assignments / 100; i++)
+            writer.record("add", added.view(added.insert(2000 + i % 10, 9_000_000 + i, 8_000_000, base + i, false)));
+        writer.close();
+
+        // the instance that storeData compacts into, like the one of the running bot
+        persistence = new AssignmentPersistence(directory, format, 50, TimeUnit.MILLISECONDS);
+        persistence.load(new AssignmentTable());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        persistence.close();
+
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) Files.delete(file.toPath());
+        Files.delete(directory.toPath());
+    }
+
+    @Benchmark
+    public AssignmentTable init() throws IOException {
+        AssignmentTable loaded = new AssignmentTable();
+        ExpirationWheel wheel = new ExpirationWheel("bench", 100, TimeUnit.MILLISECONDS, handle -> {
+        }, Runnable::run);
+
+        AssignmentPersistence persistence = new AssignmentPersistence(directory, format, 50, TimeUnit.MILLISECONDS);
+        try {
+            persistence.load(loaded);
+            for (long handle : loaded.handles())
+                loaded.setTimeout(handle, wheel.schedule(loaded.view(handle).getRemoveAtEpochSecond() * 1000, handle));
+        } finally {
+            persistence.close();
+            wheel.close();
+        }
+
+        return loaded;
+    }
+
+    @Benchmark
+    public long storeData() throws IOException {
+        return persistence.store(table);
+    }
+
+    static AssignmentTable table(int assignments) {
+        long base = System.currentTimeMillis() / 1000 + TimeUnit.DAYS.toSeconds(1);
+        AssignmentTable table = new AssignmentTable(assignments);
+
+        for (int i = 0; i < assignments; i++)
+            table.insert(
+                    1 + i % 1000,
+                    1_000_000 + i / 3,
+                    5_000_000 + i % 50,
+                    base + i,
+                    false
+            );
+
+        return table;
+    }
+}
@@ -0,0 +1,107 @@
+package de.kaleidox.jim.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.RoleNameIndex;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+The role lookup of tempRole, for a role name that was mistyped and for one that matches no role.
+The full scan rates every role, the index is what tempRole uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleMatchBenchmark {
+    private static final String[] WORDS = {
+            "Admin", "Moderator", "Member", "Muted", "Event", "Winner", "Gamer", "Artist", "Helper", "Booster",
+            "Red", "Blue", "Green", "Team", "Squad", "Guest", "VIP", "Streamer", "Supporter", "Veteran"
+    };
+
+    @Param({"50", "250", "1000"})
+    public int roles;
+
+    private List<Role> serverRoles;
+    private Server indexed;
+    private String typo;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        Server server = Offline.server(1);
+
+        serverRoles = new ArrayList<>(roles);
+        for (int i = 0; i < roles; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            serverRoles.add(Offline.role(1000 + i, server, name));
+        }
+
+        String target = serverRoles.get(roles / 2).getName();
+        typo = target.substring(1);
+
+        indexed = Offline.server(1, serverRoles);
+        RoleNameIndex.INSTANCE.find(indexed, typo);
+    }
+
+    @Benchmark
+    public Optional<Role> typo() {
+        return fullScan(serverRoles, typo);
+    }
+
+    @Benchmark
+    public Optional<Role> noMatch() {
+        return fullScan(serverRoles, "this role does not exist");
+    }
+
+    @Benchmark
+    public Optional<Role> indexedTypo() {
+        return RoleNameIndex.INSTANCE.find(indexed, typo);
+    }
+
+    @Benchmark
+    public Optional<Role> indexedNoMatch() {
+        return RoleNameIndex.INSTANCE.find(indexed, "this role does not exist");
+    }
+
+    /*
+    The lookup before the index: rates every role, the first of several equally rated roles wins.
+     */
+    private static Optional<Role> fullScan(Collection<Role> roles, String name) {
+        Role best = null;
+        int bestRatio = RoleNameIndex.THRESHOLD;
+
+        for (Role role : roles) {
+            int ratio = FuzzySearch.ratio(name, role.getName());
+
+            if (ratio > bestRatio) {
+                best = role;
+                bestRatio = ratio;
+            }
+        }
+
+        return Optional.ofNullable(best);
+    }
+}
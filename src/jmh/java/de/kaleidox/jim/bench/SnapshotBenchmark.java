@@ -0,0 +1,85 @@
+package de.kaleidox.jim.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+Saves and loads a snapshot of [assignments] entries, spread over 1000 servers, in either format.
+Loading goes into a fresh AssignmentTable, like AssignmentManager#init does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int assignments;
+
+    @Param({"JSON", "BINARY"})
+    public SnapshotFormat format;
+
+    private AssignmentTable table;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        table = new AssignmentTable(assignments);
+        for (int i = 0; i < assignments; i++)
+            table.insert(
+                    1 + i % 1000,
+                    1_000_000 + i / 3,
+                    5_000_000 + i % 50,
+                    1_600_000_000L + i,
+                    i % 10 == 0
+            );
+
+        file = File.createTempFile("snapshot", "." + format.name().toLowerCase());
+        format.write(file, table);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Benchmark
+    public long save() throws IOException {
+        return format.write(file, table);
+    }
+
+    @Benchmark
+    public AssignmentTable load() throws IOException {
+        AssignmentTable loaded = new AssignmentTable(assignments);
+
+        format.read(file, (serverId, userId, roleId, removeAt, flags) -> loaded.insert(
+                serverId,
+                userId,
+                roleId,
+                removeAt,
+                (flags & AssignmentTable.TEMPORARY_ROLE) != 0
+        ));
+
+        return loaded;
+    }
+}
@@ -5,16 +5,38 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import de.kaleidox.javacord.util.commands.CommandHandler;
 import de.kaleidox.javacord.util.server.properties.ServerPropertiesManager;
 import de.kaleidox.javacord.util.ui.embed.DefaultEmbedFactory;
 import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.jim.JimMetrics;
+import de.kaleidox.jim.MemberRoles;
+import de.kaleidox.jim.RoleNameIndex;
+import de.kaleidox.jim.Startup;
+import de.kaleidox.jim.cluster.ClusterCoordinator;
+import de.kaleidox.jim.cluster.LeaseTable;
 import de.kaleidox.jim.commands.AdminCommands;
 import de.kaleidox.jim.commands.BasicCommands;
 import de.kaleidox.jim.commands.JimCommands;
+import de.kaleidox.jim.persistence.AssignmentPersistence;
+import de.kaleidox.jim.persistence.AssignmentStore;
+import de.kaleidox.jim.persistence.DatabaseStore;
+import de.kaleidox.jim.persistence.ServerFileStore;
+import de.kaleidox.jim.persistence.ShardLayout;
+import de.kaleidox.jim.persistence.SnapshotFormat;
 import de.kaleidox.util.files.FileProvider;
+import de.kaleidox.util.metrics.MetricsEndpoint;
 
 import org.apache.logging.log4j.Logger;
 import org.javacord.api.DiscordApi;
@@ -22,78 +44,264 @@ import org.javacord.api.DiscordApiBuilder;
 import org.javacord.api.entity.activity.ActivityType;
 import org.javacord.api.entity.message.embed.EmbedBuilder;
 import org.javacord.api.entity.user.UserStatus;
-import org.javacord.api.util.logging.ExceptionLogger;
 import org.javacord.core.util.logging.LoggerUtil;
 
 public final class JimBot {
     public static final Logger LOG = LoggerUtil.getLogger(JimBot.class);
-    public static final DiscordApi API;
-    public static final CommandHandler CMD;
-    public static final ServerPropertiesManager PROP;
+    /* Select with -Djim.snapshot.format=binary; an existing snapshot in the other format is converted on startup */
+    public static final SnapshotFormat SNAPSHOT_FORMAT = SnapshotFormat.valueOf(
+            System.getProperty("jim.snapshot.format", "json").toUpperCase(Locale.ROOT));
+    /* Select with -Djim.store=servers for one file per server, or -Djim.store=h2 for the embedded database, which
+       only loads the assignments due soon; an existing snapshot is imported on startup */
+    public static final AssignmentStore.Factory STORE = selectStore(System.getProperty("jim.store", "snapshot"));
+    /* Select with -Djim.shards=<count> or -Djim.shards=auto for the count recommended by Discord; indexed by shard,
+       empty for the shards that are not connected by this process */
+    public static final AtomicReferenceArray<DiscordApi> SHARDS;
+    public static final AtomicReferenceArray<CommandHandler> CMD;
+    /* Loaded by the properties phase of the startup, concurrently with the login */
+    public static volatile ServerPropertiesManager PROP;
+    /* Local Prometheus endpoint, -Djim.metrics.port=-1 disables it */
+    public static final MetricsEndpoint METRICS;
+    /* Cluster mode with -Djim.cluster=<unique instance name>, the shards are leased for -Djim.cluster.lease seconds */
+    public static final ClusterCoordinator CLUSTER;
+
+    private static final DiscordApiBuilder BUILDER;
+    private static final File PROPERTIES_SCRATCH = new File("data/properties.json.next");
+    /* What the properties file holds, only touched by the properties phase and then by the storage thread */
+    private static volatile byte[] storedProperties;
+    private static final ScheduledExecutorService STORAGE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Jim - Storage");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     static {
+        long start = System.nanoTime();
         try {
             File file = FileProvider.getFile("login/token.cred");
             System.out.println("Looking for token file at " + file.getAbsolutePath());
-            API = new DiscordApiBuilder()
-                    .setToken(new BufferedReader(new FileReader(file)).readLine())
-                    .login()
-                    .exceptionally(ExceptionLogger.get())
-                    .join();
+            BUILDER = new DiscordApiBuilder().setToken(new BufferedReader(new FileReader(file)).readLine());
+
+            String shards = System.getProperty("jim.shards", "1");
+            if (shards.equalsIgnoreCase("auto")) BUILDER.setRecommendedTotalShards().join();
+            else BUILDER.setTotalShards(Integer.parseInt(shards));
 
-            API.updateStatus(UserStatus.DO_NOT_DISTURB);
-            API.updateActivity("Booting up...");
+            SHARDS = new AtomicReferenceArray<>(BUILDER.getTotalShards());
+            CMD = new AtomicReferenceArray<>(BUILDER.getTotalShards());
 
             DefaultEmbedFactory.setEmbedSupplier(() -> new EmbedBuilder().setColor(new Color(0x7289DA)));
+            Startup.INSTANCE.record("configuration", System.nanoTime() - start);
 
-            CMD = new CommandHandler(API);
-            CMD.prefixes = new String[]{"jim@"};
-            CMD.useDefaultHelp(null);
-            CMD.registerCommands(BasicCommands.INSTANCE);
-            CMD.registerCommands(JimCommands.INSTANCE);
-            CMD.registerCommands(AdminCommands.INSTANCE);
-
-            PROP = new ServerPropertiesManager(FileProvider.getFile("data/properties.json"));
-            PROP.usePropertyCommand(null, CMD);
-            PROP.register("bot.prefix", CMD.prefixes[0])
-                    .setDisplayName("Custom Command Prefix")
-                    .setDescription("A custom prefix to call bot commands with");
-            PROP.register("bot.commandchannel", -1)
-                    .setDisplayName("Command Channel ID")
-                    .setDescription("The ID of the only channel where the commands should be executed.\n" +
-                            "If the ID is invalid, every channel is accepted.");
-
-            CMD.useCustomPrefixes(PROP.getProperty("bot.prefix"));
-            CMD.useCommandChannel(PROP.getProperty("bot.commandchannel"));
-            CMD.useBotMentionAsPrefix = true;
-
-            API.getThreadPool()
-                    .getScheduler()
-                    .scheduleAtFixedRate(() -> {
-                        try {
-                            PROP.storeData();
-                            AssignmentManager.INSTANCE.storeData();
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }, 5, 5, TimeUnit.MINUTES);
+            STORAGE.scheduleAtFixedRate(() -> {
+                try {
+                    storeProperties();
+                    AssignmentManager.INSTANCE.storeData();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, 5, 5, TimeUnit.MINUTES);
             Runtime.getRuntime().addShutdownHook(new Thread(JimBot::shutdown));
 
-            AssignmentManager.INSTANCE.init();
+            int metricsPort = Integer.getInteger("jim.metrics.port", 9464);
+            METRICS = metricsPort < 0 ? null : new MetricsEndpoint(JimMetrics.REGISTRY, metricsPort);
+
+            String cluster = System.getProperty("jim.cluster");
+            if (cluster == null) CLUSTER = null;
+            else {
+                ShardLayout layout = AssignmentManager.INSTANCE.getLayout();
+                LeaseTable leases = new LeaseTable(
+                        FileProvider.getFile("data/leases.json"),
+                        cluster,
+                        TimeUnit.SECONDS.toMillis(Long.getLong("jim.cluster.lease", 30))
+                );
+
+                // only the first instance of the cluster may move assignments between shards
+                leases.join(SHARDS.length(), layout::repartition);
+                CLUSTER = new ClusterCoordinator(leases, new ClusterCoordinator.Owner() {
+                    @Override
+                    public void acquired(int shard) throws IOException {
+                        DiscordApi api = booting(BUILDER.setCurrentShard(shard).login().join());
 
-            API.updateStatus(UserStatus.ONLINE);
-            API.updateActivity(ActivityType.LISTENING, CMD.prefixes[0] + "help");
+                        SHARDS.set(shard, api);
+                        try {
+                            AssignmentManager.INSTANCE.start(shard);
+                        } catch (IOException | RuntimeException e) {
+                            SHARDS.set(shard, null);
+                            api.disconnect();
+                            throw e;
+                        }
+                        commands(api);
+                        listen(api);
+                    }
+
+                    @Override
+                    public void lost(int shard) throws IOException {
+                        disconnect(SHARDS.get(shard));
+                    }
+                });
+            }
         } catch (Exception e) {
             throw new RuntimeException("Error in initializer", e);
         }
     }
 
+    /*
+    Boots in phases: the login, the properties and the assignments from disk are loaded concurrently. The commands
+    are registered as soon as the shards are logged in, but wait for the assignments to be started.
+    Runs after the static initializer, since the phases run on other threads that need this class.
+     */
     public static void main(String[] args) {
-        API.addListener(AssignmentManager.INSTANCE);
+        Startup startup = Startup.INSTANCE;
+
+        try {
+            // in cluster mode, every shard is connected once its lease was acquired
+            if (CLUSTER != null) {
+                PROP = startup.supply("properties", JimBot::properties).join();
+                startup.ready();
+                CLUSTER.start();
+                return;
+            }
+
+            CompletableFuture<Void> login = startup.phase("login", JimBot::loginAll);
+            CompletableFuture<Void> assignments = startup.phase("assignments", AssignmentManager.INSTANCE::load);
+            PROP = startup.supply("properties", JimBot::properties).join();
+
+            login.join();
+            startup.phase("commands", () -> {
+                for (int shard = 0; shard < SHARDS.length(); shard++) commands(SHARDS.get(shard));
+            }).join();
+
+            assignments.join();
+            startup.phase("reconciliation", AssignmentManager.INSTANCE::start).join();
+            for (int shard = 0; shard < SHARDS.length(); shard++) listen(SHARDS.get(shard));
+
+            startup.ready();
+        } catch (CompletionException e) {
+            LOG.fatal("Could not start", e.getCause());
+            System.exit(1);
+        }
+    }
+
+    private static AssignmentStore.Factory selectStore(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "snapshot":
+                return directory -> new AssignmentPersistence(directory, SNAPSHOT_FORMAT, 50, TimeUnit.MILLISECONDS);
+            case "servers":
+                return directory -> new ServerFileStore(directory, SNAPSHOT_FORMAT, 50, TimeUnit.MILLISECONDS);
+            case "h2":
+                return DatabaseStore::new;
+            default:
+                throw new IllegalArgumentException("Unknown assignment store: " + name);
+        }
+    }
+
+    /*
+    The manager loads from and saves into a scratch copy of the properties, see #storeProperties.
+     */
+    private static ServerPropertiesManager properties() throws IOException {
+        File stored = FileProvider.getFile("data/properties.json");
+        storedProperties = Files.readAllBytes(stored.toPath());
+        Files.write(PROPERTIES_SCRATCH.toPath(), storedProperties);
+
+        ServerPropertiesManager properties = new ServerPropertiesManager(PROPERTIES_SCRATCH);
+
+        properties.register("bot.prefix", "jim@")
+                .setDisplayName("Custom Command Prefix")
+                .setDescription("A custom prefix to call bot commands with");
+        properties.register("bot.commandchannel", -1)
+                .setDisplayName("Command Channel ID")
+                .setDescription("The ID of the only channel where the commands should be executed.\n" +
+                        "If the ID is invalid, every channel is accepted.");
+
+        return properties;
+    }
+
+    /*
+    ServerPropertiesManager can only serialize all properties into its file, and they rarely change. Its scratch file
+    only replaces the properties if the bytes differ from the last time they were stored.
+     */
+    private static void storeProperties() throws IOException {
+        if (PROP == null) return;
+
+        PROP.storeData();
+        byte[] bytes = Files.readAllBytes(PROPERTIES_SCRATCH.toPath());
+        if (Arrays.equals(bytes, storedProperties)) return;
+
+        Files.copy(PROPERTIES_SCRATCH.toPath(), FileProvider.getFile("data/properties.json").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        storedProperties = bytes;
+    }
+
+    /*
+    Logs in all shards concurrently; a shard that fails to log in fails the phase with the cause of the failure.
+     */
+    private static void loginAll() {
+        for (CompletableFuture<DiscordApi> login : BUILDER.loginAllShards()) {
+            DiscordApi api = booting(login.join());
+            SHARDS.set(api.getCurrentShard(), api);
+        }
+
+        LOG.info("Logged in [" + SHARDS.length() + "] shards");
+    }
+
+    private static DiscordApi booting(DiscordApi shard) {
+        shard.updateStatus(UserStatus.DO_NOT_DISTURB);
+        shard.updateActivity("Booting up...");
+        return shard;
+    }
+
+    /*
+    Registers the commands of a shard; the commands that need the assignments wait until they are started.
+     */
+    private static void commands(DiscordApi shard) {
+        CommandHandler handler = new CommandHandler(shard);
+        handler.prefixes = new String[]{"jim@"};
+        handler.useDefaultHelp(null);
+        handler.registerCommands(BasicCommands.INSTANCE);
+        handler.registerCommands(JimCommands.INSTANCE);
+        handler.registerCommands(AdminCommands.INSTANCE);
+
+        PROP.usePropertyCommand(null, handler);
+        handler.useCustomPrefixes(PROP.getProperty("bot.prefix"));
+        handler.useCommandChannel(PROP.getProperty("bot.commandchannel"));
+        handler.useBotMentionAsPrefix = true;
+        CMD.set(shard.getCurrentShard(), handler);
+    }
+
+    /*
+    Adds the listeners of a shard whose assignments are started and shows it as online.
+     */
+    private static void listen(DiscordApi shard) {
+        shard.addListener(AssignmentManager.INSTANCE.getPartition(shard.getCurrentShard()));
+        shard.addListener(RoleNameIndex.INSTANCE);
+        if (MemberRoles.INSTANCE.isLowMemory()) shard.addListener(MemberRoles.INSTANCE);
+
+        shard.updateStatus(UserStatus.ONLINE);
+        shard.updateActivity(ActivityType.LISTENING, CMD.get(shard.getCurrentShard()).prefixes[0] + "help");
+    }
+
+    /*
+    Stops the events of a shard first, then stores its assignments while its removals can still finish.
+     */
+    private static void disconnect(DiscordApi shard) throws IOException {
+        int index = shard.getCurrentShard();
+
+        shard.removeListener(AssignmentManager.INSTANCE.getPartition(index));
+        shard.removeListener(RoleNameIndex.INSTANCE);
+        shard.getServers().forEach(server -> RoleNameIndex.INSTANCE.forget(server.getId()));
+        shard.removeListener(MemberRoles.INSTANCE);
+        AssignmentManager.INSTANCE.stop(index);
+
+        CMD.set(index, null);
+        SHARDS.set(index, null);
+        shard.disconnect();
     }
 
     private static void shutdown() {
+        if (METRICS != null) METRICS.close();
+
         try {
+            if (CLUSTER != null) CLUSTER.close();
             AssignmentManager.INSTANCE.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
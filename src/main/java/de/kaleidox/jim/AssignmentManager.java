@@ -2,247 +2,351 @@ package de.kaleidox.jim;
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.ParseException;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
 
 import de.kaleidox.JimBot;
+import de.kaleidox.jim.discord.DiscordShard;
+import de.kaleidox.jim.discord.JavacordShard;
+import de.kaleidox.jim.persistence.AssignmentStore;
+import de.kaleidox.jim.persistence.ShardLayout;
 import de.kaleidox.util.files.FileProvider;
 import de.kaleidox.util.interfaces.Initializable;
+import de.kaleidox.util.time.DurationParser;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.logging.log4j.Logger;
 import org.javacord.api.entity.permission.Role;
 import org.javacord.api.entity.user.User;
-import org.javacord.api.event.server.role.UserRoleRemoveEvent;
-import org.javacord.api.listener.server.role.UserRoleRemoveListener;
 import org.javacord.core.util.logging.LoggerUtil;
 
 import static java.time.Instant.now;
 
-public enum AssignmentManager implements UserRoleRemoveListener, Initializable, Closeable {
+/*
+Routes every assignment to the AssignmentPartition of the shard its server is on.
+Partitions are loaded and stored independently; every shard gets its partition as listener.
+In cluster mode only the partitions leased by this process are present, see #start and #stop.
+ */
+public enum AssignmentManager implements Initializable, Closeable {
     INSTANCE;
 
     private static final Logger log = LoggerUtil.getLogger(AssignmentManager.class);
-    private static final File FILE = FileProvider.getFile("data/timed.json");
 
-    private Map<String, List<TemporaryAssignment>> assignments = new ConcurrentHashMap<>();
+    private volatile AssignmentPartition[] partitions = new AssignmentPartition[0];
 
     @Override
     public void init() throws IOException {
-        JsonNode data = new ObjectMapper().readTree(FILE);
-
-        if (data == null) return;
-
-        Iterator<String> serverIds = data.fieldNames();
-        serverIds.forEachRemaining(sId -> {
-            JsonNode serverNode = data.get(sId);
-
-            Iterator<String> userIds = serverNode.fieldNames();
-            userIds.forEachRemaining(uId -> {
-                JsonNode userNode = serverNode.get(uId);
-
-                JsonNode assignmentArray = userNode.get("assignments");
-                for (JsonNode assignmentNode : assignmentArray) {
-                    assignments.compute(sId + ":" + uId, (k, v) -> {
-                        if (v == null) v = new ArrayList<>();
-                        TemporaryAssignment assignment = new TemporaryAssignment(assignmentNode);
-                        if (assignment.isOutdated()) {
-                            assignment.remove(TemporaryAssignment.RemovalStatus.OUTDATED);
-                            log.debug("Skipped loading assignment of role [" + assignment.getRoleid() + "] for user " +
-                                    "[" + assignment.getUserId() + "]: The assignment is outdated.");
-                        } else {
-                            v.add(assignment);
-                            log.debug("Loaded assignment of role [" + assignment.getRoleid() + "] " +
-                                    "for user [" + assignment.getUserId() + "]");
-                        }
-                        return v;
-                    });
+        load();
+        start();
+    }
+
+    /*
+    Loads the assignments of all shards from disk; needs no connection to Discord.
+     */
+    public void load() throws IOException {
+        ShardLayout layout = getLayout();
+
+        layout.repartition();
+
+        AssignmentStore[] stores = new AssignmentStore[JimBot.SHARDS.length()];
+        for (int shard = 0; shard < stores.length; shard++) stores[shard] = layout.open(shard);
+        load(stores);
+    }
+
+    /*
+    Starts all loaded partitions concurrently, once their shards are logged in.
+     */
+    public void start() {
+        long start = System.nanoTime();
+        CompletableFuture<?>[] started = new CompletableFuture[partitions.length];
+        for (AssignmentPartition partition : partitions)
+            started[partition.getShard()] = CompletableFuture.runAsync(
+                    partition::start,
+                    JimThreads.INSTANCE.blocking(partition.getDiscord()::getExecutor, 1)
+            );
+        CompletableFuture.allOf(started).join();
+
+        JimMetrics.initialized(System.nanoTime() - start);
+    }
+
+    /*
+    Creates one partition per shard and loads them concurrently, shard i from stores[i].
+     */
+    public void load(AssignmentStore... stores) throws IOException {
+        load(shard -> new JavacordShard(() -> JimBot.SHARDS.get(shard)), stores);
+    }
+
+    /*
+    Like #load(AssignmentStore...), with the partitions talking to the given shards instead of the ones of JimBot.
+     */
+    public void load(IntFunction<DiscordShard> shards, AssignmentStore... stores) throws IOException {
+        long start = System.nanoTime();
+        AssignmentPartition[] partitions = new AssignmentPartition[stores.length];
+        CompletableFuture<?>[] loaded = new CompletableFuture[stores.length];
+
+        for (int shard = 0; shard < stores.length; shard++) {
+            int index = shard;
+            AssignmentPartition partition = new AssignmentPartition(shard, shards.apply(shard));
+
+            partitions[shard] = partition;
+            loaded[shard] = CompletableFuture.runAsync(() -> {
+                try {
+                    partition.load(stores[index]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
             });
-        });
+        }
 
-        assignments.values()
-                .stream()
-                .flatMap(Collection::stream)
-                .forEach(TemporaryAssignment::scheduleRemoval);
+        try {
+            CompletableFuture.allOf(loaded).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
 
-        JimBot.API.getThreadPool()
-                .getScheduler()
-                .scheduleAtFixedRate(this::cleanup, 10, 10, TimeUnit.MINUTES);
+        this.partitions = partitions;
+        log.info("Loaded [" + getAssignmentCount() + "] assignments of [" + partitions.length + "] shards in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /*
+    Loads, reconciles and adds the partition of one shard; the shard has to be connected already.
+     */
+    public void start(int shard) throws IOException {
+        DiscordShard discord = new JavacordShard(() -> JimBot.SHARDS.get(shard));
+        AssignmentPartition partition = new AssignmentPartition(shard, discord);
+
+        partition.load(getLayout().open(shard));
+        partition.start();
+
+        synchronized (this) {
+            AssignmentPartition[] partitions = Arrays.copyOf(this.partitions, JimBot.SHARDS.length());
+            partitions[shard] = partition;
+            this.partitions = partitions;
+        }
+    }
+
+    /*
+    Removes the partition of one shard, stores it and stops all of its expirations.
+     */
+    public void stop(int shard) throws IOException {
+        AssignmentPartition partition;
+
+        synchronized (this) {
+            AssignmentPartition[] partitions = this.partitions.clone();
+            partition = partitions[shard];
+            partitions[shard] = null;
+            this.partitions = partitions;
+        }
+
+        if (partition != null) partition.close();
+    }
+
+    public ShardLayout getLayout() {
+        File directory = FileProvider.getFile("data/" + JimBot.SNAPSHOT_FORMAT.getFileName())
+                .getAbsoluteFile()
+                .getParentFile();
+
+        return new ShardLayout(directory, JimBot.STORE, JimBot.SHARDS.length());
+    }
+
+    public AssignmentPartition getPartition(int shard) {
+        return partitions[shard];
+    }
+
+    public AssignmentPartition forServer(long serverId) {
+        AssignmentPartition[] partitions = this.partitions;
+        int shard = AssignmentPartition.shardOf(serverId, partitions.length);
+
+        if (partitions[shard] == null)
+            throw new IllegalStateException("Shard [" + shard + "] of server [" + serverId + "] is not run here");
+        return partitions[shard];
     }
 
     @Override
     public void close() throws IOException {
-        cleanup();
+        IOException failure = null;
+
+        for (AssignmentPartition partition : partitions) {
+            if (partition == null) continue;
+
+            try {
+                partition.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
 
-        storeData();
+        if (failure != null) throw failure;
     }
 
+    /*
+    Stores every partition into its own store; a failing partition does not keep the others from being stored.
+     */
     public void storeData() throws IOException {
-        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        long start = System.nanoTime();
+        long bytes = 0;
+        IOException failure = null;
+
+        for (AssignmentPartition partition : partitions) {
+            if (partition == null) continue;
+
+            try {
+                bytes += partition.storeData();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
 
-        assignments.forEach((key, value) -> {
-            String[] split = key.split(":");
+        JimMetrics.stored(System.nanoTime() - start, bytes);
+        if (failure != null) throw failure;
+    }
 
-            ObjectNode serverNode = node.has(split[0])
-                    ? (ObjectNode) node.get(split[0])
-                    : node.putObject(split[0]);
+    public Instant removeRoleAfter(User target, Role targetRole, String timeString, boolean temporaryRole) throws ParseException {
+        long removeAt = DurationParser.resolve(timeString, now().getEpochSecond());
+        long serverId = targetRole.getServer().getId();
 
-            ObjectNode userNode = serverNode.has(split[1])
-                    ? (ObjectNode) serverNode.get(split[1])
-                    : serverNode.putObject(split[1]);
+        forServer(serverId).add(serverId, target.getId(), targetRole.getId(), removeAt, temporaryRole);
 
-            ArrayNode assignmentsArray = userNode.has("assignments")
-                    ? (ArrayNode) userNode.get("assignments")
-                    : userNode.putArray("assignments");
+        return Instant.ofEpochSecond(removeAt);
+    }
 
-            for (TemporaryAssignment temporaryAssignment : value)
-                assignmentsArray.add(temporaryAssignment.toJson());
-        });
+    /*
+    Registers the same assignment for all targets as one batch, with one journal record.
+    Returns the ids of the targets with a new assignment; targets that already have the exact assignment are skipped.
+     */
+    public long[] removeRoleAt(Collection<User> targets, Role targetRole, long removeAt, boolean temporaryRole) {
+        long serverId = targetRole.getServer().getId();
+        long[] userIds = targets.stream().mapToLong(User::getId).toArray();
 
-        FileWriter fileWriter = new FileWriter(FILE);
-        fileWriter.write(node.toString());
-        fileWriter.close();
+        return forServer(serverId).addBatch(serverId, userIds, targetRole.getId(), removeAt, temporaryRole);
     }
 
-    public Instant removeRoleAfter(User target, Role targetRole, String timeString, boolean temporaryRole) throws ParseException {
-        Instant now = now();
+    /*
+    Returns the number of new assignments.
+     */
+    public int removeRoleAt(long serverId, long[] userIds, long roleId, long removeAt, boolean temporaryRole) {
+        return forServer(serverId).addBatch(serverId, userIds, roleId, removeAt, temporaryRole).length;
+    }
 
-        long secondsDuration = extractTime(timeString);
-        Instant targetInstant = now.plusSeconds(secondsDuration);
+    /*
+    Drops an assignment that was registered before the role was added, once adding the role failed.
+     */
+    public void withdraw(long serverId, long userId, long roleId, long removeAt, boolean temporaryRole) {
+        forServer(serverId).withdraw(serverId, userId, roleId, removeAt, temporaryRole);
+    }
 
-        assignments.compute(targetRole.getServer().getId() + ":" + target.getId(), (k, v) -> {
-            if (v == null) v = new ArrayList<>();
-            TemporaryAssignment assignment = new TemporaryAssignment(target, targetRole, targetInstant, temporaryRole);
-            v.add(assignment);
-            assignment.scheduleRemoval();
-            return v;
-        });
+    /*
+    Takes a role removal that did not come through a listener of the shard, like from a DiscordShard stand-in.
+     */
+    public void roleRemoved(long serverId, long userId, long roleId) {
+        forServer(serverId).roleRemoved(serverId, userId, roleId);
+    }
 
-        return targetInstant;
+    /*
+    Returns a page of the active assignments of the server, ordered by their removal time.
+    With a store that has a horizon, the ones beyond it are read from the store; they have no handle.
+     */
+    public List<TemporaryAssignment> getAssignments(long serverId, int offset, int limit) {
+        return forServer(serverId).list(serverId, offset, limit);
     }
 
-    @Override
-    public void onUserRoleRemove(UserRoleRemoveEvent event) {
-        long role = event.getRole().getId();
+    /*
+    Returns the active assignments of the user on the server, ordered by their removal time.
+     */
+    public List<TemporaryAssignment> getAssignments(long serverId, long userId) {
+        return forServer(serverId).list(serverId, userId);
+    }
 
-        assignments.forEach((key, list) -> {
-            for (TemporaryAssignment assignment : list) {
-                if (assignment.getRoleid() == role) {
-                    assignment.remove(TemporaryAssignment.RemovalStatus.CANCELLED);
-                }
-            }
-        });
+    public List<TemporaryAssignment> getAssignments(long serverId, long userId, long roleId) {
+        return forServer(serverId).find(serverId, userId, roleId);
     }
 
-    private void cleanup() {
-        class RemovalPair {
-            final String key;
-            final TemporaryAssignment assignment;
+    /*
+    Moves the assignment to [removeAt]; a time in the past lets it expire right away.
+    Returns false if the assignment is no longer active, or if the same one with the new time exists already.
+     */
+    public boolean reschedule(TemporaryAssignment assignment, long removeAt) {
+        return forServer(assignment.getServerId()).reschedule(assignment, removeAt);
+    }
 
-            RemovalPair(String key, TemporaryAssignment assignment) {
-                this.key = key;
-                this.assignment = assignment;
-            }
-        }
+    /*
+    Removes the role from the user now and ends all of its assignments. Returns the number of active assignments
+    that were ended.
+     */
+    public int revoke(long serverId, long userId, long roleId) {
+        return forServer(serverId).revoke(serverId, userId, roleId);
+    }
 
-        List<RemovalPair> removalPairs = new ArrayList<>();
+    public ServerBatchExecutor getAdditions(long serverId) {
+        return forServer(serverId).getAdditions();
+    }
 
-        assignments.forEach((key, list) -> {
-            for (TemporaryAssignment assignment : list) {
-                if (assignment.cleanupable)
-                    removalPairs.add(new RemovalPair(key, assignment));
-            }
-        });
-
-        removalPairs.forEach(pair -> assignments.compute(pair.key, (k, v) -> {
-            if (v == null) return null;
-            v.remove(pair.assignment);
-            if (v.size() == 0) return null;
-            return v;
-        }));
-
-        for (String key : assignments.keySet())
-            assignments.compute(key, (k, v) -> {
-                if (v == null || v.size() == 0)
-                    return null;
-                return v;
-            });
+    public int getAssignmentCount() {
+        int count = 0;
+        for (AssignmentPartition partition : partitions)
+            if (partition != null) count += partition.getAssignmentCount();
 
-        if (removalPairs.size() > 0)
-            log.info("Cleaned up [" + removalPairs.size() + "] old assignments!");
+        return count;
     }
 
-    public static long extractTime(String timeString) throws ParseException {
-        int weeks = 0, days = 0, hours = 0, minutes = 0, seconds = 0;
-
-        char[] chars = timeString.toCharArray();
-        int c = 0;
-
-        for (int i = 0; i < chars.length; i++) {
-            char p = chars[i];
-
-            if (Character.isDigit(p)) {
-                c = c * 10;
-                c += Integer.parseInt(String.valueOf(p));
-            } else //noinspection StatementWithEmptyBody
-                if (Character.isWhitespace(p)) {
-                    // skip character
-                } else {
-                    switch (p) {
-                        case 'w':
-                            if (weeks != 0)
-                                throw new ParseException("Illegal duplication: WEEKS field [" + timeString + "]", i);
-                            weeks = c;
-                            break;
-                        case 'd':
-                            if (days != 0)
-                                throw new ParseException("Illegal duplication: DAYS field [" + timeString + "]", i);
-                            days = c;
-                            break;
-                        case 'h':
-                            if (hours != 0)
-                                throw new ParseException("Illegal duplication: HOURS field [" + timeString + "]", i);
-                            hours = c;
-                            break;
-                        case 'm':
-                            if (minutes != 0)
-                                throw new ParseException("Illegal duplication: MINUTES field [" + timeString + "]", i);
-                            minutes = c;
-                            break;
-                        case 's':
-                            if (seconds != 0)
-                                throw new ParseException("Illegal duplication: SECONDS field [" + timeString + "]", i);
-                            seconds = c;
-                            break;
-                        default:
-                            throw new ParseException("Unknown identifier: [" + p + "]", i);
-                    }
-
-                    c = 0;
-                }
-        }
+    public int getAssignmentCount(long serverId) {
+        return forServer(serverId).getAssignmentCount(serverId);
+    }
 
-        if (c != 0 && minutes == 0)
-            minutes = c;
+    /*
+    Returns the number of assignments per shard that are not finished yet; the tables keep count, nothing is walked.
+     */
+    public Map<String, Integer> getPendingByShard() {
+        Map<String, Integer> pending = new HashMap<>();
+        for (AssignmentPartition partition : partitions)
+            if (partition != null) pending.put(Integer.toString(partition.getShard()), partition.getPendingCount());
+
+        return pending;
+    }
+
+    /*
+    Returns the number of active assignments of the server, those that are not being removed yet, in O(1).
+    With a store that has a horizon, only the ones within the look-ahead window are counted.
+     */
+    public int getPendingCount(long serverId) {
+        return forServer(serverId).getPendingCount(serverId);
+    }
+
+    public int getRemovalsInFlight() {
+        int inFlight = 0;
+        for (AssignmentPartition partition : partitions)
+            if (partition != null) inFlight += partition.getRemovals().getInFlight();
+
+        return inFlight;
+    }
+
+    public int getRemovalsQueued() {
+        int queued = 0;
+        for (AssignmentPartition partition : partitions)
+            if (partition != null) queued += partition.getRemovals().getQueued();
+
+        return queued;
+    }
+
+    /*
+    Returns the seconds from now until the time expression, see DurationParser for the accepted forms.
+     */
+    public static long extractTime(String timeString) throws ParseException {
+        long now = now().getEpochSecond();
 
-        return (weeks * 7 * 24 * 60 * 60)
-                + (days * 24 * 60 * 60)
-                + (hours * 60 * 60)
-                + (minutes * 60)
-                + seconds;
+        return DurationParser.resolve(timeString, now) - now;
     }
 }
@@ -0,0 +1,560 @@
+package de.kaleidox.jim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.discord.DiscordShard;
+import de.kaleidox.jim.persistence.AssignmentStore;
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.api.event.server.role.UserRoleAddEvent;
+import org.javacord.api.event.server.role.UserRoleRemoveEvent;
+import org.javacord.api.listener.server.role.UserRoleAddListener;
+import org.javacord.api.listener.server.role.UserRoleRemoveListener;
+import org.javacord.api.util.logging.ExceptionLogger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+import static java.time.Instant.now;
+
+/*
+The assignments of the servers on one gateway shard, with their own table, store, expiration wheel and
+removal pipelines. A partition is only ever given the events and the assignments of its own shard.
+With a store that has a horizon, only the assignments due within the look-ahead window are held in the table.
+ */
+public class AssignmentPartition implements UserRoleAddListener, UserRoleRemoveListener, Closeable {
+    private static final Logger log = LoggerUtil.getLogger(AssignmentPartition.class);
+    private static final Duration HOT_WINDOW = Duration.ofMinutes(15);
+    private static final Duration SWEEP_GRACE = Duration.ofMinutes(1);
+    private static final int SWEEP_SLOTS = 4096;
+    private static final long SWEEP_INTERVAL = 30;
+    private static final Duration LOOK_AHEAD = Duration.ofHours(1);
+    private static final long ADVANCE_INTERVAL = 10;
+    private static final int EXPIRATION_PERMITS = 256;
+    private static final int RECONCILE_PERMITS = 64;
+    private static final long COALESCE_WINDOW_MILLIS = 250;
+
+    private final int shard;
+    private final DiscordShard discord;
+    private final AssignmentTable table = new AssignmentTable();
+    private final TemporaryRoleTracker temporaryRoles = new TemporaryRoleTracker();
+    private final RestPipeline removals;
+    private final RestPipeline lookups;
+    private final RemovalCoalescer coalescer;
+    private final ServerBatchExecutor additions;
+    private final ExpirationWheel expirations;
+    /* Held while deciding whether an assignment goes into the table, so the horizon does not move meanwhile */
+    private final Object horizonLock = new Object();
+    private AssignmentStore store;
+    private ScheduledFuture<?> sweeping;
+    private ScheduledFuture<?> advancing;
+    /* Once closed, the store may already belong to the partition on another process */
+    private boolean closed = false;
+
+    public AssignmentPartition(int shard, DiscordShard discord) {
+        this.shard = shard;
+        this.discord = discord;
+        this.removals = new RestPipeline(16, 5, 1000, discord::getScheduler);
+        this.lookups = new RestPipeline(8, 3, 500, discord::getScheduler);
+        this.coalescer = new RemovalCoalescer(
+                COALESCE_WINDOW_MILLIS,
+                discord::getScheduler,
+                (serverId, userId, roleIds) -> removals.submit(() -> discord.removeRoles(serverId, userId, roleIds))
+        );
+        this.additions = new ServerBatchExecutor(
+                10,
+                10,
+                TimeUnit.SECONDS,
+                5000,
+                5,
+                discord::getScheduler
+        );
+        this.expirations = new ExpirationWheel(
+                "Jim - Assignment Expirations #" + shard,
+                100,
+                TimeUnit.MILLISECONDS,
+                this::expire,
+                JimThreads.INSTANCE.blocking(discord::getExecutor, EXPIRATION_PERMITS)
+        );
+    }
+
+    /*
+    Maps a server to its shard, the same way Discord does.
+     */
+    public static int shardOf(long serverId, int totalShards) {
+        return (int) ((serverId >> 22) % totalShards);
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    /*
+    Loads the persisted assignments due within the look-ahead window, without Discord.
+     */
+    public void load(AssignmentStore store) throws IOException {
+        long start = System.nanoTime();
+        this.store = store;
+        store.load(table, now().plus(LOOK_AHEAD).getEpochSecond());
+
+        log.info("Loaded [" + table.size() + "] assignments of shard [" + shard + "] in "
+                + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /*
+    Schedules the expiration of the loaded assignments, reconciles them with the servers of the shard and starts
+    the sweep. Discord is only queried for the holders of temporary roles.
+     */
+    public void start() {
+        for (long handle : table.handles()) loaded(handle);
+
+        new StartupReconciler(table, lookups, discord, JimThreads.INSTANCE.blocking(discord::getExecutor,
+                RECONCILE_PERMITS))
+                .reconcile(now().plus(HOT_WINDOW).getEpochSecond())
+                .join();
+
+        sweeping = discord.getScheduler()
+                .scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.SECONDS);
+        if (store.getHorizon() != Long.MAX_VALUE)
+            advancing = discord.getScheduler()
+                    .scheduleWithFixedDelay(this::advance, ADVANCE_INTERVAL, ADVANCE_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+
+        expirations.close();
+        if (sweeping != null) sweeping.cancel(false);
+        if (advancing != null) advancing.cancel(false);
+
+        try {
+            if (store == null) return;
+            storeData();
+            store.close();
+        } finally {
+            closed = true;
+        }
+    }
+
+    /*
+    Returns the size of the store. Synchronized, since the snapshot file is written in place; does nothing once the
+    partition was closed.
+     */
+    public synchronized long storeData() throws IOException {
+        if (closed) return 0;
+
+        long bytes = store.store(table);
+
+        log.debug("Stored [" + table.size() + "] assignments of shard [" + shard + "] in a store of [" + bytes
+                + "] bytes");
+        return bytes;
+    }
+
+    void add(long serverId, long userId, long roleId, long removeAt, boolean temporaryRole) {
+        synchronized (horizonLock) {
+            if (removeAt > store.getHorizon()) {
+                store.record("add", deferred(serverId, userId, roleId, removeAt, temporaryRole));
+                return;
+            }
+
+            long handle = table.insert(serverId, userId, roleId, removeAt, temporaryRole);
+
+            if (handle != AssignmentTable.NONE) {
+                if (temporaryRole) {
+                    temporaryRoles.assigned(roleId, () -> discord.getHolders(roleId));
+                    temporaryRoles.holderAdded(roleId, userId);
+                }
+
+                store.record("add", table.view(handle));
+                schedule(handle, removeAt);
+            }
+        }
+    }
+
+    /*
+    Returns the ids of the users that got a new assignment.
+    Assignments beyond the horizon are only recorded into the store; they cannot be told apart from existing ones
+    there, so all of their targets count as new.
+     */
+    long[] addBatch(long serverId, long[] userIds, long roleId, long removeAt, boolean temporaryRole) {
+        List<TemporaryAssignment> batch = new ArrayList<>(userIds.length);
+
+        synchronized (horizonLock) {
+            if (removeAt > store.getHorizon()) {
+                for (long userId : userIds) batch.add(deferred(serverId, userId, roleId, removeAt, temporaryRole));
+
+                store.recordBatch(batch);
+                return userIds.clone();
+            }
+
+            for (long userId : userIds) {
+                long handle = table.insert(serverId, userId, roleId, removeAt, temporaryRole);
+
+                if (handle != AssignmentTable.NONE) batch.add(table.view(handle));
+            }
+
+            if (temporaryRole) for (TemporaryAssignment assignment : batch) {
+                temporaryRoles.assigned(roleId, () -> discord.getHolders(roleId));
+                temporaryRoles.holderAdded(roleId, assignment.getUserId());
+            }
+
+            store.recordBatch(batch);
+            for (TemporaryAssignment assignment : batch) schedule(assignment.getHandle(), removeAt);
+        }
+
+        return batch.stream().mapToLong(TemporaryAssignment::getUserId).toArray();
+    }
+
+    /*
+    Drops an assignment of a role that the user never got, without touching the user. A temporary role is not
+    deleted here; the one who created it knows best whether anybody got it.
+     */
+    void withdraw(long serverId, long userId, long roleId, long removeAt, boolean temporaryRole) {
+        TemporaryAssignment assignment;
+
+        synchronized (horizonLock) {
+            long handle = table.find(serverId, userId, roleId, removeAt);
+
+            if (handle == AssignmentTable.NONE) {
+                if (removeAt > store.getHorizon())
+                    store.record("remove", deferred(serverId, userId, roleId, removeAt, temporaryRole));
+                return;
+            }
+
+            assignment = table.view(handle);
+        }
+
+        if (!beginRemoval(assignment, TemporaryAssignment.RemovalStatus.CANCELLED)
+                || !table.setFlag(assignment.getHandle(), AssignmentTable.CLEANUPABLE)) return;
+
+        store.record("remove", assignment);
+        table.free(assignment.getHandle());
+        if (temporaryRole) temporaryRoles.release(roleId, userId, true);
+    }
+
+    /*
+    Moves an assignment to another removal time. The old timeout is cancelled, and if it fires anyway while the
+    assignment is moved, #expire finds the assignment not due yet.
+    An assignment moved beyond the horizon stays in the table; the store then also holds it as deferred, and loading
+    it again at the horizon finds it present already.
+     */
+    boolean reschedule(TemporaryAssignment assignment, long removeAt) {
+        synchronized (horizonLock) {
+            long handle = assignment.getHandle();
+
+            // an assignment beyond the horizon is only in the store, unless the horizon passed it meanwhile
+            if (handle == AssignmentTable.NONE) {
+                handle = table.find(assignment.getServerId(), assignment.getUserId(), assignment.getRoleid(),
+                        assignment.getRemoveAtEpochSecond());
+
+                if (handle == AssignmentTable.NONE) return rescheduleDeferred(assignment, removeAt);
+            }
+
+            TemporaryAssignment previous = table.view(handle);
+            ExpirationWheel.Timeout timeout = table.getTimeout(handle);
+            if (previous == null || !table.reschedule(handle, removeAt)) return false;
+
+            if (timeout != null) timeout.cancel();
+            store.record("remove", previous);
+            store.record("add", table.view(handle));
+            schedule(handle, removeAt);
+        }
+
+        return true;
+    }
+
+    /*
+    Ends the assignments of the role to the user right away and removes the role; the ones beyond the horizon are
+    dropped from the store. Returns the number of assignments that were ended.
+     */
+    int revoke(long serverId, long userId, long roleId) {
+        List<TemporaryAssignment> active = new ArrayList<>();
+        int revoked;
+
+        synchronized (horizonLock) {
+            long horizon = store.getHorizon();
+            revoked = store.cancelDeferred(serverId, userId, roleId);
+
+            for (long handle : table.findByUser(serverId, userId)) {
+                TemporaryAssignment assignment = table.view(handle);
+                if (assignment == null || assignment.getRoleid() != roleId) continue;
+
+                active.add(assignment);
+                // one that was moved beyond the horizon was counted by the store already
+                if (assignment.getRemoveAtEpochSecond() <= horizon) revoked++;
+            }
+        }
+
+        for (TemporaryAssignment assignment : active) assignment.remove(TemporaryAssignment.RemovalStatus.REVOKED);
+
+        // the assignments beyond the horizon have no removal of their own that would take the role
+        if (active.isEmpty() && revoked > 0 && discord.roleExists(serverId, roleId))
+            coalescer.remove(serverId, userId, roleId)
+                    .thenRun(() -> log.info("Removed role [" + roleId + "] from user [" + userId + "], its " +
+                            "assignments beyond the horizon were revoked"))
+                    .exceptionally(ExceptionLogger.get());
+
+        return revoked;
+    }
+
+    /*
+    Returns the unfinished assignments of the role to the user, ordered by their removal time.
+     */
+    List<TemporaryAssignment> find(long serverId, long userId, long roleId) {
+        List<TemporaryAssignment> found = new ArrayList<>();
+
+        for (TemporaryAssignment assignment : list(serverId, userId))
+            if (assignment.getRoleid() == roleId) found.add(assignment);
+
+        return found;
+    }
+
+    /*
+    Returns a page of the unfinished assignments of the server, ordered by their removal time. The table has those
+    up to the horizon, the store those beyond it; the ones beyond it that are in the table, since they were moved
+    there, are taken from the store in their order and then replaced by their view from the table.
+     */
+    List<TemporaryAssignment> list(long serverId, int offset, int limit) {
+        synchronized (horizonLock) {
+            int known = table.countByServer(serverId, store.getHorizon());
+            List<TemporaryAssignment> page = views(table.findByServer(serverId, offset,
+                    Math.min(limit, known - offset)));
+
+            store.findDeferred(serverId, 0, Math.max(0, offset - known), limit - page.size(),
+                    (server, user, role, removeAt, flags) -> addDeferred(page, server, user, role, removeAt, flags));
+            return page;
+        }
+    }
+
+    List<TemporaryAssignment> list(long serverId, long userId) {
+        synchronized (horizonLock) {
+            long horizon = store.getHorizon();
+            List<TemporaryAssignment> found = new ArrayList<>();
+
+            for (TemporaryAssignment assignment : views(table.findByUser(serverId, userId)))
+                if (assignment.getRemoveAtEpochSecond() <= horizon) found.add(assignment);
+
+            store.findDeferred(serverId, userId, 0, Integer.MAX_VALUE,
+                    (server, user, role, removeAt, flags) -> addDeferred(found, server, user, role, removeAt, flags));
+            return found;
+        }
+    }
+
+    int getAssignmentCount() {
+        return table.size();
+    }
+
+    int getAssignmentCount(long serverId) {
+        synchronized (horizonLock) {
+            return table.countByServer(serverId, store.getHorizon()) + store.countDeferred(serverId);
+        }
+    }
+
+    int getPendingCount() {
+        return table.pending();
+    }
+
+    int getPendingCount(long serverId) {
+        return table.countByServer(serverId);
+    }
+
+    ServerBatchExecutor getAdditions() {
+        return additions;
+    }
+
+    RestPipeline getRemovals() {
+        return removals;
+    }
+
+    RemovalCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    DiscordShard getDiscord() {
+        return discord;
+    }
+
+    boolean beginRemoval(TemporaryAssignment assignment, int status) {
+        if (!table.setFlag(assignment.getHandle(), AssignmentTable.REMOVING)) return false;
+
+        if (status != TemporaryAssignment.RemovalStatus.EXPIRED) {
+            ExpirationWheel.Timeout timeout = table.getTimeout(assignment.getHandle());
+            if (timeout != null) timeout.cancel();
+        }
+
+        return true;
+    }
+
+    /*
+    Keeps an assignment whose removal failed for another try: one that is due already is expired again by the sweep,
+    after the grace period, one that is not due yet gets its timeout back.
+     */
+    void removalFailed(TemporaryAssignment assignment) {
+        if (!table.endRemoval(assignment.getHandle())) return;
+
+        if (assignment.getRemoveAtEpochSecond() > now().getEpochSecond())
+            schedule(assignment.getHandle(), assignment.getRemoveAtEpochSecond());
+    }
+
+    void removed(TemporaryAssignment assignment, boolean roleRemoved) {
+        if (!table.setFlag(assignment.getHandle(), AssignmentTable.CLEANUPABLE)) return;
+
+        store.record("remove", assignment);
+        table.free(assignment.getHandle());
+
+        long serverId = assignment.getServerId();
+        long roleId = assignment.getRoleid();
+        if (assignment.isTemporaryRole()
+                && temporaryRoles.release(roleId, assignment.getUserId(), roleRemoved)
+                && !store.isDeferred(roleId)
+                && discord.roleExists(serverId, roleId)
+                && !discord.mayHaveOtherHolders(serverId, roleId, assignment.getUserId()))
+            removals.submit(() -> discord.deleteRole(serverId, roleId))
+                    .thenRun(() -> log.info("Role [" + roleId + "] was a temporary role and was deleted, since " +
+                            "there was no user left with that role"))
+                    .exceptionally(ExceptionLogger.get());
+    }
+
+    /*
+    Loads the assignments that came into the look-ahead window.
+     */
+    private void advance() {
+        try {
+            synchronized (horizonLock) {
+                int count = store.advance(table, now().plus(LOOK_AHEAD).getEpochSecond(), this::loaded);
+
+                if (count > 0) log.debug("Loaded [" + count + "] assignments of shard [" + shard + "] that are due "
+                        + "within " + LOOK_AHEAD);
+            }
+        } catch (IOException e) {
+            log.error("Could not load the assignments that are due next on shard [" + shard + "]", e);
+        }
+    }
+
+    private void loaded(long handle) {
+        TemporaryAssignment assignment = table.view(handle);
+
+        // the only full reconciliation of temporary role holders, afterwards they follow the role events
+        if (assignment.isTemporaryRole()) {
+            temporaryRoles.assigned(assignment.getRoleid(), () -> discord.getHolders(assignment.getRoleid()));
+
+            // a member the shard does not know counts as holder, the reconciliation drops it if it is outdated
+            if (!discord.isMemberCached(assignment.getServerId(), assignment.getUserId()))
+                temporaryRoles.holderAdded(assignment.getRoleid(), assignment.getUserId());
+        }
+
+        schedule(handle, assignment.getRemoveAtEpochSecond());
+    }
+
+    private static TemporaryAssignment deferred(long serverId, long userId, long roleId, long removeAt,
+                                                boolean temporaryRole) {
+        return new TemporaryAssignment(AssignmentTable.NONE, serverId, userId, roleId, removeAt, temporaryRole);
+    }
+
+    private void expire(long handle) {
+        TemporaryAssignment assignment = table.view(handle);
+
+        // the timeout of a rescheduled assignment that fired before it was cancelled
+        if (assignment != null && assignment.getRemoveAtEpochSecond() * 1000 <= System.currentTimeMillis() + 1000)
+            assignment.remove(TemporaryAssignment.RemovalStatus.EXPIRED);
+    }
+
+    /*
+    An assignment beyond the horizon is only in the store; it is written there again with its new removal time, or
+    into the table if that is within the look-ahead window.
+     */
+    private boolean rescheduleDeferred(TemporaryAssignment assignment, long removeAt) {
+        if (assignment.getRemoveAtEpochSecond() == removeAt) return false;
+
+        store.record("remove", assignment);
+        add(assignment.getServerId(), assignment.getUserId(), assignment.getRoleid(), removeAt,
+                assignment.isTemporaryRole());
+        return true;
+    }
+
+    /*
+    Adds an assignment found beyond the horizon, as the view from the table if it was moved there, skipping it if that
+    one is being removed already.
+     */
+    private void addDeferred(List<TemporaryAssignment> found, long serverId, long userId, long roleId, long removeAt,
+                             byte flags) {
+        long handle = table.find(serverId, userId, roleId, removeAt);
+
+        if (handle == AssignmentTable.NONE)
+            found.add(deferred(serverId, userId, roleId, removeAt, (flags & AssignmentTable.TEMPORARY_ROLE) != 0));
+        else if (!table.hasFlag(handle, (byte) (AssignmentTable.REMOVING | AssignmentTable.CLEANUPABLE)))
+            found.add(table.view(handle));
+    }
+
+    private List<TemporaryAssignment> views(long[] handles) {
+        List<TemporaryAssignment> views = new ArrayList<>(handles.length);
+
+        for (long handle : handles) {
+            TemporaryAssignment assignment = table.view(handle);
+            if (assignment != null) views.add(assignment);
+        }
+
+        return views;
+    }
+
+    private void schedule(long handle, long removeAt) {
+        // overdue assignments expire on the next tick of the wheel
+        table.setTimeout(handle, expirations.schedule(removeAt * 1000, handle));
+    }
+
+    @Override
+    public void onUserRoleAdd(UserRoleAddEvent event) {
+        roleAdded(event.getUser().getId(), event.getRole().getId());
+    }
+
+    @Override
+    public void onUserRoleRemove(UserRoleRemoveEvent event) {
+        roleRemoved(event.getServer().getId(), event.getUser().getId(), event.getRole().getId());
+    }
+
+    void roleAdded(long userId, long roleId) {
+        temporaryRoles.holderAdded(roleId, userId);
+    }
+
+    void roleRemoved(long serverId, long userId, long roleId) {
+        temporaryRoles.holderRemoved(roleId, userId);
+        store.cancelDeferred(serverId, userId, roleId);
+        if (!table.isTrackedRole(roleId)) return;
+
+        for (long handle : table.findByRole(roleId, userId)) {
+            TemporaryAssignment assignment = table.view(handle);
+
+            if (assignment != null && assignment.getServerId() == serverId)
+                assignment.remove(TemporaryAssignment.RemovalStatus.CANCELLED);
+        }
+    }
+
+    /*
+    Finished assignments are freed as soon as their removal completes, this only catches what slipped through:
+    finished leftovers, and overdue assignments whose expiration never started.
+     */
+    private void sweep() {
+        long overdue = now().minus(SWEEP_GRACE).getEpochSecond();
+        int[] found = new int[2];
+
+        table.sweep(SWEEP_SLOTS, (handle, removeAt, flags) -> {
+            if ((flags & AssignmentTable.CLEANUPABLE) != 0) {
+                table.free(handle);
+                found[0]++;
+            } else if ((flags & AssignmentTable.REMOVING) == 0 && removeAt < overdue) {
+                expirations.schedule(0, handle);
+                found[1]++;
+            }
+        });
+
+        if (found[0] + found[1] > 0)
+            log.warn("Sweep of shard [" + shard + "] freed [" + found[0] + "] finished and expired [" + found[1]
+                    + "] overdue assignments");
+    }
+}
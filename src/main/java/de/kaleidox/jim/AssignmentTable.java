@@ -0,0 +1,659 @@
+package de.kaleidox.jim;
+
+import java.util.Arrays;
+
+import de.kaleidox.util.collections.LongCounter;
+import de.kaleidox.util.collections.LongPairIntMap;
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+import static de.kaleidox.util.collections.LongPairIntMap.MISSING;
+
+/**
+ * Struct-of-arrays storage for all assignments.
+ * <p>
+ * Every assignment occupies one slot of the parallel arrays and is addressed by a {@code long} handle, consisting of
+ * the slot index in the lower and the slot generation in the upper 32 bits. Freeing a slot bumps its generation, so
+ * stale handles never resolve to a reused slot. Assignments are chained per server, per {@code (serverId, userId)}
+ * and per {@code (roleId, userId)} through intrusive {@code int} links; the chain heads are kept in primitive pair
+ * maps. Besides, the active assignments of every server form a treap ordered by their removal time, linked through
+ * the slots as well, whose subtree sizes let listing and rescheduling run in {@code O(log n)}.
+ */
+public class AssignmentTable {
+    public static final long NONE = -1;
+
+    public static final byte TEMPORARY_ROLE = 1;
+    public static final byte REMOVING = 1 << 1;
+    public static final byte CLEANUPABLE = 1 << 2;
+
+    private long[] serverIds;
+    private long[] userIds;
+    private long[] roleIds;
+    private long[] removeAts;
+    private byte[] flags;
+    private int[] generations;
+    private int[] nextByServer;
+    private int[] prevByServer;
+    private int[] nextByUser;
+    private int[] nextByRole;
+    private int[] dueLeft;
+    private int[] dueRight;
+    private int[] dueCount;
+    private ExpirationWheel.Timeout[] timeouts;
+
+    private final LongPairIntMap byServer;
+    private final LongPairIntMap byUser;
+    private final LongPairIntMap byRole;
+    private final LongCounter trackedRoles;
+    private final LongPairIntMap dueRoots;
+
+    private int high = 0;
+    private int freeHead = -1;
+    private int size = 0;
+    /* assignments not yet flagged CLEANUPABLE */
+    private int pending = 0;
+    private int sweepCursor = 0;
+
+    public AssignmentTable() {
+        this(1024);
+    }
+
+    public AssignmentTable(int expectedSize) {
+        allocate(Math.max(16, expectedSize));
+
+        byServer = new LongPairIntMap();
+        byUser = new LongPairIntMap(expectedSize);
+        byRole = new LongPairIntMap(expectedSize);
+        dueRoots = new LongPairIntMap();
+        trackedRoles = new LongCounter();
+    }
+
+    /*
+    Returns the handle of the new assignment, or NONE if the same assignment is already present.
+     */
+    public synchronized long insert(long serverId, long userId, long roleId, long removeAt, boolean temporaryRole) {
+        if (find(serverId, userId, roleId, removeAt) != NONE) return NONE;
+
+        int slot;
+        if (freeHead >= 0) {
+            slot = freeHead;
+            freeHead = nextByUser[slot];
+        } else {
+            if (high == serverIds.length) grow(serverIds.length << 1);
+            slot = high++;
+        }
+
+        serverIds[slot] = serverId;
+        userIds[slot] = userId;
+        roleIds[slot] = roleId;
+        removeAts[slot] = removeAt;
+        flags[slot] = temporaryRole ? TEMPORARY_ROLE : 0;
+        indexDue(slot);
+
+        int serverHead = byServer.get(serverId, 0);
+        nextByServer[slot] = serverHead == MISSING ? -1 : serverHead;
+        prevByServer[slot] = -1;
+        if (serverHead != MISSING) prevByServer[serverHead] = slot;
+        byServer.put(serverId, 0, slot);
+
+        int userHead = byUser.get(serverId, userId);
+        nextByUser[slot] = userHead == MISSING ? -1 : userHead;
+        byUser.put(serverId, userId, slot);
+        indexRole(slot);
+
+        size++;
+        pending++;
+        return handle(slot);
+    }
+
+    public synchronized long find(long serverId, long userId, long roleId, long removeAt) {
+        int head = byUser.get(serverId, userId);
+
+        for (int slot = head == MISSING ? -1 : head; slot >= 0; slot = nextByUser[slot])
+            if (roleIds[slot] == roleId && removeAts[slot] == removeAt)
+                return handle(slot);
+
+        return NONE;
+    }
+
+    /*
+    Returns the handles of all live, not yet finished assignments of the role for the user.
+     */
+    public synchronized long[] findByRole(long roleId, long userId) {
+        int head = byRole.get(roleId, userId);
+        if (head == MISSING) return new long[0];
+
+        int count = 0;
+        for (int slot = head; slot >= 0; slot = nextByRole[slot]) count++;
+
+        long[] handles = new long[count];
+        int i = 0;
+        for (int slot = head; slot >= 0; slot = nextByRole[slot]) handles[i++] = handle(slot);
+
+        return handles;
+    }
+
+    /*
+    Returns the handles of up to [limit] active assignments of the server, ordered by their removal time and
+    starting at the [offset]th one; costs O(limit * log n), however deep the page is.
+     */
+    public synchronized long[] findByServer(long serverId, int offset, int limit) {
+        int root = dueRoots.get(serverId, 0);
+        int count = Math.max(0, Math.min(limit, dueCount(root) - offset));
+
+        long[] handles = new long[count];
+        for (int i = 0; i < count; i++) handles[i] = handle(selectDue(root, offset + i));
+
+        return handles;
+    }
+
+    /*
+    Returns the handles of the active assignments of the user on the server, ordered by their removal time.
+     */
+    public synchronized long[] findByUser(long serverId, long userId) {
+        int head = byUser.get(serverId, userId);
+        if (head == MISSING) return new long[0];
+
+        int count = 0;
+        for (int slot = head; slot >= 0; slot = nextByUser[slot])
+            if ((flags[slot] & (REMOVING | CLEANUPABLE)) == 0) count++;
+
+        // the chain of one user is short, an insertion sort will do
+        int[] slots = new int[count];
+        int i = 0;
+        for (int slot = head; slot >= 0; slot = nextByUser[slot]) {
+            if ((flags[slot] & (REMOVING | CLEANUPABLE)) != 0) continue;
+
+            int at = i++;
+            for (; at > 0 && dueBefore(slot, slots[at - 1]); at--) slots[at] = slots[at - 1];
+            slots[at] = slot;
+        }
+
+        long[] handles = new long[count];
+        for (i = 0; i < count; i++) handles[i] = handle(slots[i]);
+
+        return handles;
+    }
+
+    /*
+    Returns the number of active assignments of the server, those that are not being removed.
+     */
+    public synchronized int countByServer(long serverId) {
+        return dueCount(dueRoots.get(serverId, 0));
+    }
+
+    /*
+    Returns the number of active assignments of the server that are due until [removeAt], in O(log n).
+     */
+    public synchronized int countByServer(long serverId, long removeAt) {
+        int count = 0;
+        for (int root = dueRoots.get(serverId, 0); root >= 0; ) {
+            if (removeAts[root] <= removeAt) {
+                count += dueCount(dueLeft[root]) + 1;
+                root = dueRight[root];
+            } else root = dueLeft[root];
+        }
+
+        return count;
+    }
+
+    /*
+    Moves the assignment to [removeAt], in O(log n). Fails if the assignment is gone or being removed, or if the same
+    assignment with the new removal time is already present; the timeout stays with the caller.
+     */
+    public synchronized boolean reschedule(long handle, long removeAt) {
+        int slot = slot(handle);
+        if (slot < 0 || (flags[slot] & (REMOVING | CLEANUPABLE)) != 0) return false;
+        if (find(serverIds[slot], userIds[slot], roleIds[slot], removeAt) != NONE) return false;
+
+        unindexDue(slot);
+        removeAts[slot] = removeAt;
+        indexDue(slot);
+
+        return true;
+    }
+
+    public synchronized boolean isTrackedRole(long roleId) {
+        return trackedRoles.contains(roleId);
+    }
+
+    public synchronized TemporaryAssignment view(long handle) {
+        int slot = slot(handle);
+        if (slot < 0) return null;
+
+        return new TemporaryAssignment(
+                handle,
+                serverIds[slot],
+                userIds[slot],
+                roleIds[slot],
+                removeAts[slot],
+                (flags[slot] & TEMPORARY_ROLE) != 0
+        );
+    }
+
+    public synchronized long[] handles() {
+        long[] handles = new long[size];
+
+        int i = 0;
+        for (int slot = 0; slot < high; slot++)
+            if (serverIds[slot] != 0) handles[i++] = handle(slot);
+
+        return handles;
+    }
+
+    /*
+    Visits all assignments grouped by server and by user within each server, without any intermediate allocation.
+     */
+    public synchronized void forEachGrouped(GroupVisitor visitor) {
+        for (int server = 0; server < high; server++)
+            // slot is the head of its server chain
+            if (serverIds[server] != 0 && prevByServer[server] == -1) visitServer(server, visitor);
+    }
+
+    /*
+    Visits the assignments of one server grouped by user, so a long walk can let go of the lock between servers.
+     */
+    public synchronized void forEachGrouped(long serverId, GroupVisitor visitor) {
+        int head = byServer.get(serverId, 0);
+        if (head != MISSING) visitServer(head, visitor);
+    }
+
+    public synchronized long[] servers() {
+        long[] servers = new long[16];
+
+        int count = 0;
+        for (int slot = 0; slot < high; slot++) {
+            if (serverIds[slot] == 0 || prevByServer[slot] != -1) continue;
+            if (count == servers.length) servers = Arrays.copyOf(servers, count << 1);
+            servers[count++] = serverIds[slot];
+        }
+
+        return Arrays.copyOf(servers, count);
+    }
+
+    private void visitServer(int head, GroupVisitor visitor) {
+        long serverId = serverIds[head];
+        visitor.server(serverId);
+
+        for (int slot = head; slot >= 0; slot = nextByServer[slot]) {
+            long userId = userIds[slot];
+            if (byUser.get(serverId, userId) != slot) continue;
+
+            visitor.user(userId);
+            for (int assignment = slot; assignment >= 0; assignment = nextByUser[assignment])
+                visitor.assignment(roleIds[assignment], removeAts[assignment], flags[assignment]);
+            visitor.endUser();
+        }
+
+        visitor.endServer();
+    }
+
+    /*
+    Visits the assignments of one server through its chain, including those being removed.
+     */
+    public synchronized void forEachOfServer(long serverId, Visitor visitor) {
+        int head = byServer.get(serverId, 0);
+        if (head == MISSING) return;
+
+        for (int slot = head; slot >= 0; slot = nextByServer[slot])
+            visitor.visit(serverId, userIds[slot], roleIds[slot], removeAts[slot], flags[slot]);
+    }
+
+    public synchronized void forEach(Visitor visitor) {
+        for (int slot = 0; slot < high; slot++)
+            if (serverIds[slot] != 0)
+                visitor.visit(serverIds[slot], userIds[slot], roleIds[slot], removeAts[slot], flags[slot]);
+    }
+
+    public synchronized boolean hasFlag(long handle, byte flag) {
+        int slot = slot(handle);
+        return slot >= 0 && (flags[slot] & flag) != 0;
+    }
+
+    /*
+    Sets the flag and returns whether it was not set before.
+    Finished assignments are taken out of the role index right away.
+     */
+    public synchronized boolean setFlag(long handle, byte flag) {
+        int slot = slot(handle);
+        if (slot < 0 || (flags[slot] & flag) != 0) return false;
+
+        if ((flags[slot] & (REMOVING | CLEANUPABLE)) == 0 && (flag & (REMOVING | CLEANUPABLE)) != 0) unindexDue(slot);
+        if (flag == CLEANUPABLE) {
+            unindexRole(slot);
+            pending--;
+        }
+        flags[slot] |= flag;
+
+        return true;
+    }
+
+    /*
+    Takes an assignment back from being removed, after its removal failed; returns whether it was being removed.
+     */
+    public synchronized boolean endRemoval(long handle) {
+        int slot = slot(handle);
+        if (slot < 0 || (flags[slot] & (REMOVING | CLEANUPABLE)) != REMOVING) return false;
+
+        flags[slot] &= ~REMOVING;
+        indexDue(slot);
+        return true;
+    }
+
+    public synchronized void setTimeout(long handle, ExpirationWheel.Timeout timeout) {
+        int slot = slot(handle);
+        if (slot >= 0) timeouts[slot] = timeout;
+        else timeout.cancel();
+    }
+
+    public synchronized ExpirationWheel.Timeout getTimeout(long handle) {
+        int slot = slot(handle);
+        return slot < 0 ? null : timeouts[slot];
+    }
+
+    public synchronized boolean free(long handle) {
+        int slot = slot(handle);
+        if (slot < 0) return false;
+
+        free(slot);
+        return true;
+    }
+
+    public synchronized int freeAll(byte flag) {
+        int freed = 0;
+
+        for (int slot = 0; slot < high; slot++)
+            if (serverIds[slot] != 0 && (flags[slot] & flag) != 0) {
+                free(slot);
+                freed++;
+            }
+
+        return freed;
+    }
+
+    /*
+    Visits the live assignments among the next [maxSlots] slots, continuing where the last sweep stopped and
+    wrapping around at the end. The visitor may free the visited assignment.
+     */
+    public synchronized void sweep(int maxSlots, HandleVisitor visitor) {
+        for (int i = 0; i < maxSlots && high > 0; i++) {
+            if (sweepCursor >= high) sweepCursor = 0;
+
+            int slot = sweepCursor++;
+            if (serverIds[slot] != 0) visitor.visit(handle(slot), removeAts[slot], flags[slot]);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /*
+    Returns the number of assignments that are not finished yet, without walking the table.
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+
+    public synchronized long memoryFootprint() {
+        long perSlot = 4 * 8 + 1 + 8 * 4 + 4;
+        return serverIds.length * perSlot
+                + dueRoots.memoryFootprint()
+                + byServer.memoryFootprint()
+                + byUser.memoryFootprint()
+                + byRole.memoryFootprint();
+    }
+
+    private void free(int slot) {
+        long serverId = serverIds[slot];
+        long userId = userIds[slot];
+
+        if (prevByServer[slot] >= 0) nextByServer[prevByServer[slot]] = nextByServer[slot];
+        else if (nextByServer[slot] < 0) byServer.remove(serverId, 0);
+        else byServer.put(serverId, 0, nextByServer[slot]);
+        if (nextByServer[slot] >= 0) prevByServer[nextByServer[slot]] = prevByServer[slot];
+        nextByServer[slot] = -1;
+        prevByServer[slot] = -1;
+
+        int head = byUser.get(serverId, userId);
+        if (head == slot) {
+            if (nextByUser[slot] < 0) byUser.remove(serverId, userId);
+            else byUser.put(serverId, userId, nextByUser[slot]);
+        } else {
+            int prev = head;
+            while (nextByUser[prev] != slot) prev = nextByUser[prev];
+            nextByUser[prev] = nextByUser[slot];
+        }
+
+        if ((flags[slot] & CLEANUPABLE) == 0) {
+            unindexRole(slot);
+            pending--;
+        }
+        if ((flags[slot] & (REMOVING | CLEANUPABLE)) == 0) unindexDue(slot);
+
+        serverIds[slot] = 0;
+        userIds[slot] = 0;
+        roleIds[slot] = 0;
+        removeAts[slot] = 0;
+        flags[slot] = 0;
+        timeouts[slot] = null;
+        generations[slot]++;
+
+        nextByUser[slot] = freeHead;
+        freeHead = slot;
+        size--;
+    }
+
+    private void indexRole(int slot) {
+        long roleId = roleIds[slot];
+        long userId = userIds[slot];
+
+        int head = byRole.get(roleId, userId);
+        nextByRole[slot] = head == MISSING ? -1 : head;
+        byRole.put(roleId, userId, slot);
+        trackedRoles.increment(roleId);
+    }
+
+    private void unindexRole(int slot) {
+        long roleId = roleIds[slot];
+        long userId = userIds[slot];
+
+        int head = byRole.get(roleId, userId);
+        if (head == slot) {
+            if (nextByRole[slot] < 0) byRole.remove(roleId, userId);
+            else byRole.put(roleId, userId, nextByRole[slot]);
+        } else {
+            int prev = head;
+            while (nextByRole[prev] != slot) prev = nextByRole[prev];
+            nextByRole[prev] = nextByRole[slot];
+        }
+
+        nextByRole[slot] = -1;
+        trackedRoles.decrement(roleId);
+    }
+
+    private void indexDue(int slot) {
+        dueLeft[slot] = -1;
+        dueRight[slot] = -1;
+        dueCount[slot] = 1;
+
+        long serverId = serverIds[slot];
+        dueRoots.put(serverId, 0, insertDue(dueRoots.get(serverId, 0), slot));
+    }
+
+    private void unindexDue(int slot) {
+        long serverId = serverIds[slot];
+        int root = removeDue(dueRoots.get(serverId, 0), slot);
+
+        if (root < 0) dueRoots.remove(serverId, 0);
+        else dueRoots.put(serverId, 0, root);
+    }
+
+    private int insertDue(int root, int slot) {
+        if (root < 0) return slot;
+
+        if (dueBefore(slot, root)) {
+            dueLeft[root] = insertDue(dueLeft[root], slot);
+            if (priority(dueLeft[root]) > priority(root)) return rotateRight(root);
+        } else {
+            dueRight[root] = insertDue(dueRight[root], slot);
+            if (priority(dueRight[root]) > priority(root)) return rotateLeft(root);
+        }
+
+        updateDue(root);
+        return root;
+    }
+
+    private int removeDue(int root, int slot) {
+        if (root == slot) return mergeDue(dueLeft[slot], dueRight[slot]);
+
+        if (dueBefore(slot, root)) dueLeft[root] = removeDue(dueLeft[root], slot);
+        else dueRight[root] = removeDue(dueRight[root], slot);
+
+        updateDue(root);
+        return root;
+    }
+
+    private int mergeDue(int left, int right) {
+        if (left < 0) return right;
+        if (right < 0) return left;
+
+        if (priority(left) > priority(right)) {
+            dueRight[left] = mergeDue(dueRight[left], right);
+            updateDue(left);
+            return left;
+        }
+
+        dueLeft[right] = mergeDue(left, dueLeft[right]);
+        updateDue(right);
+        return right;
+    }
+
+    private int rotateRight(int root) {
+        int pivot = dueLeft[root];
+        dueLeft[root] = dueRight[pivot];
+        dueRight[pivot] = root;
+
+        updateDue(root);
+        updateDue(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int root) {
+        int pivot = dueRight[root];
+        dueRight[root] = dueLeft[pivot];
+        dueLeft[pivot] = root;
+
+        updateDue(root);
+        updateDue(pivot);
+        return pivot;
+    }
+
+    /*
+    Returns the [index]th slot of the tree in removal order.
+     */
+    private int selectDue(int root, int index) {
+        while (root >= 0) {
+            int left = dueCount(dueLeft[root]);
+
+            if (index < left) root = dueLeft[root];
+            else if (index == left) return root;
+            else {
+                index -= left + 1;
+                root = dueRight[root];
+            }
+        }
+
+        return -1;
+    }
+
+    private void updateDue(int slot) {
+        dueCount[slot] = 1 + dueCount(dueLeft[slot]) + dueCount(dueRight[slot]);
+    }
+
+    private int dueCount(int slot) {
+        return slot < 0 ? 0 : dueCount[slot];
+    }
+
+    private boolean dueBefore(int slot, int other) {
+        return removeAts[slot] != removeAts[other] ? removeAts[slot] < removeAts[other] : slot < other;
+    }
+
+    /*
+    The treap priority of a slot; a mixed hash, since slots are mostly taken in the same order as their removal time.
+     */
+    private static int priority(int slot) {
+        int hash = slot * 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ hash >>> 16;
+    }
+
+    private long handle(int slot) {
+        return ((generations[slot] & 0x7FFFFFFFL) << 32) | slot;
+    }
+
+    private int slot(long handle) {
+        if (handle < 0) return -1;
+
+        int slot = (int) handle;
+        if (slot >= high || serverIds[slot] == 0 || (generations[slot] & 0x7FFFFFFF) != (int) (handle >>> 32)) return -1;
+
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        serverIds = new long[capacity];
+        userIds = new long[capacity];
+        roleIds = new long[capacity];
+        removeAts = new long[capacity];
+        flags = new byte[capacity];
+        generations = new int[capacity];
+        nextByServer = new int[capacity];
+        prevByServer = new int[capacity];
+        nextByUser = new int[capacity];
+        nextByRole = new int[capacity];
+        dueLeft = new int[capacity];
+        dueRight = new int[capacity];
+        dueCount = new int[capacity];
+        timeouts = new ExpirationWheel.Timeout[capacity];
+    }
+
+    private void grow(int capacity) {
+        serverIds = Arrays.copyOf(serverIds, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        roleIds = Arrays.copyOf(roleIds, capacity);
+        removeAts = Arrays.copyOf(removeAts, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        nextByServer = Arrays.copyOf(nextByServer, capacity);
+        prevByServer = Arrays.copyOf(prevByServer, capacity);
+        nextByUser = Arrays.copyOf(nextByUser, capacity);
+        nextByRole = Arrays.copyOf(nextByRole, capacity);
+        dueLeft = Arrays.copyOf(dueLeft, capacity);
+        dueRight = Arrays.copyOf(dueRight, capacity);
+        dueCount = Arrays.copyOf(dueCount, capacity);
+        timeouts = Arrays.copyOf(timeouts, capacity);
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(long serverId, long userId, long roleId, long removeAt, byte flags);
+    }
+
+    @FunctionalInterface
+    public interface HandleVisitor {
+        void visit(long handle, long removeAt, byte flags);
+    }
+
+    public interface GroupVisitor {
+        void server(long serverId);
+
+        void user(long userId);
+
+        void assignment(long roleId, long removeAt, byte flags);
+
+        void endUser();
+
+        void endServer();
+    }
+}
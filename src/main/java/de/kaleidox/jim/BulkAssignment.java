@@ -0,0 +1,134 @@
+package de.kaleidox.jim;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.kaleidox.javacord.util.ui.embed.DefaultEmbedFactory;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.util.logging.ExceptionLogger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Adds one role to many users through the ServerBatchExecutor. All users are registered as one batch before the first
+role is added, so a restart during a long bulk leaves no role behind that is not persisted; the assignments of the
+users that could not be given the role are withdrawn again.
+Progress is reported by editing a single message, at most every few seconds.
+ */
+public class BulkAssignment {
+    private static final Logger log = LoggerUtil.getLogger(BulkAssignment.class);
+    private static final long PROGRESS_INTERVAL = 3000;
+
+    private final Role role;
+    private final Collection<User> targets;
+    private final long removeAt;
+    private final boolean temporaryRole;
+    private final List<User> assigned;
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final AtomicInteger registered = new AtomicInteger(0);
+    private final AtomicLong lastProgress = new AtomicLong(0);
+
+    public BulkAssignment(Role role, Collection<User> targets, long removeAt, boolean temporaryRole) {
+        this.role = role;
+        this.targets = targets;
+        this.removeAt = removeAt;
+        this.temporaryRole = temporaryRole;
+        this.assigned = new ArrayList<>(targets.size());
+    }
+
+    /*
+    Completes with the number of registered assignments once every target was handled.
+     */
+    public CompletableFuture<Integer> run(Message progress) {
+        Server server = role.getServer();
+        CompletableFuture<?>[] additions = new CompletableFuture[targets.size()];
+
+        // only the new assignments are withdrawn on failure, an existing one of the same time is kept
+        long[] fresh = AssignmentManager.INSTANCE.removeRoleAt(targets, role, removeAt, temporaryRole);
+        Arrays.sort(fresh);
+        registered.set(fresh.length);
+
+        int i = 0;
+        for (User target : targets)
+            additions[i++] = AssignmentManager.INSTANCE.getAdditions(server.getId())
+                    .submit(server.getId(), () -> JimMetrics.rest(
+                            "addRoleToUser",
+                            () -> server.addRoleToUser(target, role)
+                    ))
+                    .handle((nil, error) -> {
+                        if (error != null) {
+                            failed.incrementAndGet();
+                            log.warn("Could not add role [" + role.getId() + "] to user [" + target.getId() + "]: "
+                                    + error);
+
+                            if (Arrays.binarySearch(fresh, target.getId()) >= 0) {
+                                AssignmentManager.INSTANCE.withdraw(server.getId(), target.getId(), role.getId(),
+                                        removeAt, temporaryRole);
+                                registered.decrementAndGet();
+                            }
+                        } else {
+                            // expired before the role was added, registered again so it is taken right away
+                            if (removeAt <= Instant.now().getEpochSecond())
+                                AssignmentManager.INSTANCE.removeRoleAt(server.getId(), new long[]{target.getId()},
+                                        role.getId(), removeAt, temporaryRole);
+
+                            synchronized (assigned) {
+                                assigned.add(target);
+                            }
+                        }
+
+                        report(progress, false);
+                        return null;
+                    });
+
+        return CompletableFuture.allOf(additions)
+                .thenApply(nil -> {
+                    boolean nobody;
+                    synchronized (assigned) {
+                        nobody = assigned.isEmpty();
+                    }
+
+                    // a created role that nobody got would never be cleaned up
+                    if (temporaryRole && nobody && (MemberRoles.INSTANCE.isLowMemory() || role.getUsers().isEmpty()))
+                        role.delete().exceptionally(ExceptionLogger.get());
+
+                    report(progress, true);
+                    return registered.get();
+                });
+    }
+
+    public EmbedBuilder describe(boolean finished) {
+        int done;
+        synchronized (assigned) {
+            done = assigned.size();
+        }
+
+        String state = finished
+                ? "✅ Role `" + role.getName() + "` added to " + done + " of " + targets.size() + " users until "
+                + Instant.ofEpochSecond(removeAt) + "!"
+                : "⏳ Adding role `" + role.getName() + "`: " + (done + failed.get()) + " of " + targets.size()
+                + " users";
+
+        return DefaultEmbedFactory.INSTANCE.get()
+                .setDescription(failed.get() == 0 ? state : state + "\n❌ Failed for " + failed.get() + " users");
+    }
+
+    private void report(Message progress, boolean finished) {
+        long last = lastProgress.get();
+        long now = System.currentTimeMillis();
+
+        if (finished || (now - last >= PROGRESS_INTERVAL && lastProgress.compareAndSet(last, now)))
+            progress.edit(describe(finished)).exceptionally(ExceptionLogger.get());
+    }
+}
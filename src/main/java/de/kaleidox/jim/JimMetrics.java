@@ -0,0 +1,114 @@
+package de.kaleidox.jim;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import de.kaleidox.util.metrics.MetricsRegistry;
+
+/*
+All metrics of the bot. They are served by the MetricsEndpoint and summarized by the metrics admin command.
+ */
+public final class JimMetrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final MetricsRegistry.Histogram EXPIRATION_LAG = REGISTRY.histogram(
+            "jim_expiration_lag_seconds",
+            "Time from the planned removal of an expired assignment until its role was removed",
+            null,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300
+    );
+    public static final MetricsRegistry.Histogram REST_LATENCY = REGISTRY.histogram(
+            "jim_rest_latency_seconds",
+            "Latency of single Discord REST call attempts",
+            "operation",
+            0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    );
+    public static final MetricsRegistry.Counter REST_FAILURES = REGISTRY.counter(
+            "jim_rest_failures_total",
+            "Failed Discord REST call attempts",
+            "operation"
+    );
+    public static final MetricsRegistry.Histogram REMOVAL_BATCH = REGISTRY.histogram(
+            "jim_removal_batch_roles",
+            "Roles removed from one member with one call, after coalescing the removals due together",
+            null,
+            1, 2, 3, 5, 10, 25
+    );
+    public static final MetricsRegistry.Histogram STORE_DURATION = REGISTRY.histogram(
+            "jim_store_duration_seconds",
+            "Duration of storing an assignment snapshot",
+            null,
+            0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30
+    );
+    public static final MetricsRegistry.Counter STORE_BYTES = REGISTRY.counter(
+            "jim_store_bytes_total",
+            "Bytes written to assignment snapshots",
+            null
+    );
+    public static final MetricsRegistry.Histogram COMMAND_DURATION = REGISTRY.histogram(
+            "jim_command_duration_seconds",
+            "Execution time of commands",
+            "command",
+            0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    );
+
+    private static final AtomicLong snapshotBytes = new AtomicLong(0);
+    private static final AtomicLong initNanos = new AtomicLong(0);
+    private static final AtomicLong firstCommandMillis = new AtomicLong(0);
+    private static final Map<String, Double> phaseSeconds = new ConcurrentHashMap<>();
+
+    static {
+        REGISTRY.gauge("jim_snapshot_bytes", "Size of the last stored assignment snapshot", snapshotBytes::get);
+        REGISTRY.gauge("jim_init_duration_seconds", "Duration of starting and reconciling all assignments",
+                () -> initNanos.get() / 1e9);
+        REGISTRY.gauge("jim_startup_phase_seconds", "Duration of the phases of the startup", "phase",
+                () -> phaseSeconds);
+        REGISTRY.gauge("jim_time_to_first_command_seconds",
+                "Time from the start of the JVM until the first command passed the readiness gate",
+                () -> firstCommandMillis.get() / 1e3);
+        REGISTRY.gauge("jim_assignments", "Assignments in memory",
+                AssignmentManager.INSTANCE::getAssignmentCount);
+        REGISTRY.gauge("jim_assignments_pending", "Assignments waiting for their removal", "shard",
+                AssignmentManager.INSTANCE::getPendingByShard);
+        REGISTRY.gauge("jim_removals_in_flight", "Removals currently sent to Discord",
+                AssignmentManager.INSTANCE::getRemovalsInFlight);
+        REGISTRY.gauge("jim_removals_queued", "Removals waiting for a free slot in the removal pipeline",
+                AssignmentManager.INSTANCE::getRemovalsQueued);
+    }
+
+    private JimMetrics() {
+    }
+
+    /*
+    Times one attempt of a REST call and counts it if it fails.
+     */
+    public static <T> CompletableFuture<T> rest(String operation, Supplier<CompletableFuture<T>> call) {
+        MetricsRegistry.Histogram.Timer timer = REST_LATENCY.time(operation);
+
+        return call.get().whenComplete((result, error) -> {
+            timer.close();
+            if (error != null) REST_FAILURES.inc(operation);
+        });
+    }
+
+    static void stored(long nanos, long bytes) {
+        STORE_DURATION.observe(nanos / 1e9);
+        STORE_BYTES.inc("", bytes);
+        snapshotBytes.set(bytes);
+    }
+
+    static void initialized(long nanos) {
+        initNanos.set(nanos);
+    }
+
+    static void phase(String name, long nanos) {
+        phaseSeconds.put(name, nanos / 1e9);
+    }
+
+    static void firstCommand(long millis) {
+        firstCommandMillis.set(millis);
+    }
+}
@@ -0,0 +1,45 @@
+package de.kaleidox.jim;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import de.kaleidox.util.concurrent.BoundedExecutor;
+import de.kaleidox.util.concurrent.VirtualThreads;
+
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Where the work that may block runs: expirations, the startup reconciliation and the start of the partitions.
+With -Djim.threads=virtual on Java 21 or newer that is one virtual thread per task, bounded by a semaphore per use
+instead of a pool size; otherwise it is the thread pool of the shard, like before.
+ */
+public enum JimThreads {
+    INSTANCE;
+
+    private final ExecutorService virtual;
+
+    JimThreads() {
+        boolean requested = System.getProperty("jim.threads", "platform").equalsIgnoreCase("virtual");
+
+        // the constants are created before any static field, so there is no static logger yet
+        if (requested && !VirtualThreads.isAvailable())
+            LoggerUtil.getLogger(JimThreads.class).warn("Virtual threads need Java 21 or newer, running on the " +
+                    "thread pools of the shards instead");
+
+        this.virtual = requested && VirtualThreads.isAvailable() ? VirtualThreads.newExecutor("Jim - Virtual #") : null;
+    }
+
+    public boolean isVirtual() {
+        return virtual != null;
+    }
+
+    /*
+    Returns an executor that runs at most [permits] tasks at once on virtual threads, or the executor of the shard.
+     */
+    public Executor blocking(Supplier<? extends Executor> shard, int permits) {
+        if (virtual != null) return new BoundedExecutor(virtual, permits);
+
+        return task -> shard.get().execute(task);
+    }
+}
@@ -0,0 +1,110 @@
+package de.kaleidox.jim;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+The role ids of at most [capacity] members, keyed by server and user; the least recently used member is dropped first.
+Role sets are kept as sorted arrays, since a member rarely has more than a handful of roles.
+Role changes are only applied to members that are already cached; an unknown member is looked up as a whole.
+ */
+public class MemberRoleCache {
+    private static final long[] NO_ROLES = new long[0];
+
+    private final int capacity;
+    private final LinkedHashMap<Member, long[]> members;
+
+    public MemberRoleCache(int capacity) {
+        this.capacity = capacity;
+        this.members = new LinkedHashMap<Member, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Member, long[]> eldest) {
+                return size() > MemberRoleCache.this.capacity;
+            }
+        };
+    }
+
+    public static boolean contains(long[] roleIds, long roleId) {
+        return Arrays.binarySearch(roleIds, roleId) >= 0;
+    }
+
+    /*
+    Returns the sorted role ids of the member, or null if it is not cached.
+     */
+    public synchronized long[] get(long serverId, long userId) {
+        return members.get(new Member(serverId, userId));
+    }
+
+    public synchronized void put(long serverId, long userId, long[] roleIds) {
+        long[] sorted = roleIds.length == 0 ? NO_ROLES : roleIds.clone();
+        Arrays.sort(sorted);
+
+        members.put(new Member(serverId, userId), sorted);
+    }
+
+    public synchronized void roleAdded(long serverId, long userId, long roleId) {
+        members.computeIfPresent(new Member(serverId, userId), (member, roleIds) -> {
+            int index = Arrays.binarySearch(roleIds, roleId);
+            if (index >= 0) return roleIds;
+
+            int at = -index - 1;
+            long[] added = new long[roleIds.length + 1];
+            System.arraycopy(roleIds, 0, added, 0, at);
+            added[at] = roleId;
+            System.arraycopy(roleIds, at, added, at + 1, roleIds.length - at);
+            return added;
+        });
+    }
+
+    public synchronized void roleRemoved(long serverId, long userId, long roleId) {
+        members.computeIfPresent(new Member(serverId, userId), (member, roleIds) -> {
+            int index = Arrays.binarySearch(roleIds, roleId);
+            if (index < 0) return roleIds;
+            if (roleIds.length == 1) return NO_ROLES;
+
+            long[] removed = new long[roleIds.length - 1];
+            System.arraycopy(roleIds, 0, removed, 0, index);
+            System.arraycopy(roleIds, index + 1, removed, index, removed.length - index);
+            return removed;
+        });
+    }
+
+    /*
+    Drops the member, for example after it left the server.
+     */
+    public synchronized void invalidate(long serverId, long userId) {
+        members.remove(new Member(serverId, userId));
+    }
+
+    public synchronized int size() {
+        return members.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static final class Member {
+        private final long serverId;
+        private final long userId;
+
+        private Member(long serverId, long userId) {
+            this.serverId = serverId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Member)) return false;
+
+            Member member = (Member) other;
+            return member.serverId == serverId && member.userId == userId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(serverId * 31 + userId);
+        }
+    }
+}
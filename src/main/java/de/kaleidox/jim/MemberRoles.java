@@ -0,0 +1,104 @@
+package de.kaleidox.jim;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.javacord.api.DiscordApi;
+import org.javacord.api.event.server.member.ServerMemberLeaveEvent;
+import org.javacord.api.event.server.role.UserRoleAddEvent;
+import org.javacord.api.event.server.role.UserRoleRemoveEvent;
+import org.javacord.api.exception.NotFoundException;
+import org.javacord.api.listener.server.member.ServerMemberLeaveListener;
+import org.javacord.api.listener.server.role.UserRoleAddListener;
+import org.javacord.api.listener.server.role.UserRoleRemoveListener;
+import org.javacord.core.util.rest.RestEndpoint;
+import org.javacord.core.util.rest.RestMethod;
+import org.javacord.core.util.rest.RestRequest;
+
+/*
+How the bot learns the roles of the members it has assignments for.
+
+By default that is the member cache of the shard. With -Djim.memory=low the roles of a member are requested through
+REST by ids when they are needed and kept in a MemberRoleCache of -Djim.memory.members entries, which the role events
+keep up to date. Removals are sent by ids as well.
+
+This does not save the member cache itself: Javacord 3.0 keeps it regardless, and a temporary role is only deleted
+after the member cache showed that nobody else holds it, since members that got it by hand before a restart are known
+to no event. Only the lookups of the assignments stay out of it.
+ */
+public enum MemberRoles implements UserRoleAddListener, UserRoleRemoveListener, ServerMemberLeaveListener {
+    INSTANCE;
+
+    private final boolean lowMemory = System.getProperty("jim.memory", "full").equalsIgnoreCase("low");
+    private final MemberRoleCache cache = new MemberRoleCache(Integer.getInteger("jim.memory.members", 50_000));
+
+    public boolean isLowMemory() {
+        return lowMemory;
+    }
+
+    public MemberRoleCache getCache() {
+        return cache;
+    }
+
+    /*
+    Completes with whether the user has the role, with false if the user is no member of the server anymore.
+     */
+    public CompletableFuture<Boolean> hasRole(DiscordApi api, long serverId, long userId, long roleId) {
+        long[] roleIds = cache.get(serverId, userId);
+        if (roleIds != null) return CompletableFuture.completedFuture(MemberRoleCache.contains(roleIds, roleId));
+
+        return JimMetrics.rest("getMember", () -> new RestRequest<long[]>(api, RestMethod.GET,
+                RestEndpoint.SERVER_MEMBER)
+                .setUrlParameters(Long.toUnsignedString(serverId), Long.toUnsignedString(userId))
+                .execute(result -> roleIds(result.getJsonBody())))
+                .handle((requested, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        if (!(cause instanceof NotFoundException)) throw new CompletionException(cause);
+
+                        return false;
+                    }
+
+                    Arrays.sort(requested);
+                    cache.put(serverId, userId, requested);
+                    return MemberRoleCache.contains(requested, roleId);
+                });
+    }
+
+    /*
+    Removes the role without resolving the user or the role first.
+     */
+    public CompletableFuture<Void> removeRole(DiscordApi api, long serverId, long userId, long roleId) {
+        return JimMetrics.rest("removeRoleFromUser", () -> new RestRequest<Void>(api, RestMethod.DELETE,
+                RestEndpoint.SERVER_MEMBER_ROLE)
+                .setUrlParameters(Long.toUnsignedString(serverId), Long.toUnsignedString(userId),
+                        Long.toUnsignedString(roleId))
+                .execute(result -> null))
+                .thenRun(() -> cache.roleRemoved(serverId, userId, roleId));
+    }
+
+    @Override
+    public void onUserRoleAdd(UserRoleAddEvent event) {
+        cache.roleAdded(event.getServer().getId(), event.getUser().getId(), event.getRole().getId());
+    }
+
+    @Override
+    public void onUserRoleRemove(UserRoleRemoveEvent event) {
+        cache.roleRemoved(event.getServer().getId(), event.getUser().getId(), event.getRole().getId());
+    }
+
+    @Override
+    public void onServerMemberLeave(ServerMemberLeaveEvent event) {
+        cache.invalidate(event.getServer().getId(), event.getUser().getId());
+    }
+
+    private static long[] roleIds(JsonNode member) {
+        JsonNode roles = member.path("roles");
+        long[] roleIds = new long[roles.size()];
+
+        for (int i = 0; i < roleIds.length; i++) roleIds[i] = Long.parseUnsignedLong(roles.get(i).asText());
+        return roleIds;
+    }
+}
@@ -0,0 +1,117 @@
+package de.kaleidox.jim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+Collects the role removals of one member that come in within [windowMillis] of each other, and hands them on as one
+call per member. The first removal of a member opens its window and the ones that come in while it is open join it,
+so assignments that expire in the same second cost one member update instead of one call each.
+All removals of a window share the future of that call.
+ */
+public class RemovalCoalescer {
+    private final long windowMillis;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private final Removal removal;
+    private final Map<Member, Window> windows = new HashMap<>();
+
+    public RemovalCoalescer(long windowMillis, Supplier<ScheduledExecutorService> scheduler, Removal removal) {
+        this.windowMillis = windowMillis;
+        this.scheduler = scheduler;
+        this.removal = removal;
+    }
+
+    public CompletableFuture<Void> remove(long serverId, long userId, long roleId) {
+        Member member = new Member(serverId, userId);
+        Window window;
+
+        synchronized (windows) {
+            window = windows.get(member);
+
+            if (window == null) {
+                window = new Window();
+                windows.put(member, window);
+                scheduler.get().schedule(() -> close(member), windowMillis, TimeUnit.MILLISECONDS);
+            }
+
+            window.add(roleId);
+        }
+
+        return window.result;
+    }
+
+    public int getOpen() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    private void close(Member member) {
+        Window window;
+        synchronized (windows) {
+            window = windows.remove(member);
+        }
+
+        long[] roleIds = Arrays.copyOf(window.roleIds, window.size);
+        JimMetrics.REMOVAL_BATCH.observe(roleIds.length);
+
+        CompletableFuture<Void> call;
+        try {
+            call = removal.remove(member.serverId, member.userId, roleIds);
+        } catch (Throwable t) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(t);
+        }
+
+        call.whenComplete((nil, error) -> {
+            if (error != null) window.result.completeExceptionally(error);
+            else window.result.complete(null);
+        });
+    }
+
+    @FunctionalInterface
+    public interface Removal {
+        CompletableFuture<Void> remove(long serverId, long userId, long[] roleIds);
+    }
+
+    private static final class Window {
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private long[] roleIds = new long[2];
+        private int size = 0;
+
+        private void add(long roleId) {
+            for (int i = 0; i < size; i++) if (roleIds[i] == roleId) return;
+
+            if (size == roleIds.length) roleIds = Arrays.copyOf(roleIds, size * 2);
+            roleIds[size++] = roleId;
+        }
+    }
+
+    private static final class Member {
+        private final long serverId;
+        private final long userId;
+
+        private Member(long serverId, long userId) {
+            this.serverId = serverId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Member)) return false;
+
+            Member member = (Member) other;
+            return member.serverId == serverId && member.userId == userId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(serverId * 31 + userId);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.kaleidox.jim;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.api.exception.BadRequestException;
+import org.javacord.api.exception.MissingPermissionsException;
+import org.javacord.api.exception.NotFoundException;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Runs asynchronous Discord REST calls with a bounded number of attempts in flight.
+Nothing in here ever waits for an attempt; queued attempts are started from the completion of earlier ones.
+ */
+public class RestPipeline {
+    private static final Logger log = LoggerUtil.getLogger(RestPipeline.class);
+
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private final Queue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    public RestPipeline(int maxInFlight, int maxAttempts, long backoffMillis, Supplier<ScheduledExecutorService> scheduler) {
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.scheduler = scheduler;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> attempt) {
+        Task<T> task = new Task<>(attempt);
+
+        queue.add(task);
+        drain();
+
+        return task.result;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) return;
+            if (!inFlight.compareAndSet(current, current + 1)) continue;
+
+            Task<?> task = queue.poll();
+            if (task == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+
+            run(task);
+        }
+    }
+
+    private <T> void run(Task<T> task) {
+        CompletableFuture<T> attempt;
+        try {
+            attempt = task.attempt.get();
+        } catch (Throwable t) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(t);
+        }
+
+        attempt.whenComplete((result, error) -> {
+            inFlight.decrementAndGet();
+
+            if (error == null)
+                task.result.complete(result);
+            else if (++task.attempts < maxAttempts && isRetryable(error)) {
+                long delay = backoffMillis << (task.attempts - 1);
+                log.warn("Attempt [" + task.attempts + "] failed, retrying in " + delay + "ms: " + error);
+
+                scheduler.get().schedule(() -> {
+                    queue.add(task);
+                    drain();
+                }, delay, TimeUnit.MILLISECONDS);
+            } else task.result.completeExceptionally(error);
+
+            drain();
+        });
+    }
+
+    /*
+    Returns whether another attempt might succeed; missing permissions, unknown entities and bad requests never do.
+     */
+    static boolean isRetryable(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        return !(cause instanceof MissingPermissionsException
+                || cause instanceof NotFoundException
+                || cause instanceof BadRequestException);
+    }
+
+    private static class Task<T> {
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int attempts = 0;
+
+        private Task(Supplier<CompletableFuture<T>> attempt) {
+            this.attempt = attempt;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package de.kaleidox.jim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.event.server.ServerLeaveEvent;
+import org.javacord.api.event.server.role.RoleChangeNameEvent;
+import org.javacord.api.event.server.role.RoleCreateEvent;
+import org.javacord.api.event.server.role.RoleDeleteEvent;
+import org.javacord.api.listener.server.ServerLeaveListener;
+import org.javacord.api.listener.server.role.RoleChangeNameListener;
+import org.javacord.api.listener.server.role.RoleCreateListener;
+import org.javacord.api.listener.server.role.RoleDeleteListener;
+
+/*
+Resolves a role name to the role with the most similar name, if it is similar enough, without rating every role of
+the server each time; of several equally rated roles, the first in the order of Server#getRoles wins.
+
+Every server gets a trigram index of its role names on its first lookup, which the role events keep up to date.
+Roles that share trigrams with the input are rated first, so a good match is usually found early. A role is only
+rated at all if the characters it has in common with the input could still beat the best rating so far; this bound
+is exact for FuzzySearch#ratio, so the result is the same as rating every role.
+ */
+public enum RoleNameIndex implements RoleCreateListener, RoleChangeNameListener, RoleDeleteListener,
+        ServerLeaveListener {
+    INSTANCE;
+
+    public static final int THRESHOLD = 70;
+
+    private final Map<Long, ServerRoles> servers = new ConcurrentHashMap<>();
+
+    public Optional<Role> find(Server server, String name) {
+        return servers.computeIfAbsent(server.getId(), id -> new ServerRoles(server.getRoles()))
+                .find(name);
+    }
+
+    @Override
+    public void onRoleCreate(RoleCreateEvent event) {
+        ServerRoles roles = servers.get(event.getServer().getId());
+        if (roles != null) roles.add(event.getRole());
+    }
+
+    @Override
+    public void onRoleChangeName(RoleChangeNameEvent event) {
+        ServerRoles roles = servers.get(event.getServer().getId());
+        if (roles != null) roles.rename(event.getRole(), event.getNewName());
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        ServerRoles roles = servers.get(event.getServer().getId());
+        if (roles != null) roles.remove(event.getRole().getId());
+    }
+
+    @Override
+    public void onServerLeave(ServerLeaveEvent event) {
+        forget(event.getServer().getId());
+    }
+
+    /*
+    Drops the index of the server, like when its shard is disconnected and the events stop keeping it up to date.
+     */
+    public void forget(long serverId) {
+        servers.remove(serverId);
+    }
+
+    static class ServerRoles {
+        private final Map<Long, Entry> entries = new HashMap<>();
+        private final Map<Long, Set<Entry>> trigrams = new HashMap<>();
+
+        ServerRoles(Collection<Role> roles) {
+            for (Role role : roles) add(role);
+        }
+
+        synchronized void add(Role role) {
+            put(role, role.getName());
+        }
+
+        synchronized void rename(Role role, String name) {
+            remove(role.getId());
+            put(role, name);
+        }
+
+        synchronized void remove(long roleId) {
+            Entry entry = entries.remove(roleId);
+            if (entry == null) return;
+
+            for (long trigram : trigrams(entry.name)) {
+                Set<Entry> posting = trigrams.get(trigram);
+                posting.remove(entry);
+                if (posting.isEmpty()) trigrams.remove(trigram);
+            }
+        }
+
+        synchronized Optional<Role> find(String name) {
+            char[] chars = sortedChars(name);
+
+            Map<Entry, Integer> shared = new HashMap<>();
+            for (long trigram : trigrams(name))
+                for (Entry entry : trigrams.getOrDefault(trigram, Collections.emptySet()))
+                    shared.merge(entry, 1, Integer::sum);
+
+            List<Entry> candidates = new ArrayList<>(shared.keySet());
+            candidates.sort((a, b) -> Integer.compare(shared.get(b), shared.get(a)));
+
+            Match best = new Match();
+            for (Entry entry : candidates) best.rate(entry, name, chars);
+            for (Entry entry : entries.values())
+                if (!shared.containsKey(entry)) best.rate(entry, name, chars);
+
+            return Optional.ofNullable(best.entry).map(entry -> entry.role);
+        }
+
+        private void put(Role role, String name) {
+            Entry entry = new Entry(role, name);
+            entries.put(role.getId(), entry);
+
+            for (long trigram : trigrams(name))
+                trigrams.computeIfAbsent(trigram, key -> new HashSet<>()).add(entry);
+        }
+    }
+
+    private static class Entry {
+        private final Role role;
+        private final String name;
+        private final char[] chars;
+
+        private Entry(Role role, String name) {
+            this.role = role;
+            this.name = name;
+            this.chars = sortedChars(name);
+        }
+    }
+
+    private static class Match {
+        private Entry entry;
+        private int ratio = THRESHOLD;
+
+        private void rate(Entry candidate, String name, char[] chars) {
+            // FuzzySearch#ratio never exceeds the share of common characters
+            int common = common(chars, candidate.chars);
+            if (Math.round(200.0 * common / (chars.length + candidate.chars.length)) < ratio) return;
+
+            int rating = FuzzySearch.ratio(name, candidate.name);
+            if (rating > ratio || (rating == ratio && entry != null && isBefore(candidate, entry))) {
+                entry = candidate;
+                ratio = rating;
+            }
+        }
+
+        /* the same order as Server#getRoles, whose first best rated role was picked before */
+        private static boolean isBefore(Entry a, Entry b) {
+            int position = Integer.compare(a.role.getPosition(), b.role.getPosition());
+            return position != 0 ? position < 0 : a.role.getId() < b.role.getId();
+        }
+    }
+
+    /*
+    Trigrams of the lower cased name, with every run of other characters than letters and digits as one space and
+    a space around the name. Three 16 bit chars are packed into one long.
+     */
+    static Set<Long> trigrams(String name) {
+        StringBuilder normalized = new StringBuilder(name.length() + 2).append(' ');
+        for (int i = 0; i < name.length(); i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+
+            if (Character.isLetterOrDigit(c)) normalized.append(c);
+            else if (normalized.charAt(normalized.length() - 1) != ' ') normalized.append(' ');
+        }
+        if (normalized.charAt(normalized.length() - 1) != ' ') normalized.append(' ');
+
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= normalized.length(); i++)
+            trigrams.add((long) normalized.charAt(i) << 32
+                    | (long) normalized.charAt(i + 1) << 16
+                    | normalized.charAt(i + 2));
+
+        return trigrams;
+    }
+
+    private static char[] sortedChars(String name) {
+        char[] chars = name.toCharArray();
+        Arrays.sort(chars);
+        return chars;
+    }
+
+    private static int common(char[] a, char[] b) {
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) i++;
+            else j++;
+        }
+        return common;
+    }
+}
@@ -0,0 +1,169 @@
+package de.kaleidox.jim;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.api.exception.RatelimitException;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Runs asynchronous Discord REST calls at a bounded rate per server, like the per guild buckets of Discord.
+Every server has a token bucket of [permits] calls per period. A call that still hits a rate limit pauses its server
+and is queued again in front. Servers never wait for each other, and nothing in here ever waits for a call.
+ */
+public class ServerBatchExecutor {
+    private static final Logger log = LoggerUtil.getLogger(ServerBatchExecutor.class);
+
+    private final int permits;
+    private final long refillNanos;
+    private final long pauseNanos;
+    private final int maxAttempts;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+
+    public ServerBatchExecutor(
+            int permits,
+            long period,
+            TimeUnit periodUnit,
+            long pauseMillis,
+            int maxAttempts,
+            Supplier<ScheduledExecutorService> scheduler
+    ) {
+        this.permits = permits;
+        this.refillNanos = periodUnit.toNanos(period) / permits;
+        this.pauseNanos = TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+        this.maxAttempts = maxAttempts;
+        this.scheduler = scheduler;
+    }
+
+    public <T> CompletableFuture<T> submit(long serverId, Supplier<CompletableFuture<T>> call) {
+        Task<T> task = new Task<>(call);
+
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(serverId, Lane::new);
+
+            synchronized (lane) {
+                // a lane is retired when it ran empty with a full bucket
+                if (lane.retired) continue;
+
+                lane.queue.addLast(task);
+                drain(lane);
+            }
+
+            return task.result;
+        }
+    }
+
+    public int getQueued() {
+        int queued = 0;
+
+        for (Lane lane : lanes.values())
+            synchronized (lane) {
+                queued += lane.queue.size();
+            }
+
+        return queued;
+    }
+
+    private void drain(Lane lane) {
+        synchronized (lane) {
+            long now = System.nanoTime();
+            lane.refill(now);
+
+            while (!lane.queue.isEmpty() && lane.tokens >= 1 && now >= lane.pausedUntil) {
+                lane.tokens--;
+                run(lane, lane.queue.pollFirst());
+            }
+
+            if (lane.queue.isEmpty()) {
+                if (lane.tokens >= permits && lane.inFlight == 0 && !lane.scheduled) {
+                    lane.retired = true;
+                    lanes.remove(lane.serverId, lane);
+                }
+            } else if (!lane.scheduled) {
+                long ready = Math.max(lane.pausedUntil, now + (long) ((1 - lane.tokens) * refillNanos));
+
+                lane.scheduled = true;
+                scheduler.get().schedule(() -> {
+                    synchronized (lane) {
+                        lane.scheduled = false;
+                    }
+                    drain(lane);
+                }, Math.max(0, ready - now), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private <T> void run(Lane lane, Task<T> task) {
+        CompletableFuture<T> call;
+        lane.inFlight++;
+        try {
+            call = task.call.get();
+        } catch (Throwable t) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(t);
+        }
+
+        call.whenComplete((result, error) -> {
+            synchronized (lane) {
+                lane.inFlight--;
+
+                if (error == null)
+                    task.result.complete(result);
+                else if (isRatelimit(error) && ++task.attempts < maxAttempts) {
+                    log.warn("Server [" + lane.serverId + "] hit a rate limit, pausing for "
+                            + TimeUnit.NANOSECONDS.toMillis(pauseNanos) + "ms");
+
+                    lane.pausedUntil = System.nanoTime() + pauseNanos;
+                    lane.queue.addFirst(task);
+                } else task.result.completeExceptionally(error);
+            }
+
+            drain(lane);
+        });
+    }
+
+    private static boolean isRatelimit(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        return cause instanceof RatelimitException;
+    }
+
+    private class Lane {
+        private final long serverId;
+        private final Deque<Task<?>> queue = new ArrayDeque<>();
+        private double tokens = permits;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil = Long.MIN_VALUE;
+        private int inFlight = 0;
+        private boolean scheduled = false;
+        private boolean retired = false;
+
+        private Lane(long serverId) {
+            this.serverId = serverId;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(permits, tokens + (double) (now - refilledAt) / refillNanos);
+            refilledAt = now;
+        }
+    }
+
+    private static class Task<T> {
+        private final Supplier<CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int attempts = 0;
+
+        private Task(Supplier<CompletableFuture<T>> call) {
+            this.call = call;
+        }
+    }
+}
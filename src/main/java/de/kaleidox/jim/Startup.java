@@ -0,0 +1,97 @@
+package de.kaleidox.jim;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+The phases of the startup and the readiness gate of the commands.
+Phases run concurrently where they do not depend on each other, and every phase logs and exports its duration.
+Commands that need the assignments wait at the gate until #ready; the first one to pass it marks the
+time-to-first-command, counted from the start of the JVM.
+ */
+public enum Startup {
+    INSTANCE;
+
+    private static final Logger log = LoggerUtil.getLogger(Startup.class);
+
+    private final ExecutorService phases = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Jim - Startup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicBoolean firstCommand = new AtomicBoolean(false);
+
+    /*
+    Runs a phase that results in a value on its own thread; its future fails with the exception of the phase.
+     */
+    public <T> CompletableFuture<T> supply(String name, Callable<T> body) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return body.call();
+            } catch (Exception e) {
+                throw new CompletionException("Startup phase [" + name + "] failed", e);
+            } finally {
+                record(name, System.nanoTime() - start);
+            }
+        }, phases);
+    }
+
+    public CompletableFuture<Void> phase(String name, Phase body) {
+        return supply(name, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /*
+    Logs and exports the duration of a phase that ran elsewhere.
+     */
+    public void record(String name, long nanos) {
+        JimMetrics.phase(name, nanos);
+        log.info("Startup phase [" + name + "] took " + nanos / 1_000_000 + "ms");
+    }
+
+    public void ready() {
+        if (!ready.complete(null)) return;
+
+        log.info("Ready for commands " + sinceJvmStart() + "ms after the start of the JVM");
+        phases.shutdown();
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /*
+    Blocks until the assignments are loaded; only for commands that run asynchronously.
+     */
+    public void awaitReady() {
+        ready.join();
+
+        if (firstCommand.compareAndSet(false, true)) {
+            long millis = sinceJvmStart();
+
+            JimMetrics.firstCommand(millis);
+            log.info("First command " + millis + "ms after the start of the JVM");
+        }
+    }
+
+    private static long sinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    @FunctionalInterface
+    public interface Phase {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,139 @@
+package de.kaleidox.jim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import de.kaleidox.jim.discord.DiscordShard;
+import de.kaleidox.util.collections.LongCounter;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.api.exception.NotFoundException;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Checks persisted assignments against the current server state after a restart and removes the outdated ones.
+
+Assignments are grouped by server and every server is reconciled in one pass over its cached roles and members.
+Only users that are missing from the member cache are resolved through REST, through a bounded pipeline. In the
+low-memory mode no member counts as cached, so every user is resolved that way.
+Servers with assignments that are due soon are reconciled first, the returned future completes once they are done.
+A failing lookup or server never fails the reconciliation; a user that is not found counts as outdated, any other
+failure keeps the assignment as it is.
+ */
+class StartupReconciler {
+    private static final Logger log = LoggerUtil.getLogger(StartupReconciler.class);
+
+    private final AssignmentTable table;
+    private final RestPipeline lookups;
+    private final DiscordShard discord;
+    private final Executor executor;
+    private final AtomicInteger outdated = new AtomicInteger(0);
+
+    StartupReconciler(AssignmentTable table, RestPipeline lookups, DiscordShard discord, Executor executor) {
+        this.table = table;
+        this.lookups = lookups;
+        this.discord = discord;
+        this.executor = executor;
+    }
+
+    /*
+    Returns a future for the hot servers, the cold ones continue in the background.
+     */
+    CompletableFuture<Void> reconcile(long hotUntilEpochSecond) {
+        long start = System.nanoTime();
+
+        Map<Long, List<TemporaryAssignment>> byServer = Arrays.stream(table.handles())
+                .mapToObj(table::view)
+                .filter(assignment -> assignment != null)
+                .collect(Collectors.groupingBy(TemporaryAssignment::getServerId));
+
+        List<CompletableFuture<Void>> hot = new ArrayList<>();
+        List<CompletableFuture<Void>> cold = new ArrayList<>();
+        byServer.forEach((serverId, assignments) -> {
+            boolean isHot = assignments.stream()
+                    .anyMatch(assignment -> assignment.getRemoveAtEpochSecond() <= hotUntilEpochSecond);
+
+            (isHot ? hot : cold).add(CompletableFuture.runAsync(() -> {}, executor)
+                    .thenCompose(nil -> reconcile(serverId, assignments))
+                    .exceptionally(error -> {
+                        log.error("Could not reconcile the assignments of server [" + serverId + "], keeping them",
+                                error);
+                        return null;
+                    }));
+        });
+
+        CompletableFuture<Void> hotDone = CompletableFuture.allOf(hot.toArray(new CompletableFuture[0]))
+                .whenComplete((nil, error) -> log.info("Reconciled [" + hot.size() + "] servers with assignments " +
+                        "due soon in " + millisSince(start) + "ms"));
+
+        CompletableFuture.allOf(hotDone, CompletableFuture.allOf(cold.toArray(new CompletableFuture[0])))
+                .whenComplete((nil, error) -> {
+                    if (error != null) log.error("Reconciliation of persisted assignments failed", error);
+                    log.info("Reconciled all [" + byServer.size() + "] servers in " + millisSince(start) + "ms, " +
+                            "[" + outdated.get() + "] assignments were outdated");
+                });
+
+        return hotDone;
+    }
+
+    private CompletableFuture<Void> reconcile(long serverId, List<TemporaryAssignment> assignments) {
+        if (!discord.hasServer(serverId)) {
+            assignments.forEach(this::outdated);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Map<Long, LongCounter> holdersByRole = new HashMap<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        for (TemporaryAssignment assignment : assignments) {
+            long roleId = assignment.getRoleid();
+
+            if (!discord.roleExists(serverId, roleId)) {
+                outdated(assignment);
+                continue;
+            }
+
+            if (discord.isMemberCached(serverId, assignment.getUserId())) {
+                LongCounter holders = holdersByRole.computeIfAbsent(roleId, id -> {
+                    LongCounter set = new LongCounter();
+                    for (long user : discord.getHolders(id)) set.increment(user);
+                    return set;
+                });
+
+                if (!holders.contains(assignment.getUserId())) outdated(assignment);
+            } else pending.add(lookups.submit(() -> discord.memberHasRole(serverId, assignment.getUserId(), roleId))
+                    .handle((hasRole, error) -> {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause()
+                                : error;
+
+                        if (cause instanceof NotFoundException) outdated(assignment);
+                        else if (cause != null) log.warn("Could not check role [" + roleId + "] of user ["
+                                + assignment.getUserId() + "], keeping the assignment", cause);
+                        else if (!hasRole) outdated(assignment);
+                        return null;
+                    }));
+        }
+
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]));
+    }
+
+    private void outdated(TemporaryAssignment assignment) {
+        outdated.incrementAndGet();
+        log.debug("Assignment of role [" + assignment.getRoleid() + "] for user " +
+                "[" + assignment.getUserId() + "] is outdated.");
+        assignment.remove(TemporaryAssignment.RemovalStatus.OUTDATED);
+    }
+
+    private static long millisSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1_000_000;
+    }
+}
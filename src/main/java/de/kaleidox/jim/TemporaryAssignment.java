@@ -1,63 +1,45 @@
 package de.kaleidox.jim;
 
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
 
-import de.kaleidox.JimBot;
-
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.logging.log4j.Logger;
 import org.intellij.lang.annotations.MagicConstant;
-import org.javacord.api.entity.permission.Role;
-import org.javacord.api.entity.server.Server;
-import org.javacord.api.entity.user.User;
+import org.javacord.api.exception.NotFoundException;
 import org.javacord.core.util.logging.LoggerUtil;
 
-import static java.time.Instant.now;
-
+/*
+A view of one slot of the AssignmentTable.
+Views are created on demand and hold no state besides the slot they were created from.
+ */
 public class TemporaryAssignment {
     private final static Logger log = LoggerUtil.getLogger(TemporaryAssignment.class);
 
+    private final long handle;
+    private final long serverId;
     private final long userId;
-    private final Instant removeAt;
+    private final long removeAt;
     private final long roleid;
     private final boolean temporaryRole;
-    private ScheduledFuture<?> scheduledRemoval;
-    boolean cleanupable = false;
-
-    public TemporaryAssignment(JsonNode data) {
-        this.userId = data.get("userid").asLong();
-        this.removeAt = Instant.parse(data.get("removeat").asText());
-        this.roleid = data.get("roleid").asLong();
-        this.temporaryRole = data.path("temporaryrole").asBoolean(false);
-    }
 
-    public TemporaryAssignment(User target, Role targetRole, Instant targetInstant, boolean temporaryRole) {
-        this.userId = target.getId();
-        this.removeAt = targetInstant;
-        this.roleid = targetRole.getId();
+    TemporaryAssignment(long handle, long serverId, long userId, long roleid, long removeAt, boolean temporaryRole) {
+        this.handle = handle;
+        this.serverId = serverId;
+        this.userId = userId;
+        this.removeAt = removeAt;
+        this.roleid = roleid;
         this.temporaryRole = temporaryRole;
     }
 
-    public boolean isOutdated() {
-        Role role = JimBot.API.getRoleById(roleid).orElse(null);
-
-        if (role == null) return true;
-
-        return JimBot.API.getUserById(userId)
-                .thenApply(user -> {
-                    Server server = role.getServer();
+    public long getHandle() {
+        return handle;
+    }
 
-                    return server.getRoles(user)
-                            .stream()
-                            .noneMatch(role::equals);
-                })
-                .join();
+    public long getServerId() {
+        return serverId;
     }
 
     public long getUserId() {
@@ -65,6 +47,10 @@ public class TemporaryAssignment {
     }
 
     public Instant getRemoveAt() {
+        return Instant.ofEpochSecond(removeAt);
+    }
+
+    public long getRemoveAtEpochSecond() {
         return removeAt;
     }
 
@@ -76,31 +62,10 @@ public class TemporaryAssignment {
         return temporaryRole;
     }
 
-    public void scheduleRemoval() {
-        Instant now = now();
-        Instant removeAt = getRemoveAt();
-
-        if (removeAt.isBefore(now))
-            remove(RemovalStatus.EXPIRED);
-        else {
-            long until = now.until(removeAt, ChronoUnit.SECONDS);
-
-            this.scheduledRemoval = JimBot.API.getThreadPool()
-                    .getScheduler()
-                    .schedule(() -> remove(RemovalStatus.EXPIRED), until, TimeUnit.SECONDS);
-        }
-    }
-
-    public synchronized void remove(@MagicConstant(valuesFromClass = RemovalStatus.class) int status) {
-        if (cleanupable) return;
-
-        Role role = JimBot.API.getRoleById(roleid).orElse(null);
-
-        if (role == null) {
-            log.error("Unable to remove assignment from user [" + userId + "]: " +
-                    "Role [" + roleid + "] was not found");
-            return;
-        }
+    public CompletableFuture<Void> remove(@MagicConstant(valuesFromClass = RemovalStatus.class) int status) {
+        AssignmentPartition partition = AssignmentManager.INSTANCE.forServer(serverId);
+        if (!partition.beginRemoval(this, status))
+            return CompletableFuture.completedFuture(null);
 
         switch (status) {
             case RemovalStatus.EXPIRED:
@@ -108,7 +73,6 @@ public class TemporaryAssignment {
 
                 break;
             case RemovalStatus.CANCELLED:
-                scheduledRemoval.cancel(true);
                 log.info("Assignment of role [" + roleid + "] for user [" + userId + "] " +
                         "was manually cancelled! Taking no further actions.");
 
@@ -117,46 +81,78 @@ public class TemporaryAssignment {
                 log.info("Assignment of role [" + roleid + "] for user [" + userId + "] " +
                         "was removed while bot was offline! Taking no further actions.");
 
+                break;
+            case RemovalStatus.REVOKED:
+                log.info("Assignment of role [" + roleid + "] for user [" + userId + "] " +
+                        "was revoked! Removing the role early.");
+
                 break;
         }
 
-        JimBot.API.getUserById(userId)
-                .thenCompose(user -> {
-                    Server server = role.getServer();
+        return removeFromUser(partition)
+                .whenComplete((nil, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+
+                    // the assignment stays persisted until the role is gone, or removing it can never succeed
+                    if (error != null && RestPipeline.isRetryable(cause)) {
+                        log.warn("Could not remove role [" + roleid + "] from user [" + userId + "], " +
+                                "trying again later", cause);
+                        partition.removalFailed(this);
+                        return;
+                    }
 
-                    server.removeRoleFromUser(user, role)
-                            .join();
+                    // an unknown member or role has nothing left to remove
+                    boolean gone = error == null || cause instanceof NotFoundException;
+                    if (!gone)
+                        log.error("Could not remove role [" + roleid + "] from user [" + userId + "], " +
+                                "giving up", cause);
 
-                    if (temporaryRole && server.getMembers()
-                            .stream()
-                            .flatMap(usr -> server.getRoles(usr).stream())
-                            .noneMatch(role::equals)) {
-                        log.info("Role [" + roleid + "] was a temporary role and was deleted, " +
-                                "since there was no user left with that role");
-                        return role.delete();
-                    }
+                    if (error == null && status == RemovalStatus.EXPIRED)
+                        JimMetrics.EXPIRATION_LAG.observe((System.currentTimeMillis() - removeAt * 1000) / 1000.0);
+
+                    partition.removed(this, gone);
+                });
+    }
 
-                    return CompletableFuture.completedFuture(null);
-                })
-                .join();
+    /*
+    The removal waits for the other removals of the same member that are due now, see RemovalCoalescer.
+     */
+    private CompletableFuture<Void> removeFromUser(AssignmentPartition partition) {
+        if (!partition.getDiscord().roleExists(serverId, roleid)) {
+            log.error("Unable to remove assignment from user [" + userId + "]: " +
+                    "Role [" + roleid + "] was not found");
+            return CompletableFuture.completedFuture(null);
+        }
 
-        cleanupable = true;
+        return partition.getCoalescer().remove(serverId, userId, roleid);
     }
 
-    public JsonNode toJson() {
+    public ObjectNode toJson() {
         ObjectNode me = JsonNodeFactory.instance.objectNode();
 
         me.put("userid", userId);
-        me.put("removeat", removeAt.toString());
+        me.put("removeat", getRemoveAt().toString());
         me.put("roleid", roleid);
         me.put("temporaryrole", temporaryRole);
 
         return me;
     }
 
+    public ObjectNode toJournalRecord(String operation) {
+        ObjectNode me = toJson();
+
+        me.put("op", operation);
+        me.put("serverid", serverId);
+
+        return me;
+    }
+
     public static class RemovalStatus {
         public static final int EXPIRED = 0;
         public static final int CANCELLED = 1;
         public static final int OUTDATED = 2;
+        public static final int REVOKED = 3;
     }
 }
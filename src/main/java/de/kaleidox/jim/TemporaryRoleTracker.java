@@ -0,0 +1,53 @@
+package de.kaleidox.jim;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import de.kaleidox.util.collections.LongCounter;
+
+/*
+Reference counts for roles that were created by assignNew.
+A temporary role is referenced by its live assignments and by the members holding it. Holders are kept as a set, so
+the removal event and the completion of our own removal may both report the same holder leaving.
+Roles are only tracked while they have live assignments.
+ */
+public class TemporaryRoleTracker {
+    private final LongCounter assignments = new LongCounter();
+    private final Map<Long, LongCounter> holders = new HashMap<>();
+
+    public synchronized void assigned(long roleId, Supplier<long[]> currentHolders) {
+        if (assignments.increment(roleId) > 1) return;
+
+        LongCounter set = new LongCounter(4);
+        for (long userId : currentHolders.get())
+            set.increment(userId);
+        holders.put(roleId, set);
+    }
+
+    public synchronized void holderAdded(long roleId, long userId) {
+        LongCounter set = holders.get(roleId);
+        if (set != null && !set.contains(userId)) set.increment(userId);
+    }
+
+    public synchronized void holderRemoved(long roleId, long userId) {
+        LongCounter set = holders.get(roleId);
+        if (set != null) set.remove(userId);
+    }
+
+    public synchronized boolean isTracked(long roleId) {
+        return assignments.contains(roleId);
+    }
+
+    /*
+    Releases one assignment of the role and returns whether the role is no longer referenced at all.
+     */
+    public synchronized boolean release(long roleId, long userId, boolean userLostRole) {
+        if (!assignments.contains(roleId)) return false;
+        if (userLostRole) holderRemoved(roleId, userId);
+        if (assignments.decrement(roleId) > 0) return false;
+
+        LongCounter set = holders.remove(roleId);
+        return set == null || set.size() == 0;
+    }
+}
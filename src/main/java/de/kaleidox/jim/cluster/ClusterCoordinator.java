@@ -0,0 +1,189 @@
+package de.kaleidox.jim.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Renews the leases of this process at a third of their duration and starts and stops the leased partitions.
+Partitions are started and stopped one after another on a thread of their own, so neither a slow start nor a slow
+stop ever delays the renewal. The lease of a partition is kept while it stops and given up once it has stopped, and
+all partitions are stopped if the leases could not be renewed for too long, so two processes never work on the same
+partition.
+ */
+public class ClusterCoordinator implements Closeable {
+    private static final Logger log = LoggerUtil.getLogger(ClusterCoordinator.class);
+
+    private final LeaseTable leases;
+    private final Owner owner;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService lifecycle;
+    private final Set<Integer> running = new TreeSet<>();
+    private final Set<Integer> starting = new TreeSet<>();
+    private final Set<Integer> stopping = new TreeSet<>();
+    private Set<Integer> held = Collections.emptySet();
+    private long renewedAt = System.currentTimeMillis();
+    private boolean closed = false;
+
+    public ClusterCoordinator(LeaseTable leases, Owner owner) {
+        this.leases = leases;
+        this.owner = owner;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jim - Cluster Leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lifecycle = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jim - Partition Lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        long interval = leases.getLeaseMillis() / 3;
+
+        scheduler.scheduleWithFixedDelay(this::tick, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Set<Integer> getRunning() {
+        return Collections.unmodifiableSet(new TreeSet<>(running));
+    }
+
+    /*
+    Waits for all partitions to stop before leaving, however long that takes.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(leases.getLeaseMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            closed = true;
+            for (int partition : new TreeSet<>(running)) beginStop(partition, false);
+        }
+        lifecycle.shutdown();
+        try {
+            lifecycle.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        leases.leave();
+    }
+
+    private synchronized void tick() {
+        if (closed) return;
+
+        try {
+            held = leases.renew(stopping);
+            renewedAt = System.currentTimeMillis();
+        } catch (IOException e) {
+            log.error("Could not renew the leases of [" + leases.getMemberId() + "]", e);
+
+            // the leases might run out before the next attempt
+            if (System.currentTimeMillis() - renewedAt > leases.getLeaseMillis() * 2 / 3)
+                for (int partition : new TreeSet<>(running)) beginStop(partition, false);
+            return;
+        }
+
+        for (int partition : new TreeSet<>(running))
+            if (!held.contains(partition)) beginStop(partition, true);
+
+        for (int partition : held)
+            if (!running.contains(partition) && !stopping.contains(partition) && starting.add(partition))
+                lifecycle.execute(() -> start(partition));
+    }
+
+    /*
+    Runs on the lifecycle thread, while the leases keep being renewed. A partition whose lease was lost while it
+    started is stopped again right away.
+     */
+    private void start(int partition) {
+        try {
+            owner.acquired(partition);
+        } catch (Exception e) {
+            log.error("Could not start partition [" + partition + "]", e);
+            synchronized (this) {
+                starting.remove(partition);
+            }
+            try {
+                leases.release(partition);
+            } catch (IOException ignored) {
+                // runs out by itself
+            }
+            return;
+        }
+
+        boolean lost;
+        synchronized (this) {
+            starting.remove(partition);
+            running.add(partition);
+            lost = closed || !isHeld(partition);
+        }
+
+        if (lost) {
+            log.warn("The lease of partition [" + partition + "] was lost while it started");
+            stop(partition, false);
+        } else log.info("[" + leases.getMemberId() + "] took over partition [" + partition + "]");
+    }
+
+    private boolean isHeld(int partition) {
+        return held.contains(partition) && System.currentTimeMillis() - renewedAt < leases.getLeaseMillis() * 2 / 3;
+    }
+
+    /*
+    The partition counts as stopping, and is not started again, until it has stopped and its lease was released.
+     */
+    private void beginStop(int partition, boolean release) {
+        if (!running.remove(partition)) return;
+
+        stopping.add(partition);
+        lifecycle.execute(() -> stop(partition, release));
+    }
+
+    /*
+    Runs on the lifecycle thread.
+     */
+    private void stop(int partition, boolean release) {
+        synchronized (this) {
+            running.remove(partition);
+            stopping.add(partition);
+        }
+
+        try {
+            owner.lost(partition);
+            log.info("[" + leases.getMemberId() + "] gave up partition [" + partition + "]");
+        } catch (Exception e) {
+            log.error("Could not stop partition [" + partition + "] cleanly", e);
+        }
+
+        if (release) try {
+            leases.release(partition);
+        } catch (IOException e) {
+            log.warn("Could not release partition [" + partition + "], it is taken over once its lease ran out", e);
+        }
+
+        synchronized (this) {
+            stopping.remove(partition);
+        }
+    }
+
+    public interface Owner {
+        void acquired(int partition) throws Exception;
+
+        void lost(int partition) throws Exception;
+    }
+}
@@ -0,0 +1,239 @@
+package de.kaleidox.jim.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/*
+Time bounded leases on a fixed number of partitions, shared by several processes through one file.
+
+Every access locks the file, so it works across processes on one machine and on file systems with working locks.
+Members announce themselves with a heartbeat; every member aims for its fair share of the partitions, takes over
+partitions whose lease has run out and gives up partitions beyond its share. A member that dies stops renewing, so
+its leases run out and are taken over by the others.
+ */
+public class LeaseTable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final File file;
+    private final String memberId;
+    private final long leaseMillis;
+
+    public LeaseTable(File file, String memberId, long leaseMillis) {
+        this.file = file;
+        this.memberId = memberId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /*
+    Joins the cluster with the given number of partitions.
+    The first live member runs [firstMember] while holding the lock, before anyone can take a lease.
+     */
+    public void join(int partitions, IOAction firstMember) throws IOException {
+        update(state -> {
+            long now = System.currentTimeMillis();
+            pruneMembers(state, now);
+
+            if (state.members.isEmpty()) {
+                firstMember.run();
+                state.partitions = partitions;
+                state.leases.clear();
+            } else if (state.partitions != partitions)
+                throw new IOException("The cluster runs with [" + state.partitions + "] partitions, not [" + partitions
+                        + "]");
+
+            state.members.put(memberId, now + leaseMillis);
+            return null;
+        });
+    }
+
+    /*
+    Renews the membership and the leases of this member, takes over free partitions up to the fair share and
+    stops renewing partitions beyond it. Returns the partitions this member holds until the next renewal.
+     */
+    public Set<Integer> renew() throws IOException {
+        return renew(Collections.emptySet());
+    }
+
+    /*
+    Like #renew(), but also keeps the leases of the [stopping] partitions this member still owns, without holding
+    them; they are released once their partition was stopped.
+     */
+    public Set<Integer> renew(Set<Integer> stopping) throws IOException {
+        return update(state -> {
+            long now = System.currentTimeMillis();
+            pruneMembers(state, now);
+            state.members.put(memberId, now + leaseMillis);
+
+            int fairShare = (state.partitions + state.members.size() - 1) / state.members.size();
+            Set<Integer> held = new TreeSet<>();
+
+            for (int partition = 0; partition < state.partitions; partition++) {
+                Lease lease = state.leases.get(partition);
+                if (lease != null && lease.owner.equals(memberId) && held.size() < fairShare) held.add(partition);
+            }
+            for (int partition = 0; partition < state.partitions; partition++) {
+                Lease lease = state.leases.get(partition);
+                if (held.size() < fairShare && (lease == null || lease.expires < now)) held.add(partition);
+            }
+
+            // leases beyond the fair share are not renewed, unless their partition is still stopping
+            for (int partition : held) {
+                Lease lease = state.leases.get(partition);
+
+                if (lease != null && lease.owner.equals(memberId)) lease.expires = now + leaseMillis;
+                else state.leases.put(partition, new Lease(memberId, now + leaseMillis));
+            }
+            for (int partition : stopping) {
+                Lease lease = state.leases.get(partition);
+
+                if (lease != null && lease.owner.equals(memberId)) lease.expires = now + leaseMillis;
+            }
+
+            return held;
+        });
+    }
+
+    /*
+    Gives up the lease right away, instead of letting it run out.
+     */
+    public void release(int partition) throws IOException {
+        update(state -> {
+            Lease lease = state.leases.get(partition);
+            if (lease != null && lease.owner.equals(memberId)) state.leases.remove(partition);
+            return null;
+        });
+    }
+
+    public void leave() throws IOException {
+        update(state -> {
+            state.leases.values().removeIf(lease -> lease.owner.equals(memberId));
+            state.members.remove(memberId);
+            return null;
+        });
+    }
+
+    /*
+    Returns the owners of all partitions with a live lease.
+     */
+    public Map<Integer, String> owners() throws IOException {
+        return update(state -> {
+            long now = System.currentTimeMillis();
+            Map<Integer, String> owners = new HashMap<>();
+
+            state.leases.forEach((partition, lease) -> {
+                if (lease.expires >= now) owners.put(partition, lease.owner);
+            });
+            return owners;
+        });
+    }
+
+    private static void pruneMembers(State state, long now) {
+        for (Iterator<Long> expires = state.members.values().iterator(); expires.hasNext(); )
+            if (expires.next() < now) expires.remove();
+    }
+
+    /*
+    Reads, changes and writes the table while holding the file lock.
+    File locks are held per process, so members in the same process are serialized by the class.
+     */
+    private <T> T update(Transaction<T> transaction) throws IOException {
+        synchronized (LeaseTable.class) {
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw");
+                 FileChannel channel = access.getChannel();
+                 FileLock lock = channel.lock()) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining())
+                    if (channel.read(buffer, buffer.position()) < 0) break;
+
+                State state = State.parse(buffer.array());
+                T result = transaction.apply(state);
+
+                byte[] bytes = MAPPER.writeValueAsBytes(state.toJson());
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(bytes), 0);
+                channel.force(false);
+
+                return result;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface IOAction {
+        void run() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Transaction<T> {
+        T apply(State state) throws IOException;
+    }
+
+    private static class State {
+        private int partitions = 0;
+        private final Map<String, Long> members = new HashMap<>();
+        private final Map<Integer, Lease> leases = new HashMap<>();
+
+        private static State parse(byte[] bytes) throws IOException {
+            State state = new State();
+            if (bytes.length == 0) return state;
+
+            JsonNode node = MAPPER.readTree(bytes);
+            state.partitions = node.path("partitions").asInt(0);
+            node.path("members").fields()
+                    .forEachRemaining(member -> state.members.put(member.getKey(), member.getValue().asLong()));
+            node.path("leases").fields()
+                    .forEachRemaining(lease -> state.leases.put(Integer.parseInt(lease.getKey()), new Lease(
+                            lease.getValue().path("owner").asText(),
+                            lease.getValue().path("expires").asLong()
+                    )));
+
+            return state;
+        }
+
+        private ObjectNode toJson() {
+            ObjectNode node = MAPPER.createObjectNode();
+
+            node.put("partitions", partitions);
+            ObjectNode members = node.putObject("members");
+            this.members.forEach(members::put);
+            ObjectNode leases = node.putObject("leases");
+            this.leases.forEach((partition, lease) -> leases.putObject(String.valueOf(partition))
+                    .put("owner", lease.owner)
+                    .put("expires", lease.expires));
+
+            return node;
+        }
+    }
+
+    private static class Lease {
+        private final String owner;
+        private long expires;
+
+        private Lease(String owner, long expires) {
+            this.owner = owner;
+            this.expires = expires;
+        }
+    }
+}
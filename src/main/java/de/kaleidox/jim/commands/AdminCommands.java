@@ -1,8 +1,16 @@
 package de.kaleidox.jim.commands;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import de.kaleidox.javacord.util.commands.Command;
 import de.kaleidox.javacord.util.commands.CommandGroup;
+import de.kaleidox.javacord.util.ui.embed.DefaultEmbedFactory;
+import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.jim.JimMetrics;
 
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.server.Server;
 import org.javacord.api.entity.user.User;
 
 @CommandGroup
@@ -11,7 +19,40 @@ public enum AdminCommands {
 
     @Command(shownInHelpCommand = false)
     public void shutdown(User user) {
-        if (user != null && user.isBotOwner())
-            System.exit(0);
+        JimMetrics.COMMAND_DURATION.time("shutdown", () -> {
+            if (user != null && user.isBotOwner())
+                System.exit(0);
+            return null;
+        });
+    }
+
+    /*
+    The pending assignments are a gauge per shard; the ones of the invoking server are added on top.
+     */
+    @Command(shownInHelpCommand = false)
+    public EmbedBuilder metrics(User user, Server server) {
+        return JimMetrics.COMMAND_DURATION.time("metrics", () -> {
+            if (user == null || !user.isBotOwner()) return null;
+
+            List<String> lines = new ArrayList<>();
+            if (server != null)
+                lines.add("jim_assignments_pending of this server: "
+                        + AssignmentManager.INSTANCE.getPendingCount(server.getId()));
+            lines.addAll(JimMetrics.REGISTRY.summary());
+
+            StringBuilder summary = new StringBuilder();
+            for (String line : lines) {
+                // embed descriptions are limited to 2048 characters
+                if (summary.length() + line.length() + 12 > 2048) {
+                    summary.append("…\n");
+                    break;
+                }
+                summary.append(line).append('\n');
+            }
+
+            return DefaultEmbedFactory.create()
+                    .setTitle("Metrics")
+                    .setDescription("```\n" + summary + "```");
+        });
     }
 }
@@ -3,6 +3,7 @@ package de.kaleidox.jim.commands;
 import de.kaleidox.javacord.util.commands.Command;
 import de.kaleidox.javacord.util.commands.CommandGroup;
 import de.kaleidox.javacord.util.ui.embed.DefaultEmbedFactory;
+import de.kaleidox.jim.JimMetrics;
 
 import org.javacord.api.entity.message.embed.EmbedBuilder;
 import org.javacord.api.entity.user.User;
@@ -13,9 +14,9 @@ public enum BasicCommands {
 
     @Command(usage = "about", description = "Who made this bot?", ordinal = 0)
     public EmbedBuilder about(User user) {
-        return DefaultEmbedFactory.create()
+        return JimMetrics.COMMAND_DURATION.time("about", () -> DefaultEmbedFactory.create()
                 .addField("Bot Author", "[Kaleidox#0001](http://kaleidox.de)")
                 .addField("GitHub Repository", "http://github.com/burdoto/Jim-Bot [GPL 3.0 License]")
-                .setFooter("Made for 1ceSpark#0004");
+                .setFooter("Made for 1ceSpark#0004"));
     }
 }
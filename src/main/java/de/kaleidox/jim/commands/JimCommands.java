@@ -3,8 +3,15 @@ package de.kaleidox.jim.commands;
 import java.awt.Color;
 import java.text.ParseException;
 import java.time.Instant;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import de.kaleidox.JimBot;
 import de.kaleidox.javacord.util.commands.Command;
@@ -12,20 +19,31 @@ import de.kaleidox.javacord.util.commands.CommandGroup;
 import de.kaleidox.javacord.util.ui.embed.DefaultEmbedFactory;
 import de.kaleidox.javacord.util.ui.reactions.InfoReaction;
 import de.kaleidox.jim.AssignmentManager;
+import de.kaleidox.jim.BulkAssignment;
+import de.kaleidox.jim.JimMetrics;
+import de.kaleidox.jim.RoleNameIndex;
+import de.kaleidox.jim.Startup;
+import de.kaleidox.jim.TemporaryAssignment;
+import de.kaleidox.util.time.DurationParser;
 
-import me.xdrop.fuzzywuzzy.FuzzySearch;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
 import org.javacord.api.entity.permission.Role;
 import org.javacord.api.entity.permission.RoleBuilder;
 import org.javacord.api.entity.server.Server;
 import org.javacord.api.entity.user.User;
+import org.javacord.api.util.logging.ExceptionLogger;
 
 @CommandGroup(name = "Main Commands", description = "Main Jim functionality", ordinal = 0)
 public enum JimCommands {
     INSTANCE;
 
+    private static final Pattern MENTION = Pattern.compile("<(@!?|@&|#)(\\d+)>");
+    private static final Pattern PAGE = Pattern.compile("\\d{1,6}");
+    private static final int PAGE_SIZE = 10;
+
     @Command(
             description = "Temporarily assign a role to a user",
-            usage = "tempRole <User> <Rolename or Mention> <Time>",
+            usage = "tempRole <User> <Rolename or Mention> <Time | until Timestamp>",
             enablePrivateChat = false,
             ordinal = 0,
             requiredUserMentions = 1,
@@ -33,64 +51,67 @@ public enum JimCommands {
             async = true
     )
     public InfoReaction tempRole(Server server, String[] args, Command.Parameters param) {
-        User target = param.getUserMentions().get(0);
-        Role targetRole = param.getRoleMentions().stream()
-                .findAny()
-                .orElseGet(() -> server.getRoles()
-                        .stream()
-                        .max(Comparator.comparingInt(role -> FuzzySearch.ratio(args[1], role.getName())))
-                        .filter(role -> FuzzySearch.ratio(args[1], role.getName()) > 70)
-                        .orElse(null));
-
-        if (targetRole == null) {
-            return new InfoReaction(
+        return command("tempRole", () -> {
+            User target = param.getUserMentions().get(0);
+            Role targetRole = param.getRoleMentions().stream()
+                    .findAny()
+                    .orElseGet(() -> RoleNameIndex.INSTANCE.find(server, args[1]).orElse(null));
+
+            if (targetRole == null) {
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        "❌",
+                        "Could not determine role from input: `" + args[1] + "`",
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            server.addRoleToUser(target, targetRole).join();
+
+            Instant removeStamp;
+            try {
+                removeStamp = AssignmentManager.INSTANCE.removeRoleAfter(
+                        target,
+                        targetRole,
+                        String.join(" ", Arrays.copyOfRange(args, 2, args.length)),
+                        false
+                );
+            } catch (ParseException e) {
+                JimBot.LOG.catching(e);
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        InfoReaction.MessageTypeEmoji.WARNING,
+                        e.getMessage(),
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            if (removeStamp != null) return new InfoReaction(
                     param.getCommandMessage(),
-                    "❌",
-                    "Could not determine role from input: `" + args[1] + "`",
+                    "✅",
+                    "Role added to user until " + removeStamp.toString() + "!",
                     30,
                     TimeUnit.SECONDS,
                     DefaultEmbedFactory.INSTANCE
             );
-        }
-
-        server.addRoleToUser(target, targetRole).join();
-
-        Instant removeStamp;
-        try {
-            removeStamp = AssignmentManager.INSTANCE.removeRoleAfter(target, targetRole, args[2], false);
-        } catch (ParseException e) {
-            JimBot.LOG.catching(e);
-            return new InfoReaction(
+            else return new InfoReaction(
                     param.getCommandMessage(),
-                    InfoReaction.MessageTypeEmoji.WARNING,
-                    e.getMessage(),
+                    "❌",
+                    "Something went wrong. Please contact the developer!",
                     30,
                     TimeUnit.SECONDS,
-                    DefaultEmbedFactory.INSTANCE
+                    () -> DefaultEmbedFactory.INSTANCE.get().setColor(Color.RED)
             );
-        }
-
-        if (removeStamp != null) return new InfoReaction(
-                param.getCommandMessage(),
-                "✅",
-                "Role added to user until " + removeStamp.toString() + "!",
-                30,
-                TimeUnit.SECONDS,
-                DefaultEmbedFactory.INSTANCE
-        );
-        else return new InfoReaction(
-                param.getCommandMessage(),
-                "❌",
-                "Something went wrong. Please contact the developer!",
-                30,
-                TimeUnit.SECONDS,
-                () -> DefaultEmbedFactory.INSTANCE.get().setColor(Color.RED)
-        );
+        });
     }
 
     @Command(
             description = "Create a role and temporarily assign it to a user",
-            usage = "assignNew <User> <Rolename> <Time> [Role hex code]",
+            usage = "assignNew <User> <Rolename> <Time | until Timestamp> [Role hex code]",
             enablePrivateChat = false,
             ordinal = 0,
             requiredUserMentions = 1,
@@ -98,37 +119,286 @@ public enum JimCommands {
             async = true
     )
     public InfoReaction assignNew(Server server, String[] args, Command.Parameters param) {
-        User target = param.getUserMentions().get(0);
+        return command("assignNew", () -> {
+            User target = param.getUserMentions().get(0);
+            int timeEnd = args[2].equalsIgnoreCase("until") && args.length > 3 ? 4 : 3;
 
-        RoleBuilder roleBuilder = server.createRoleBuilder()
-                .setName(args[1]);
+            RoleBuilder roleBuilder = server.createRoleBuilder()
+                    .setName(args[1]);
 
-        if (args.length >= 4) {
-            Color color = new Color(Integer.decode("0x" + args[3]));
+            if (args.length > timeEnd) {
+                Color color = new Color(Integer.decode("0x" + args[timeEnd]));
 
-            roleBuilder.setColor(color);
-        }
+                roleBuilder.setColor(color);
+            }
 
-        Role targetRole = roleBuilder.create()
-                .join();
+            Role targetRole = roleBuilder.create()
+                    .join();
 
-        if (targetRole == null) {
-            return new InfoReaction(
+            if (targetRole == null) {
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        "❌",
+                        "Could not determine role from input: `" + args[1] + "`",
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            server.addRoleToUser(target, targetRole)
+                    .join();
+
+            Instant removeStamp;
+            try {
+                removeStamp = AssignmentManager.INSTANCE.removeRoleAfter(
+                        target,
+                        targetRole,
+                        String.join(" ", Arrays.copyOfRange(args, 2, timeEnd)),
+                        true
+                );
+            } catch (ParseException e) {
+                JimBot.LOG.catching(e);
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        InfoReaction.MessageTypeEmoji.WARNING,
+                        e.getMessage(),
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            if (removeStamp != null) return new InfoReaction(
                     param.getCommandMessage(),
-                    "❌",
-                    "Could not determine role from input: `" + args[1] + "`",
+                    "✅",
+                    "Role added to user until " + removeStamp.toString() + "!",
                     30,
                     TimeUnit.SECONDS,
                     DefaultEmbedFactory.INSTANCE
             );
-        }
+            else return new InfoReaction(
+                    param.getCommandMessage(),
+                    "❌",
+                    "Something went wrong. Please contact the developer!",
+                    30,
+                    TimeUnit.SECONDS,
+                    () -> DefaultEmbedFactory.INSTANCE.get().setColor(Color.RED)
+            );
+        });
+    }
 
-        server.addRoleToUser(target, targetRole)
-                .join();
+    @Command(
+            description = "Temporarily assign a role to many users, to the holders of roles or to everyone in voice " +
+                    "channels",
+            usage = "bulkTempRole <Rolename or Mention> <Time | until Timestamp> <Users, Roles or Voice channels...>",
+            enablePrivateChat = false,
+            ordinal = 1,
+            requiredArguments = 3,
+            async = true
+    )
+    public InfoReaction bulkTempRole(Server server, String[] args, Command.Parameters param) {
+        return command("bulkTempRole", () -> {
+            Matcher roleMention = MENTION.matcher(args[0]);
+            Role targetRole = (roleMention.matches() && roleMention.group(1).equals("@&")
+                    ? server.getRoleById(roleMention.group(2))
+                    : RoleNameIndex.INSTANCE.find(server, args[0])).orElse(null);
+
+            if (targetRole == null) {
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        "❌",
+                        "Could not determine role from input: `" + args[0] + "`",
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            return bulk(server, () -> targetRole, args, firstMention(args, 1), false, param);
+        });
+    }
+
+    @Command(
+            description = "Create a role and temporarily assign it to many users, to the holders of roles or to " +
+                    "everyone in voice channels",
+            usage = "bulkAssignNew <Rolename> <Time | until Timestamp> <Users, Roles or Voice channels...> " +
+                    "[Role hex code]",
+            enablePrivateChat = false,
+            ordinal = 1,
+            requiredArguments = 3,
+            async = true
+    )
+    public InfoReaction bulkAssignNew(Server server, String[] args, Command.Parameters param) {
+        return command("bulkAssignNew", () -> {
+            int timeEnd = firstMention(args, 1);
+
+            RoleBuilder roleBuilder = server.createRoleBuilder()
+                    .setName(args[0]);
+
+            if (timeEnd < args.length && !MENTION.matcher(args[args.length - 1]).matches()) {
+                Color color = new Color(Integer.decode("0x" + args[args.length - 1]));
+
+                roleBuilder.setColor(color);
+            }
+
+            return bulk(server, () -> roleBuilder.create().join(), args, timeEnd, true, param);
+        });
+    }
 
-        Instant removeStamp;
+    @Command(
+            description = "List the active temporary roles of the server or of one user, the next to end first",
+            usage = "tempRoles [User] [Page]",
+            enablePrivateChat = false,
+            ordinal = 2,
+            async = true
+    )
+    public EmbedBuilder tempRoles(Server server, String[] args, Command.Parameters param) {
+        return command("tempRoles", () -> {
+            int page = args.length > 0 && PAGE.matcher(args[args.length - 1]).matches()
+                    ? Math.max(1, Integer.parseInt(args[args.length - 1]))
+                    : 1;
+            int offset = (page - 1) * PAGE_SIZE;
+            Optional<User> target = param.getUserMentions().stream().findFirst();
+
+            List<TemporaryAssignment> assignments;
+            int total;
+            if (target.isPresent()) {
+                assignments = AssignmentManager.INSTANCE.getAssignments(server.getId(), target.get().getId());
+                total = assignments.size();
+                assignments = assignments.subList(Math.min(offset, total), Math.min(offset + PAGE_SIZE, total));
+            } else {
+                total = AssignmentManager.INSTANCE.getAssignmentCount(server.getId());
+                assignments = AssignmentManager.INSTANCE.getAssignments(server.getId(), offset, PAGE_SIZE);
+            }
+
+            StringBuilder list = new StringBuilder();
+            for (TemporaryAssignment assignment : assignments) {
+                list.append("<@").append(assignment.getUserId()).append("> ")
+                        .append("<@&").append(assignment.getRoleid()).append("> until ")
+                        .append(assignment.getRemoveAt());
+                if (assignment.isTemporaryRole()) list.append(" (temporary role)");
+                list.append('\n');
+            }
+            if (assignments.isEmpty()) list.append("No active temporary roles");
+
+            return DefaultEmbedFactory.create()
+                    .setTitle("Active temporary roles" + target.map(user -> " of " + user.getDiscriminatedName())
+                            .orElse(""))
+                    .setDescription(list.toString())
+                    .setFooter("Page " + page + " of " + Math.max(1, (total + PAGE_SIZE - 1) / PAGE_SIZE));
+        });
+    }
+
+    @Command(
+            description = "Change when a temporary role ends; +Time and -Time extend or shorten it, any other time " +
+                    "counts from now",
+            usage = "extendTempRole <User> <Rolename or Mention> <+Time | -Time | Time | until Timestamp>",
+            enablePrivateChat = false,
+            ordinal = 2,
+            requiredUserMentions = 1,
+            requiredArguments = 3,
+            async = true
+    )
+    public InfoReaction extendTempRole(Server server, String[] args, Command.Parameters param) {
+        return command("extendTempRole", () -> {
+            User target = param.getUserMentions().get(0);
+            Role targetRole = param.getRoleMentions().stream()
+                    .findAny()
+                    .orElseGet(() -> RoleNameIndex.INSTANCE.find(server, args[1]).orElse(null));
+
+            if (targetRole == null)
+                return reply(param, "❌", "Could not determine role from input: `" + args[1] + "`");
+
+            List<TemporaryAssignment> assignments = AssignmentManager.INSTANCE
+                    .getAssignments(server.getId(), target.getId(), targetRole.getId());
+            if (assignments.isEmpty())
+                return reply(param, "❌", "User has no active assignment of role `" + targetRole.getName() + "`");
+
+            // the assignment that ends first is the one that takes the role
+            TemporaryAssignment assignment = assignments.get(0);
+            long now = Instant.now().getEpochSecond();
+            long removeAt;
+            try {
+                removeAt = Math.max(now, resolveEnd(
+                        assignment,
+                        String.join(" ", Arrays.copyOfRange(args, 2, args.length)),
+                        now
+                ));
+            } catch (ParseException e) {
+                JimBot.LOG.catching(e);
+                return new InfoReaction(
+                        param.getCommandMessage(),
+                        InfoReaction.MessageTypeEmoji.WARNING,
+                        e.getMessage(),
+                        30,
+                        TimeUnit.SECONDS,
+                        DefaultEmbedFactory.INSTANCE
+                );
+            }
+
+            if (!AssignmentManager.INSTANCE.reschedule(assignment, removeAt))
+                return reply(param, "❌", "The assignment has ended meanwhile or already ends at that time");
+
+            return reply(param, "✅", removeAt == now
+                    ? "Role will be removed from user now!"
+                    : "Role stays with user until " + Instant.ofEpochSecond(removeAt) + "!");
+        });
+    }
+
+    @Command(
+            description = "End the temporary assignment of a role to a user now and remove the role",
+            usage = "cancelTempRole <User> <Rolename or Mention>",
+            enablePrivateChat = false,
+            ordinal = 2,
+            requiredUserMentions = 1,
+            requiredArguments = 2,
+            async = true
+    )
+    public InfoReaction cancelTempRole(Server server, String[] args, Command.Parameters param) {
+        return command("cancelTempRole", () -> {
+            User target = param.getUserMentions().get(0);
+            Role targetRole = param.getRoleMentions().stream()
+                    .findAny()
+                    .orElseGet(() -> RoleNameIndex.INSTANCE.find(server, args[1]).orElse(null));
+
+            if (targetRole == null)
+                return reply(param, "❌", "Could not determine role from input: `" + args[1] + "`");
+
+            int revoked = AssignmentManager.INSTANCE.revoke(server.getId(), target.getId(), targetRole.getId());
+            if (revoked == 0)
+                return reply(param, "❌", "User has no active assignment of role `" + targetRole.getName() + "`");
+
+            return reply(param, "✅", "Role removed from user, " + revoked + " assignment(s) ended!");
+        });
+    }
+
+    /*
+    Runs a command once the assignments are loaded, and times it.
+     */
+    private static <T> T command(String name, Supplier<T> body) {
+        Startup.INSTANCE.awaitReady();
+
+        return JimMetrics.COMMAND_DURATION.time(name, body);
+    }
+
+    /*
+    The role is only created or looked up once the time and the targets are known to be valid.
+     */
+    private static InfoReaction bulk(
+            Server server,
+            Supplier<Role> targetRole,
+            String[] args,
+            int timeEnd,
+            boolean temporaryRole,
+            Command.Parameters param
+    ) {
+        long removeAt;
         try {
-            removeStamp = AssignmentManager.INSTANCE.removeRoleAfter(target, targetRole, args[2], true);
+            removeAt = DurationParser.resolve(
+                    String.join(" ", Arrays.copyOfRange(args, 1, timeEnd)),
+                    Instant.now().getEpochSecond()
+            );
         } catch (ParseException e) {
             JimBot.LOG.catching(e);
             return new InfoReaction(
@@ -141,21 +411,105 @@ public enum JimCommands {
             );
         }
 
-        if (removeStamp != null) return new InfoReaction(
+        Map<Long, User> targets = resolveTargets(server, args, timeEnd);
+        if (targets.isEmpty()) return noTargets(param);
+
+        start(targetRole.get(), targets, removeAt, temporaryRole, param);
+        return null;
+    }
+
+    /*
+    Sends the progress message and runs the assignment in the background; the command returns right away.
+     */
+    private static void start(Role role, Map<Long, User> targets, long removeAt, boolean temporaryRole,
+                              Command.Parameters param) {
+        BulkAssignment assignment = new BulkAssignment(role, targets.values(), removeAt, temporaryRole);
+
+        param.getCommandMessage()
+                .getChannel()
+                .sendMessage(assignment.describe(false))
+                .thenCompose(assignment::run)
+                .exceptionally(ExceptionLogger.get());
+    }
+
+    /*
+    +Time and -Time count from the current end of the assignment, anything else from now.
+     */
+    private static long resolveEnd(TemporaryAssignment assignment, String time, long now) throws ParseException {
+        String expression = time.trim();
+        if (!expression.startsWith("+") && !expression.startsWith("-")) return DurationParser.resolve(expression, now);
+
+        long duration = DurationParser.parseDuration(expression.substring(1));
+        try {
+            long removeAt = expression.charAt(0) == '+'
+                    ? Math.addExact(assignment.getRemoveAtEpochSecond(), duration)
+                    : Math.subtractExact(assignment.getRemoveAtEpochSecond(), duration);
+
+            if (removeAt <= DurationParser.MAX_EPOCH_SECOND) return removeAt;
+        } catch (ArithmeticException ignored) {
+        }
+
+        throw new ParseException("Duration is too long: [" + expression + "]", 0);
+    }
+
+    private static InfoReaction reply(Command.Parameters param, String emoji, String text) {
+        return new InfoReaction(
                 param.getCommandMessage(),
-                "✅",
-                "Role added to user until " + removeStamp.toString() + "!",
+                emoji,
+                text,
                 30,
                 TimeUnit.SECONDS,
                 DefaultEmbedFactory.INSTANCE
         );
-        else return new InfoReaction(
+    }
+
+    private static InfoReaction noTargets(Command.Parameters param) {
+        return new InfoReaction(
                 param.getCommandMessage(),
                 "❌",
-                "Something went wrong. Please contact the developer!",
+                "No users found to assign the role to",
                 30,
                 TimeUnit.SECONDS,
-                () -> DefaultEmbedFactory.INSTANCE.get().setColor(Color.RED)
+                DefaultEmbedFactory.INSTANCE
         );
     }
+
+    /*
+    Returns the index of the first mention at or after [from], which is where the time expression ends.
+     */
+    private static int firstMention(String[] args, int from) {
+        for (int i = from; i < args.length; i++)
+            if (MENTION.matcher(args[i]).matches()) return i;
+
+        return args.length;
+    }
+
+    /*
+    Collects the mentioned users, the holders of mentioned roles and the users connected to mentioned voice channels,
+    each user once.
+     */
+    private static Map<Long, User> resolveTargets(Server server, String[] args, int from) {
+        Map<Long, User> targets = new LinkedHashMap<>();
+
+        for (int i = from; i < args.length; i++) {
+            Matcher mention = MENTION.matcher(args[i]);
+            if (!mention.matches()) continue;
+
+            long id = Long.parseLong(mention.group(2));
+            switch (mention.group(1)) {
+                case "@&":
+                    server.getRoleById(id).ifPresent(role -> role.getUsers()
+                            .forEach(user -> targets.putIfAbsent(user.getId(), user)));
+                    break;
+                case "#":
+                    server.getVoiceChannelById(id).ifPresent(channel -> channel.getConnectedUsers()
+                            .forEach(user -> targets.putIfAbsent(user.getId(), user)));
+                    break;
+                default:
+                    server.getMemberById(id).ifPresent(user -> targets.putIfAbsent(user.getId(), user));
+            }
+        }
+
+        return targets;
+    }
 }
@@ -0,0 +1,58 @@
+package de.kaleidox.jim.discord;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/*
+The few operations the assignments of one shard need from Discord, all by ids.
+JavacordShard runs them against a logged in shard; anything else, like an in-memory stand-in, lets the assignments
+run without a connection to Discord.
+ */
+public interface DiscordShard {
+    ScheduledExecutorService getScheduler();
+
+    /*
+    Where the blocking work of the shard runs when there are no virtual threads.
+     */
+    ExecutorService getExecutor();
+
+    boolean hasServer(long serverId);
+
+    boolean roleExists(long serverId, long roleId);
+
+    /*
+    Returns whether the member is known without asking Discord, so that #getHolders includes it.
+     */
+    boolean isMemberCached(long serverId, long userId);
+
+    /*
+    Returns the ids of the known members holding the role.
+     */
+    long[] getHolders(long roleId);
+
+    /*
+    Returns whether members other than the user might hold the role without #getHolders reporting them. A temporary
+    role is only deleted if not; in doubt it is kept.
+     */
+    boolean mayHaveOtherHolders(long serverId, long roleId, long userId);
+
+    /*
+    Asks Discord whether the user has the role; completes with false if the user is no member of the server.
+     */
+    CompletableFuture<Boolean> memberHasRole(long serverId, long userId, long roleId);
+
+    CompletableFuture<Void> removeRole(long serverId, long userId, long roleId);
+
+    /*
+    Removes several roles from one member; with one request per role, unless the shard can do it in one.
+     */
+    default CompletableFuture<Void> removeRoles(long serverId, long userId, long[] roleIds) {
+        CompletableFuture<?>[] removals = new CompletableFuture[roleIds.length];
+        for (int i = 0; i < roleIds.length; i++) removals[i] = removeRole(serverId, userId, roleIds[i]);
+
+        return CompletableFuture.allOf(removals);
+    }
+
+    CompletableFuture<Void> deleteRole(long serverId, long roleId);
+}
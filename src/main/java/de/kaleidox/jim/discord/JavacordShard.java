@@ -0,0 +1,162 @@
+package de.kaleidox.jim.discord;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import de.kaleidox.jim.JimMetrics;
+import de.kaleidox.jim.MemberRoles;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.exception.NotFoundException;
+
+/*
+A DiscordShard backed by a Javacord shard, which is looked up on every call so a reconnected shard is picked up.
+In the low-memory mode no member counts as cached, members and removals go through the MemberRoles instead.
+ */
+public class JavacordShard implements DiscordShard {
+    private final Supplier<DiscordApi> api;
+
+    public JavacordShard(Supplier<DiscordApi> api) {
+        this.api = api;
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduler() {
+        return api.get().getThreadPool().getScheduler();
+    }
+
+    @Override
+    public ExecutorService getExecutor() {
+        return api.get().getThreadPool().getExecutorService();
+    }
+
+    @Override
+    public boolean hasServer(long serverId) {
+        return api.get().getServerById(serverId).isPresent();
+    }
+
+    @Override
+    public boolean roleExists(long serverId, long roleId) {
+        return role(serverId, roleId).isPresent();
+    }
+
+    @Override
+    public boolean isMemberCached(long serverId, long userId) {
+        if (MemberRoles.INSTANCE.isLowMemory()) return false;
+
+        return api.get().getServerById(serverId)
+                .flatMap(server -> server.getMemberById(userId))
+                .isPresent();
+    }
+
+    @Override
+    public long[] getHolders(long roleId) {
+        if (MemberRoles.INSTANCE.isLowMemory()) return new long[0];
+
+        Collection<User> users = api.get().getRoleById(roleId)
+                .map(Role::getUsers)
+                .orElse(Collections.emptyList());
+        return users.stream().mapToLong(User::getId).toArray();
+    }
+
+    /*
+    In the low-memory mode #getHolders reports nobody, so the members that got the role outside of Jim are looked up
+    in the member cache of Javacord, which 3.0 keeps in any mode; see MemberRoles. A member whose removal event has
+    not arrived yet still counts, which keeps the role rather than deleting it too early.
+     */
+    @Override
+    public boolean mayHaveOtherHolders(long serverId, long roleId, long userId) {
+        if (!MemberRoles.INSTANCE.isLowMemory()) return false;
+
+        return role(serverId, roleId)
+                .map(role -> role.getUsers().stream().anyMatch(user -> user.getId() != userId))
+                .orElse(false);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> memberHasRole(long serverId, long userId, long roleId) {
+        DiscordApi api = this.api.get();
+        if (MemberRoles.INSTANCE.isLowMemory()) return MemberRoles.INSTANCE.hasRole(api, serverId, userId, roleId);
+
+        Optional<Role> role = role(serverId, roleId);
+        if (!role.isPresent()) return CompletableFuture.completedFuture(false);
+
+        Server server = role.get().getServer();
+        return api.getUserById(userId)
+                .thenApply(user -> server.getRoles(user).contains(role.get()))
+                .handle((hasRole, error) -> {
+                    if (error == null) return hasRole;
+
+                    // a deleted user has no roles
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (!(cause instanceof NotFoundException)) throw new CompletionException(cause);
+
+                    return false;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> removeRole(long serverId, long userId, long roleId) {
+        DiscordApi api = this.api.get();
+        if (MemberRoles.INSTANCE.isLowMemory()) return MemberRoles.INSTANCE.removeRole(api, serverId, userId, roleId);
+
+        Role role = role(serverId, roleId)
+                .orElseThrow(() -> new IllegalStateException("Role [" + roleId + "] was not found"));
+        Server server = role.getServer();
+
+        return api.getUserById(userId)
+                .thenCompose(user -> JimMetrics.rest(
+                        "removeRoleFromUser",
+                        () -> server.removeRoleFromUser(user, role)
+                ));
+    }
+
+    /*
+    Several roles go out as one member update through the ServerUpdater. The updater sends the whole remaining role
+    list of the member, so that is only done for cached members and never in the low-memory mode.
+     */
+    @Override
+    public CompletableFuture<Void> removeRoles(long serverId, long userId, long[] roleIds) {
+        if (roleIds.length == 1) return removeRole(serverId, userId, roleIds[0]);
+
+        DiscordApi api = this.api.get();
+        Optional<Server> server = api.getServerById(serverId);
+        if (MemberRoles.INSTANCE.isLowMemory() || !server.flatMap(s -> s.getMemberById(userId)).isPresent())
+            return DiscordShard.super.removeRoles(serverId, userId, roleIds);
+
+        List<Role> roles = Arrays.stream(roleIds)
+                .mapToObj(roleId -> server.get().getRoleById(roleId))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+
+        return api.getUserById(userId)
+                .thenCompose(user -> JimMetrics.rest(
+                        "updateMemberRoles",
+                        () -> server.get().createUpdater().removeRolesFromUser(user, roles).update()
+                ));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteRole(long serverId, long roleId) {
+        return role(serverId, roleId)
+                .map(role -> JimMetrics.rest("role.delete", role::delete))
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    private Optional<Role> role(long serverId, long roleId) {
+        return api.get().getServerById(serverId).flatMap(server -> server.getRoleById(roleId));
+    }
+}
@@ -0,0 +1,213 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/**
+ * Append-only write-ahead journal of JSON records, one record per line.
+ * <p>
+ * Records are buffered and synced to disk in batches every sync interval, so appending never waits for the disk.
+ * A compaction {@linkplain #rotate() rotates} the journal away before the snapshot is written, and
+ * {@linkplain #commitRotation() drops} the rotated part once the snapshot is safely stored. Replaying therefore
+ * must be idempotent: a record may already be contained in the snapshot it is replayed onto.
+ * <p>
+ * A record torn by a crash is cut off when the journal is opened again, so the records appended afterwards start on a
+ * line of their own.
+ */
+public class AssignmentJournal implements Closeable {
+    private static final Logger log = LoggerUtil.getLogger(AssignmentJournal.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final File file;
+    private final File rotated;
+    private final long syncInterval;
+    private final TimeUnit syncUnit;
+
+    private ScheduledExecutorService syncer;
+    private FileChannel channel;
+    private OutputStream out;
+    private volatile boolean dirty = false;
+
+    public AssignmentJournal(File file, long syncInterval, TimeUnit syncUnit) {
+        this.file = file;
+        this.rotated = new File(file.getPath() + ".1");
+        this.syncInterval = syncInterval;
+        this.syncUnit = syncUnit;
+    }
+
+    public synchronized void open() throws IOException {
+        if (channel != null) return;
+
+        openChannel();
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jim - Journal Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, syncUnit);
+    }
+
+    public void replay(Consumer<JsonNode> consumer) throws IOException {
+        int records = replay(rotated, consumer) + replay(file, consumer);
+
+        if (records > 0)
+            log.info("Replayed [" + records + "] journal records");
+    }
+
+    public synchronized void append(JsonNode record) {
+        if (out == null) {
+            log.error("Dropped journal record, the journal is not open: " + record);
+            return;
+        }
+
+        try {
+            out.write(MAPPER.writeValueAsBytes(record));
+            out.write('\n');
+            dirty = true;
+        } catch (IOException e) {
+            log.error("Could not append journal record: " + record, e);
+        }
+    }
+
+    public synchronized void rotate() throws IOException {
+        if (channel == null) return;
+
+        out.flush();
+        channel.force(false);
+        out.close();
+
+        if (rotated.exists()) {
+            // a previous compaction did not finish; keep everything it would have covered
+            truncateTornRecord(rotated);
+            Files.write(rotated.toPath(), Files.readAllBytes(file.toPath()), StandardOpenOption.APPEND);
+            Files.delete(file.toPath());
+        } else Files.move(file.toPath(), rotated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        openChannel();
+    }
+
+    public void commitRotation() throws IOException {
+        Files.deleteIfExists(rotated.toPath());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+
+        syncer.shutdown();
+        out.flush();
+        channel.force(false);
+        out.close();
+
+        channel = null;
+        out = null;
+    }
+
+    private void openChannel() throws IOException {
+        truncateTornRecord(file);
+        FileOutputStream stream = new FileOutputStream(file, true);
+
+        channel = stream.getChannel();
+        out = new BufferedOutputStream(stream, 64 * 1024);
+    }
+
+    private void sync() {
+        if (!dirty) return;
+
+        try {
+            FileChannel channel;
+            synchronized (this) {
+                if (this.channel == null) return;
+
+                dirty = false;
+                out.flush();
+                channel = this.channel;
+            }
+            channel.force(false);
+        } catch (ClosedChannelException ignored) {
+            // rotated or closed in between, both force the channel themselves
+        } catch (IOException e) {
+            log.error("Could not sync journal " + file, e);
+        }
+    }
+
+    /*
+    Truncates the file after its last complete line.
+     */
+    private static void truncateTornRecord(File file) throws IOException {
+        if (!file.exists()) return;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end = size;
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            scan:
+            while (end > 0) {
+                int length = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining())
+                    if (channel.read(buffer, end - length + buffer.position()) < 0) break;
+
+                for (int i = length - 1; i >= 0; i--, end--)
+                    if (buffer.get(i) == '\n') break scan;
+            }
+
+            if (end < size) {
+                log.warn("Cut off torn record at the end of journal " + file);
+                channel.truncate(end);
+            }
+        }
+    }
+
+    private static int replay(File file, Consumer<JsonNode> consumer) throws IOException {
+        if (!file.exists()) return 0;
+
+        int records = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                JsonNode record;
+                try {
+                    record = MAPPER.readTree(line);
+                } catch (JsonProcessingException e) {
+                    log.warn("Ignoring torn record at the end of journal " + file);
+                    break;
+                }
+
+                consumer.accept(record);
+                records++;
+            }
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,187 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+The snapshot and the journal of one AssignmentTable, stored in one directory.
+Needs no Discord connection, so loading and storing can be benchmarked offline. Always loads everything.
+ */
+public class AssignmentPersistence implements AssignmentStore {
+    private static final Logger log = LoggerUtil.getLogger(AssignmentPersistence.class);
+
+    private final File directory;
+    private final SnapshotFormat format;
+    private final File snapshot;
+    private final File journalFile;
+    private final AssignmentJournal journal;
+    private volatile boolean closed = false;
+
+    public AssignmentPersistence(File directory, SnapshotFormat format, long syncInterval, TimeUnit syncUnit) {
+        this.directory = directory;
+        this.format = format;
+        this.snapshot = new File(directory, format.getFileName());
+        this.journalFile = new File(directory, "timed.journal");
+        this.journal = new AssignmentJournal(journalFile, syncInterval, syncUnit);
+    }
+
+    /*
+    Returns whether there is a snapshot in any format or a journal in the directory.
+     */
+    @Override
+    public boolean hasData() {
+        for (File file : files())
+            if (file.length() > 0) return true;
+
+        return false;
+    }
+
+    /*
+    Loads the snapshot and the journal on top of it into the table and opens the journal for appending.
+     */
+    public int load(AssignmentTable table) throws IOException {
+        migrate();
+
+        int count = format.read(snapshot, (serverId, userId, roleId, removeAt, flags) -> table.insert(
+                serverId,
+                userId,
+                roleId,
+                removeAt,
+                (flags & AssignmentTable.TEMPORARY_ROLE) != 0
+        ));
+
+        journal.open();
+        journal.replay(record -> apply(table, record));
+
+        return count;
+    }
+
+    @Override
+    public int load(AssignmentTable table, long horizon) throws IOException {
+        return load(table);
+    }
+
+    @Override
+    public void record(String operation, TemporaryAssignment assignment) {
+        journal.append(assignment.toJournalRecord(operation));
+    }
+
+    /*
+    Journals assignments of the same role and removal time to several users as one record.
+     */
+    @Override
+    public void recordBatch(List<TemporaryAssignment> assignments) {
+        if (assignments.isEmpty()) return;
+
+        ObjectNode record = assignments.get(0).toJournalRecord("addBatch");
+        record.remove("userid");
+        for (TemporaryAssignment assignment : assignments)
+            record.withArray("userids").add(assignment.getUserId());
+
+        journal.append(record);
+    }
+
+    /*
+    Compacts the journal into a new snapshot.
+    Everything journaled before the rotation is contained in the snapshot.
+    Once closed, the snapshot and the journal are left alone, another process may have taken them over.
+     */
+    @Override
+    public long store(AssignmentTable table) throws IOException {
+        if (closed) throw new IOException("The store in " + directory + " is closed");
+
+        journal.rotate();
+
+        long bytes = format.write(snapshot, table);
+
+        journal.commitRotation();
+        return bytes;
+    }
+
+    /*
+    Everything journaled before is dropped with the rotation, so this is the same as storing.
+     */
+    @Override
+    public long replace(AssignmentTable table) throws IOException {
+        return store(table);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        journal.close();
+    }
+
+    @Override
+    public void retire() throws IOException {
+        close();
+
+        for (File file : files())
+            if (file.exists())
+                Files.move(file.toPath(), new File(file.getPath() + ".migrated").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File[] files() {
+        SnapshotFormat[] formats = SnapshotFormat.values();
+        File[] files = new File[formats.length + 2];
+
+        for (int i = 0; i < formats.length; i++) files[i] = new File(directory, formats[i].getFileName());
+        files[formats.length] = journalFile;
+        files[formats.length + 1] = new File(journalFile.getPath() + ".1");
+
+        return files;
+    }
+
+    /*
+    Converts a snapshot of another format if there is none in the selected format yet.
+    The old snapshot is kept as it is.
+     */
+    private void migrate() throws IOException {
+        if (snapshot.length() > 0) return;
+
+        for (SnapshotFormat other : SnapshotFormat.values()) {
+            File source = new File(directory, other.getFileName());
+            if (other == format || source.length() == 0) continue;
+
+            int count = SnapshotConverter.convert(other, source, format, snapshot);
+            log.info("Converted [" + count + "] assignments from the " + other + " snapshot to " + format);
+            return;
+        }
+    }
+
+    static void apply(AssignmentTable table, JsonNode record) {
+        long serverId = record.get("serverid").asLong();
+        long roleId = record.get("roleid").asLong();
+        long removeAt = Instant.parse(record.get("removeat").asText()).getEpochSecond();
+        boolean temporaryRole = record.path("temporaryrole").asBoolean(false);
+
+        switch (record.path("op").asText()) {
+            case "add":
+                table.insert(serverId, record.get("userid").asLong(), roleId, removeAt, temporaryRole);
+                break;
+            case "addBatch":
+                for (JsonNode userId : record.get("userids"))
+                    table.insert(serverId, userId.asLong(), roleId, removeAt, temporaryRole);
+                break;
+            case "remove":
+                table.free(table.find(serverId, record.get("userid").asLong(), roleId, removeAt));
+                break;
+            default:
+                log.warn("Skipped unknown journal record: " + record);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+
+/*
+Keeps the assignments of one partition between restarts.
+
+A store may keep assignments that are not due for a long time out of memory: only the assignments due until its
+horizon are loaded into the table, the later ones stay in the store until the horizon is advanced past them.
+Stores that always load everything have an unlimited horizon.
+ */
+public interface AssignmentStore extends Closeable {
+    /*
+    Returns whether there is anything to load.
+     */
+    boolean hasData();
+
+    /*
+    Loads the assignments due until [horizon] into the table and returns their number.
+    Stores without a horizon load everything.
+     */
+    int load(AssignmentTable table, long horizon) throws IOException;
+
+    /*
+    Moves the horizon to [horizon] and loads the assignments due until then, [loaded] is called for each new handle.
+     */
+    default int advance(AssignmentTable table, long horizon, LongConsumer loaded) throws IOException {
+        return 0;
+    }
+
+    /*
+    Assignments due after the horizon are recorded into the store only, they are not put into the table.
+     */
+    default long getHorizon() {
+        return Long.MAX_VALUE;
+    }
+
+    /*
+    Returns whether the store keeps assignments of the role beyond the horizon.
+     */
+    default boolean isDeferred(long roleId) {
+        return false;
+    }
+
+    /*
+    Drops the assignments of the role to the user that are kept beyond the horizon; returns how many were dropped.
+     */
+    default int cancelDeferred(long serverId, long userId, long roleId) {
+        return 0;
+    }
+
+    /*
+    Returns the number of assignments of the server that are kept beyond the horizon.
+     */
+    default int countDeferred(long serverId) {
+        return 0;
+    }
+
+    /*
+    Visits up to [limit] of the assignments of the server, or of one user if [userId] is not 0, that are kept beyond
+    the horizon, ordered by their removal time and starting at the [offset]th one.
+     */
+    default void findDeferred(long serverId, long userId, int offset, int limit, AssignmentTable.Visitor visitor) {
+    }
+
+    void record(String operation, TemporaryAssignment assignment);
+
+    /*
+    Records assignments of the same role and removal time to several users at once.
+     */
+    void recordBatch(List<TemporaryAssignment> assignments);
+
+    /*
+    Makes everything recorded so far durable; returns the size of the store in bytes.
+     */
+    long store(AssignmentTable table) throws IOException;
+
+    /*
+    Replaces everything in the store with the table, for moving assignments between stores.
+     */
+    long replace(AssignmentTable table) throws IOException;
+
+    /*
+    Closes the store and renames its files with a .migrated suffix, so they are never loaded again.
+     */
+    void retire() throws IOException;
+
+    @FunctionalInterface
+    interface Factory {
+        AssignmentStore open(File directory);
+    }
+}
@@ -0,0 +1,196 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import de.kaleidox.jim.AssignmentTable;
+
+/*
+Versioned binary snapshot format with fixed-width records, grouped by server.
+
+Header, 32 bytes:    magic "JIMS", version (short), reserved (short), server count (int), reserved (int),
+                     record count (long), offset of the server index (long)
+Records, 25 bytes:   userId (long), roleId (long), removeAt epoch seconds (long), flags (byte)
+Server index, 24 bytes per server, after the records:
+                     serverId (long), index of the first record (long), record count (int), reserved (int)
+
+Loading maps the records with FileChannel#map instead of parsing text, in as few mappings as the size of a mapping
+allows, however many servers there are.
+ */
+public final class BinarySnapshot {
+    public static final int MAGIC = 0x4A494D53;
+    public static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 25;
+    static final int INDEX_ENTRY_SIZE = 24;
+    /* records per mapping, about a gigabyte */
+    static final int CHUNK_RECORDS = (1 << 30) / RECORD_SIZE;
+
+    private BinarySnapshot() {
+    }
+
+    public static int read(File file, AssignmentTable.Visitor sink) throws IOException {
+        if (file.length() == 0) return 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+            if (header.getInt(0) != MAGIC)
+                throw new IOException("Not a binary assignment snapshot: " + file);
+            if (header.getShort(4) != VERSION)
+                throw new IOException("Unsupported snapshot version [" + header.getShort(4) + "]: " + file);
+
+            int servers = header.getInt(8);
+            long total = header.getLong(16);
+            long indexOffset = header.getLong(24);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) servers * INDEX_ENTRY_SIZE);
+
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((total + CHUNK_RECORDS - 1) / CHUNK_RECORDS)];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c * CHUNK_RECORDS;
+                chunks[c] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * RECORD_SIZE,
+                        Math.min(CHUNK_RECORDS, total - first) * RECORD_SIZE
+                );
+            }
+
+            int count = 0;
+            for (int i = 0; i < servers; i++) {
+                int entry = i * INDEX_ENTRY_SIZE;
+                long serverId = index.getLong(entry);
+                long first = index.getLong(entry + 8);
+                int records = index.getInt(entry + 16);
+
+                for (long record = first; record < first + records; record++) {
+                    MappedByteBuffer region = chunks[(int) (record / CHUNK_RECORDS)];
+                    int offset = (int) (record % CHUNK_RECORDS) * RECORD_SIZE;
+                    sink.visit(
+                            serverId,
+                            region.getLong(offset),
+                            region.getLong(offset + 8),
+                            region.getLong(offset + 16),
+                            region.get(offset + 24)
+                    );
+                }
+                count += records;
+            }
+
+            return count;
+        }
+    }
+
+    public static long write(File file, AssignmentTable table) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RecordWriter writer;
+
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.write(new byte[HEADER_SIZE]);
+
+            writer = new RecordWriter(out);
+            try {
+                ServerRows.forEachGrouped(table, writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            long indexOffset = HEADER_SIZE + writer.records * RECORD_SIZE;
+            for (int i = 0; i < writer.servers; i++) {
+                out.writeLong(writer.serverIds[i]);
+                out.writeLong(writer.firstRecords[i]);
+                out.writeInt(writer.recordCounts[i]);
+                out.writeInt(0);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) 0)
+                    .putInt(writer.servers)
+                    .putInt(0)
+                    .putLong(writer.records)
+                    .putLong(indexOffset);
+            header.flip();
+            stream.getChannel().write(header, 0);
+
+            stream.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return file.length();
+    }
+
+    private static class RecordWriter implements AssignmentTable.GroupVisitor {
+        private final DataOutputStream out;
+        private long[] serverIds = new long[16];
+        private long[] firstRecords = new long[16];
+        private int[] recordCounts = new int[16];
+        private int servers = 0;
+        private long records = 0;
+        private long userId;
+
+        private RecordWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void server(long serverId) {
+            if (servers == serverIds.length) {
+                serverIds = Arrays.copyOf(serverIds, servers << 1);
+                firstRecords = Arrays.copyOf(firstRecords, servers << 1);
+                recordCounts = Arrays.copyOf(recordCounts, servers << 1);
+            }
+
+            serverIds[servers] = serverId;
+            firstRecords[servers] = records;
+            recordCounts[servers] = 0;
+        }
+
+        @Override
+        public void user(long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void assignment(long roleId, long removeAt, byte flags) {
+            // finished, about to be freed by the completing removal
+            if ((flags & AssignmentTable.CLEANUPABLE) != 0) return;
+
+            try {
+                out.writeLong(userId);
+                out.writeLong(roleId);
+                out.writeLong(removeAt);
+                out.writeByte(flags & AssignmentTable.TEMPORARY_ROLE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            recordCounts[servers]++;
+            records++;
+        }
+
+        @Override
+        public void endUser() {
+        }
+
+        @Override
+        public void endServer() {
+            if (recordCounts[servers] > 0) servers++;
+        }
+    }
+}
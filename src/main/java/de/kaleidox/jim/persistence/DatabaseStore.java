@@ -0,0 +1,491 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+import de.kaleidox.util.collections.LongCounter;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+The assignments of one partition in an embedded H2 database "timed.mv.db", indexed by removal time, by server and
+user, and by role. Only the assignments due until the horizon are loaded; the others are read once the horizon is
+advanced past them, so memory depends on the assignments that are due soon, not on all of them.
+
+Writes are queued and committed in one transaction every sync interval, like the journal of the snapshot store.
+A snapshot and journal found in the directory are imported into an empty database and then retired.
+ */
+public class DatabaseStore implements AssignmentStore {
+    private static final Logger log = LoggerUtil.getLogger(DatabaseStore.class);
+    private static final String COLUMNS = "serverid, userid, roleid, removeat, temporaryrole";
+    private static final int MERGE = 0;
+    private static final int DELETE = 1;
+    private static final int CANCEL = 2;
+    private static final String CANCEL_SQL =
+            "DELETE FROM assignments WHERE serverid = ? AND userid = ? AND roleid = ? AND removeat > ?";
+
+    private final File directory;
+    private final File file;
+    private final long syncInterval;
+    private final TimeUnit syncUnit;
+    /* Counts the assignments beyond the horizon per role; may count too many, never too few */
+    private final LongCounter deferred = new LongCounter();
+    private final List<Write> pending = new ArrayList<>();
+
+    private Connection connection;
+    private ScheduledExecutorService syncer;
+    private long horizon = Long.MAX_VALUE;
+
+    public DatabaseStore(File directory, long syncInterval, TimeUnit syncUnit) {
+        this.directory = directory;
+        this.file = new File(directory, "timed.mv.db");
+        this.syncInterval = syncInterval;
+        this.syncUnit = syncUnit;
+    }
+
+    public DatabaseStore(File directory) {
+        this(directory, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean hasData() {
+        return file.length() > 0 || legacy().hasData();
+    }
+
+    @Override
+    public synchronized int load(AssignmentTable table, long horizon) throws IOException {
+        open();
+        importLegacy();
+
+        this.horizon = horizon;
+        int count = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT " + COLUMNS + " FROM assignments WHERE removeat <= ?")) {
+            select.setLong(1, horizon);
+
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    insert(table, rows);
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not load the assignments from " + file, e);
+        }
+        recountDeferred();
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jim - Store Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, syncUnit);
+
+        return count;
+    }
+
+    @Override
+    public synchronized int advance(AssignmentTable table, long horizon, LongConsumer loaded) throws IOException {
+        if (horizon <= this.horizon) return 0;
+
+        flush();
+        int count = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT " + COLUMNS + " FROM assignments WHERE removeat > ? AND removeat <= ?")) {
+            select.setLong(1, this.horizon);
+            select.setLong(2, horizon);
+
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    long handle = insert(table, rows);
+                    if (handle != AssignmentTable.NONE) loaded.accept(handle);
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not load the assignments due until " + horizon + " from " + file, e);
+        }
+
+        this.horizon = horizon;
+        recountDeferred();
+        return count;
+    }
+
+    @Override
+    public synchronized long getHorizon() {
+        return horizon;
+    }
+
+    /*
+    Asks the database only if the role might have assignments beyond the horizon.
+     */
+    @Override
+    public synchronized boolean isDeferred(long roleId) {
+        if (!deferred.contains(roleId)) return false;
+
+        try {
+            flush();
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT 1 FROM assignments WHERE roleid = ? AND removeat > ? LIMIT 1")) {
+                select.setLong(1, roleId);
+                select.setLong(2, horizon);
+
+                try (ResultSet rows = select.executeQuery()) {
+                    if (rows.next()) return true;
+                }
+            }
+        } catch (IOException | SQLException e) {
+            log.error("Could not look up the assignments of role [" + roleId + "], assuming there are some", e);
+            return true;
+        }
+
+        deferred.remove(roleId);
+        return false;
+    }
+
+    /*
+    Deletes right away, so the caller knows whether there was anything to cancel; on failure the deletion is queued.
+     */
+    @Override
+    public synchronized int cancelDeferred(long serverId, long userId, long roleId) {
+        if (!deferred.contains(roleId) || connection == null) return 0;
+
+        try {
+            flush();
+            try (PreparedStatement cancel = connection.prepareStatement(CANCEL_SQL)) {
+                cancel.setLong(1, serverId);
+                cancel.setLong(2, userId);
+                cancel.setLong(3, roleId);
+                cancel.setLong(4, horizon);
+
+                int rows = cancel.executeUpdate();
+                connection.commit();
+                deferred.add(roleId, -rows);
+                return rows;
+            }
+        } catch (IOException | SQLException e) {
+            rollback();
+            log.error("Could not cancel the assignments of role [" + roleId + "] to user [" + userId + "] beyond " +
+                    "the horizon, retrying with the next sync", e);
+            pending.add(new Write(CANCEL, serverId, userId, roleId, horizon, false));
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized int countDeferred(long serverId) {
+        if (connection == null) return 0;
+
+        try {
+            flush();
+            try (PreparedStatement count = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM assignments WHERE serverid = ? AND removeat > ?")) {
+                count.setLong(1, serverId);
+                count.setLong(2, horizon);
+
+                try (ResultSet rows = count.executeQuery()) {
+                    return rows.next() ? rows.getInt(1) : 0;
+                }
+            }
+        } catch (IOException | SQLException e) {
+            log.error("Could not count the assignments of server [" + serverId + "] beyond the horizon", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized void findDeferred(long serverId, long userId, int offset, int limit,
+                                          AssignmentTable.Visitor visitor) {
+        if (connection == null || limit <= 0) return;
+
+        try {
+            flush();
+            try (PreparedStatement select = connection.prepareStatement("SELECT " + COLUMNS + " FROM assignments " +
+                    "WHERE serverid = ? AND removeat > ?" + (userId != 0 ? " AND userid = ?" : "") +
+                    " ORDER BY removeat, userid, roleid LIMIT ? OFFSET ?")) {
+                int column = 1;
+                select.setLong(column++, serverId);
+                select.setLong(column++, horizon);
+                if (userId != 0) select.setLong(column++, userId);
+                select.setInt(column++, limit);
+                select.setInt(column, offset);
+
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next())
+                        visitor.visit(rows.getLong(1), rows.getLong(2), rows.getLong(3), rows.getLong(4),
+                                rows.getBoolean(5) ? AssignmentTable.TEMPORARY_ROLE : 0);
+                }
+            }
+        } catch (IOException | SQLException e) {
+            log.error("Could not look up the assignments of server [" + serverId + "] beyond the horizon", e);
+        }
+    }
+
+    @Override
+    public synchronized void record(String operation, TemporaryAssignment assignment) {
+        switch (operation) {
+            case "add":
+                pending.add(new Write(MERGE, assignment));
+                if (assignment.getRemoveAtEpochSecond() > horizon) deferred.increment(assignment.getRoleid());
+                break;
+            case "remove":
+                pending.add(new Write(DELETE, assignment));
+                break;
+            default:
+                log.warn("Skipped unknown operation [" + operation + "] on " + assignment);
+        }
+    }
+
+    @Override
+    public synchronized void recordBatch(List<TemporaryAssignment> assignments) {
+        for (TemporaryAssignment assignment : assignments) record("add", assignment);
+    }
+
+    /*
+    Everything recorded is written to the database already, the table does not need to be written again.
+     */
+    @Override
+    public synchronized long store(AssignmentTable table) throws IOException {
+        if (connection == null) throw new IOException("The store " + file + " is closed");
+
+        flush();
+
+        return file.length();
+    }
+
+    @Override
+    public synchronized long replace(AssignmentTable table) throws IOException {
+        flush();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM assignments");
+            merge(table);
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Could not replace the assignments in " + file, e);
+        }
+        recountDeferred();
+
+        return file.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection == null) return;
+
+        syncer.shutdown();
+        flush();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Could not close " + file, e);
+        } finally {
+            connection = null;
+        }
+    }
+
+    @Override
+    public synchronized void retire() throws IOException {
+        close();
+
+        if (file.exists())
+            Files.move(file.toPath(), new File(file.getPath() + ".migrated").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void open() throws IOException {
+        if (connection != null) return;
+
+        try {
+            // the store is closed by the shutdown of the bot, not by the one of H2
+            connection = DriverManager.getConnection("jdbc:h2:" + new File(directory, "timed").getAbsolutePath()
+                    + ";DB_CLOSE_ON_EXIT=FALSE");
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS assignments (" +
+                        "serverid BIGINT NOT NULL, " +
+                        "userid BIGINT NOT NULL, " +
+                        "roleid BIGINT NOT NULL, " +
+                        "removeat BIGINT NOT NULL, " +
+                        "temporaryrole BOOLEAN NOT NULL, " +
+                        "PRIMARY KEY (serverid, userid, roleid, removeat))");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS assignments_removeat ON assignments (removeat)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS assignments_role ON assignments (roleid, removeat)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS assignments_server "
+                        + "ON assignments (serverid, removeat)");
+            }
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new IOException("Could not open " + file, e);
+        }
+    }
+
+    /*
+    Moves the snapshot and journal of the directory into the database, if it is still empty.
+     */
+    private void importLegacy() throws IOException {
+        AssignmentPersistence legacy = legacy();
+        if (!legacy.hasData()) return;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM assignments")) {
+            if (rows.next() && rows.getLong(1) > 0) return;
+        } catch (SQLException e) {
+            throw new IOException("Could not count the assignments in " + file, e);
+        }
+
+        AssignmentTable table = new AssignmentTable();
+        legacy.load(table);
+        replace(table);
+        legacy.retire();
+
+        log.info("Imported [" + table.size() + "] assignments from the snapshot into " + file);
+    }
+
+    private AssignmentPersistence legacy() {
+        SnapshotFormat format = SnapshotFormat.JSON;
+        for (SnapshotFormat other : SnapshotFormat.values())
+            if (new File(directory, other.getFileName()).length() > 0) format = other;
+
+        return new AssignmentPersistence(directory, format, syncInterval, syncUnit);
+    }
+
+    private void recountDeferred() throws IOException {
+        deferred.clear();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT roleid, COUNT(*) FROM assignments WHERE removeat > ? GROUP BY roleid")) {
+            select.setLong(1, horizon);
+
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) deferred.add(rows.getLong(1), rows.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not count the assignments beyond the horizon in " + file, e);
+        }
+    }
+
+    private void sync() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("Could not write to the assignment database, retrying", e);
+        }
+    }
+
+    /*
+    Commits all pending writes in one transaction; on failure they stay pending.
+     */
+    private synchronized void flush() throws IOException {
+        if (pending.isEmpty() || connection == null) return;
+
+        try (PreparedStatement merge = connection.prepareStatement(
+                "MERGE INTO assignments (" + COLUMNS + ") KEY (serverid, userid, roleid, removeat) " +
+                        "VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM assignments WHERE serverid = ? AND userid = ? AND roleid = ? AND removeat = ?");
+             PreparedStatement cancel = connection.prepareStatement(CANCEL_SQL)) {
+
+            for (Write write : pending) {
+                PreparedStatement statement = write.kind == MERGE ? merge : write.kind == DELETE ? delete : cancel;
+                statement.setLong(1, write.serverId);
+                statement.setLong(2, write.userId);
+                statement.setLong(3, write.roleId);
+                statement.setLong(4, write.removeAt);
+                if (write.kind == MERGE) statement.setBoolean(5, write.temporaryRole);
+
+                int rows = statement.executeUpdate();
+                if (write.kind == CANCEL) deferred.add(write.roleId, -rows);
+            }
+
+            connection.commit();
+            pending.clear();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Could not write [" + pending.size() + "] changes to " + file, e);
+        }
+    }
+
+    private void merge(AssignmentTable table) throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement(
+                "MERGE INTO assignments (" + COLUMNS + ") KEY (serverid, userid, roleid, removeat) " +
+                        "VALUES (?, ?, ?, ?, ?)")) {
+            SQLException[] failure = new SQLException[1];
+
+            table.forEach((serverId, userId, roleId, removeAt, flags) -> {
+                if (failure[0] != null || (flags & AssignmentTable.CLEANUPABLE) != 0) return;
+
+                try {
+                    merge.setLong(1, serverId);
+                    merge.setLong(2, userId);
+                    merge.setLong(3, roleId);
+                    merge.setLong(4, removeAt);
+                    merge.setBoolean(5, (flags & AssignmentTable.TEMPORARY_ROLE) != 0);
+                    merge.addBatch();
+                } catch (SQLException e) {
+                    failure[0] = e;
+                }
+            });
+
+            if (failure[0] != null) throw failure[0];
+            merge.executeBatch();
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.error("Could not roll back the transaction on " + file, e);
+        }
+    }
+
+    private static long insert(AssignmentTable table, ResultSet row) throws SQLException {
+        return table.insert(row.getLong(1), row.getLong(2), row.getLong(3), row.getLong(4), row.getBoolean(5));
+    }
+
+    private static final class Write {
+        private final int kind;
+        private final long serverId;
+        private final long userId;
+        private final long roleId;
+        private final long removeAt;
+        private final boolean temporaryRole;
+
+        private Write(int kind, long serverId, long userId, long roleId, long removeAt, boolean temporaryRole) {
+            this.kind = kind;
+            this.serverId = serverId;
+            this.userId = userId;
+            this.roleId = roleId;
+            this.removeAt = removeAt;
+            this.temporaryRole = temporaryRole;
+        }
+
+        private Write(int kind, TemporaryAssignment assignment) {
+            this(
+                    kind,
+                    assignment.getServerId(),
+                    assignment.getUserId(),
+                    assignment.getRoleid(),
+                    assignment.getRemoveAtEpochSecond(),
+                    assignment.isTemporaryRole()
+            );
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+
+import de.kaleidox.jim.AssignmentTable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+Streams the timed.json snapshot format:
+{"<serverId>": {"<userId>": {"assignments": [{"userid", "removeat", "roleid", "temporaryrole"}]}}}
+
+Neither direction builds a tree, so memory stays flat regardless of the number of assignments.
+Writing goes to a temporary file that atomically replaces the snapshot once it is synced, and takes the table lock
+only while the rows of one server are copied out.
+ */
+public final class JsonSnapshot {
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private JsonSnapshot() {
+    }
+
+    public static int read(File file, AssignmentTable.Visitor sink) throws IOException {
+        if (file.length() == 0) return 0;
+
+        int count = 0;
+        try (JsonParser parser = FACTORY.createParser(file)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                long serverId = Long.parseLong(parser.getCurrentName());
+                expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        if (!"assignments".equals(parser.getCurrentName())) {
+                            parser.nextToken();
+                            parser.skipChildren();
+                            continue;
+                        }
+
+                        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            readAssignment(parser, serverId, sink);
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    public static long write(File file, AssignmentTable table) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+                generator.writeStartObject();
+                ServerRows.forEachGrouped(table, new SnapshotWriter(generator));
+                generator.writeEndObject();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            out.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return file.length();
+    }
+
+    private static void readAssignment(JsonParser parser, long serverId, AssignmentTable.Visitor sink) throws IOException {
+        long userId = 0, roleId = 0, removeAt = 0;
+        boolean temporaryRole = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "userid":
+                    userId = parser.getValueAsLong();
+                    break;
+                case "roleid":
+                    roleId = parser.getValueAsLong();
+                    break;
+                case "removeat":
+                    removeAt = Instant.parse(parser.getText()).getEpochSecond();
+                    break;
+                case "temporaryrole":
+                    temporaryRole = parser.getValueAsBoolean();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        sink.visit(serverId, userId, roleId, removeAt, temporaryRole ? AssignmentTable.TEMPORARY_ROLE : 0);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected)
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+    }
+
+    private static class SnapshotWriter implements AssignmentTable.GroupVisitor {
+        private final JsonGenerator generator;
+        private long serverId;
+        private long userId;
+        private boolean serverOpen = false;
+        private boolean userOpen = false;
+
+        private SnapshotWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void server(long serverId) {
+            this.serverId = serverId;
+        }
+
+        @Override
+        public void user(long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void assignment(long roleId, long removeAt, byte flags) {
+            // finished, about to be freed by the completing removal
+            if ((flags & AssignmentTable.CLEANUPABLE) != 0) return;
+
+            try {
+                if (!serverOpen) {
+                    generator.writeObjectFieldStart(Long.toString(serverId));
+                    serverOpen = true;
+                }
+                if (!userOpen) {
+                    generator.writeObjectFieldStart(Long.toString(userId));
+                    generator.writeArrayFieldStart("assignments");
+                    userOpen = true;
+                }
+
+                generator.writeStartObject();
+                generator.writeNumberField("userid", userId);
+                generator.writeStringField("removeat", Instant.ofEpochSecond(removeAt).toString());
+                generator.writeNumberField("roleid", roleId);
+                generator.writeBooleanField("temporaryrole", (flags & AssignmentTable.TEMPORARY_ROLE) != 0);
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void endUser() {
+            if (!userOpen) return;
+
+            try {
+                generator.writeEndArray();
+                generator.writeEndObject();
+                userOpen = false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void endServer() {
+            if (!serverOpen) return;
+
+            try {
+                generator.writeEndObject();
+                serverOpen = false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+One snapshot file per server in the "servers" directory, next to one journal for all of them.
+Every record marks its server as dirty, and storing only writes the files of the dirty servers, so a busy server
+does not cause the files of all the others to be written again. The files are read in parallel on loading.
+
+A shared snapshot and journal found in the directory are split into server files on the first load, then retired.
+ */
+public class ServerFileStore implements AssignmentStore {
+    private static final Logger log = LoggerUtil.getLogger(ServerFileStore.class);
+
+    private final File directory;
+    private final File servers;
+    private final SnapshotFormat format;
+    private final AssignmentJournal journal;
+    private final long syncInterval;
+    private final TimeUnit syncUnit;
+    private Set<Long> dirty = new HashSet<>();
+    private boolean closed = false;
+
+    public ServerFileStore(File directory, SnapshotFormat format, long syncInterval, TimeUnit syncUnit) {
+        this.directory = directory;
+        this.servers = new File(directory, "servers");
+        this.format = format;
+        this.journal = new AssignmentJournal(new File(servers, "timed.journal"), syncInterval, syncUnit);
+        this.syncInterval = syncInterval;
+        this.syncUnit = syncUnit;
+    }
+
+    @Override
+    public boolean hasData() {
+        return snapshots().length > 0 || new File(servers, "timed.journal").length() > 0 || legacy().hasData();
+    }
+
+    /*
+    Reads the server files in parallel, then replays the journal on top of them.
+     */
+    @Override
+    public int load(AssignmentTable table, long horizon) throws IOException {
+        if (!servers.isDirectory() && !servers.mkdirs())
+            throw new IOException("Could not create directory " + servers);
+
+        File[] files = snapshots();
+        int count;
+        try {
+            // parallel streams run on the common fork-join pool
+            count = Arrays.stream(files)
+                    .parallel()
+                    .mapToInt(file -> {
+                        try {
+                            return formatOf(file).read(file, (serverId, userId, roleId, removeAt, flags) -> table
+                                    .insert(serverId, userId, roleId, removeAt,
+                                            (flags & AssignmentTable.TEMPORARY_ROLE) != 0));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Could not read " + file, e);
+                        }
+                    })
+                    .sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        journal.open();
+        journal.replay(record -> {
+            AssignmentPersistence.apply(table, record);
+            markDirty(record.get("serverid").asLong());
+        });
+
+        if (files.length == 0) count += importLegacy(table);
+        return count;
+    }
+
+    @Override
+    public synchronized void record(String operation, TemporaryAssignment assignment) {
+        journal.append(assignment.toJournalRecord(operation));
+        dirty.add(assignment.getServerId());
+    }
+
+    @Override
+    public synchronized void recordBatch(List<TemporaryAssignment> assignments) {
+        if (assignments.isEmpty()) return;
+
+        ObjectNode record = assignments.get(0).toJournalRecord("addBatch");
+        record.remove("userid");
+        for (TemporaryAssignment assignment : assignments)
+            record.withArray("userids").add(assignment.getUserId());
+
+        journal.append(record);
+        dirty.add(assignments.get(0).getServerId());
+    }
+
+    /*
+    Writes the files of the servers that changed since the last time; servers without assignments lose their file.
+    Returns the bytes written. Once closed, the files are left alone, another process may have taken them over.
+     */
+    @Override
+    public long store(AssignmentTable table) throws IOException {
+        Set<Long> changed;
+        synchronized (this) {
+            if (closed) throw new IOException("The store in " + servers + " is closed");
+
+            journal.rotate();
+            changed = dirty;
+            dirty = new HashSet<>();
+        }
+        if (changed.isEmpty()) {
+            journal.commitRotation();
+            return 0;
+        }
+
+        // only the chains of the changed servers are walked, an assignment that is being removed is still stored
+        Map<Long, AssignmentTable> tables = new HashMap<>();
+        for (long serverId : changed) {
+            AssignmentTable server = new AssignmentTable();
+            table.forEachOfServer(serverId, (id, userId, roleId, removeAt, flags) -> {
+                if ((flags & AssignmentTable.CLEANUPABLE) == 0)
+                    server.insert(id, userId, roleId, removeAt, (flags & AssignmentTable.TEMPORARY_ROLE) != 0);
+            });
+            tables.put(serverId, server);
+        }
+
+        long bytes = 0;
+        try {
+            for (Map.Entry<Long, AssignmentTable> server : tables.entrySet()) {
+                for (SnapshotFormat other : SnapshotFormat.values())
+                    if (other != format) Files.deleteIfExists(file(server.getKey(), other).toPath());
+
+                File file = file(server.getKey(), format);
+                if (server.getValue().size() == 0) Files.deleteIfExists(file.toPath());
+                else bytes += format.write(file, server.getValue());
+            }
+        } catch (IOException e) {
+            // written again with the next store, the rotated journal is kept until then
+            synchronized (this) {
+                dirty.addAll(changed);
+            }
+            throw e;
+        }
+
+        journal.commitRotation();
+        log.debug("Wrote the files of [" + changed.size() + "] changed servers");
+        return bytes;
+    }
+
+    @Override
+    public long replace(AssignmentTable table) throws IOException {
+        for (File file : snapshots()) Files.delete(file.toPath());
+
+        table.forEach((serverId, userId, roleId, removeAt, flags) -> markDirty(serverId));
+        return store(table);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        journal.close();
+    }
+
+    @Override
+    public void retire() throws IOException {
+        close();
+
+        File[] files = servers.listFiles();
+        if (files != null) for (File file : files)
+            if (!file.getName().endsWith(".migrated"))
+                Files.move(file.toPath(), new File(file.getPath() + ".migrated").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private synchronized void markDirty(long serverId) {
+        dirty.add(serverId);
+    }
+
+    /*
+    Splits a shared snapshot of the directory into server files.
+     */
+    private int importLegacy(AssignmentTable table) throws IOException {
+        AssignmentPersistence legacy = legacy();
+        if (!legacy.hasData()) return 0;
+
+        int before = table.size();
+        legacy.load(table);
+        table.forEach((serverId, userId, roleId, removeAt, flags) -> markDirty(serverId));
+        store(table);
+        legacy.retire();
+
+        log.info("Split [" + (table.size() - before) + "] assignments of the snapshot into server files");
+        return table.size() - before;
+    }
+
+    private AssignmentPersistence legacy() {
+        SnapshotFormat format = this.format;
+        for (SnapshotFormat other : SnapshotFormat.values())
+            if (new File(directory, other.getFileName()).length() > 0) format = other;
+
+        return new AssignmentPersistence(directory, format, syncInterval, syncUnit);
+    }
+
+    private File[] snapshots() {
+        File[] files = servers.listFiles(file -> {
+            for (SnapshotFormat format : SnapshotFormat.values())
+                if (file.getName().endsWith(extension(format))) return true;
+            return false;
+        });
+
+        return files == null ? new File[0] : files;
+    }
+
+    private File file(long serverId, SnapshotFormat format) {
+        return new File(servers, serverId + extension(format));
+    }
+
+    private static SnapshotFormat formatOf(File file) {
+        for (SnapshotFormat format : SnapshotFormat.values())
+            if (file.getName().endsWith(extension(format))) return format;
+
+        throw new IllegalArgumentException("Not a snapshot: " + file);
+    }
+
+    private static String extension(SnapshotFormat format) {
+        // "timed.bin" -> ".bin"
+        return format.getFileName().substring(format.getFileName().indexOf('.'));
+    }
+}
@@ -0,0 +1,84 @@
+package de.kaleidox.jim.persistence;
+
+import java.util.Arrays;
+
+import de.kaleidox.jim.AssignmentTable;
+
+/*
+Copies the assignments of one server at a time out of the table, so a snapshot holds the table lock only while a
+server is copied and never while it writes. The buffer is reused and grows to the largest server.
+ */
+final class ServerRows implements AssignmentTable.GroupVisitor {
+    private long serverId;
+    private long userId;
+    private long[] userIds = new long[64];
+    private long[] roleIds = new long[64];
+    private long[] removeAts = new long[64];
+    private byte[] flags = new byte[64];
+    private int size = 0;
+
+    private ServerRows() {
+    }
+
+    static void forEachGrouped(AssignmentTable table, AssignmentTable.GroupVisitor visitor) {
+        ServerRows rows = new ServerRows();
+
+        for (long serverId : table.servers()) {
+            rows.size = 0;
+            table.forEachGrouped(serverId, rows);
+
+            // the server may have been emptied since the ids were taken
+            if (rows.size > 0) rows.replay(visitor);
+        }
+    }
+
+    @Override
+    public void server(long serverId) {
+        this.serverId = serverId;
+    }
+
+    @Override
+    public void user(long userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public void assignment(long roleId, long removeAt, byte flags) {
+        if (size == userIds.length) {
+            userIds = Arrays.copyOf(userIds, size << 1);
+            roleIds = Arrays.copyOf(roleIds, size << 1);
+            removeAts = Arrays.copyOf(removeAts, size << 1);
+            this.flags = Arrays.copyOf(this.flags, size << 1);
+        }
+
+        userIds[size] = userId;
+        roleIds[size] = roleId;
+        removeAts[size] = removeAt;
+        this.flags[size] = flags;
+        size++;
+    }
+
+    @Override
+    public void endUser() {
+    }
+
+    @Override
+    public void endServer() {
+    }
+
+    private void replay(AssignmentTable.GroupVisitor visitor) {
+        visitor.server(serverId);
+
+        for (int row = 0; row < size; row++) {
+            // the rows of a user are contiguous
+            if (row == 0 || userIds[row] != userIds[row - 1]) {
+                if (row > 0) visitor.endUser();
+                visitor.user(userIds[row]);
+            }
+            visitor.assignment(roleIds[row], removeAts[row], flags[row]);
+        }
+        visitor.endUser();
+
+        visitor.endServer();
+    }
+}
@@ -0,0 +1,107 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import de.kaleidox.jim.AssignmentPartition;
+import de.kaleidox.jim.AssignmentTable;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/*
+Where the assignments of every shard are stored. With a single shard that is the data directory itself, like
+before sharding; otherwise every shard has its own directory "shard-<shard>-of-<total>" in the data directory.
+Assignments stored for another number of shards are moved over on startup.
+ */
+public class ShardLayout {
+    private static final Logger log = LoggerUtil.getLogger(ShardLayout.class);
+    private static final Pattern SHARD_DIRECTORY = Pattern.compile("shard-\\d+-of-\\d+");
+
+    private final File dataDirectory;
+    private final AssignmentStore.Factory stores;
+    private final int totalShards;
+
+    public ShardLayout(File dataDirectory, AssignmentStore.Factory stores, int totalShards) {
+        this.dataDirectory = dataDirectory;
+        this.stores = stores;
+        this.totalShards = totalShards;
+    }
+
+    public ShardLayout(File dataDirectory, SnapshotFormat format, int totalShards) {
+        this(
+                dataDirectory,
+                directory -> new AssignmentPersistence(directory, format, 50, TimeUnit.MILLISECONDS),
+                totalShards
+        );
+    }
+
+    public File directory(int shard) {
+        if (totalShards == 1) return dataDirectory;
+
+        return new File(dataDirectory, "shard-" + shard + "-of-" + totalShards);
+    }
+
+    public AssignmentStore open(int shard) {
+        return stores.open(directory(shard));
+    }
+
+    /*
+    Moves the assignments of any other layout into this one, unless every shard of this layout holds assignments
+    already. The old files are kept with a .migrated suffix. Returns the number of moved assignments.
+     */
+    public int repartition() throws IOException {
+        boolean complete = true;
+        for (int shard = 0; shard < totalShards; shard++)
+            complete &= open(shard).hasData();
+        if (complete) return 0;
+
+        List<File> sources = new ArrayList<>();
+        if (totalShards != 1) sources.add(dataDirectory);
+        File[] directories = dataDirectory.listFiles(file -> file.isDirectory()
+                && SHARD_DIRECTORY.matcher(file.getName()).matches()
+                && !file.getName().endsWith("-of-" + totalShards));
+        if (directories != null) for (File directory : directories) sources.add(directory);
+
+        AssignmentTable[] tables = new AssignmentTable[totalShards];
+        for (int shard = 0; shard < totalShards; shard++) tables[shard] = new AssignmentTable();
+
+        List<AssignmentStore> migrated = new ArrayList<>();
+        int count = 0;
+        for (File source : sources) {
+            AssignmentStore store = stores.open(source);
+            if (!store.hasData()) continue;
+
+            AssignmentTable table = new AssignmentTable();
+            store.load(table, Long.MAX_VALUE);
+            migrated.add(store);
+
+            count += table.size();
+            table.forEach((serverId, userId, roleId, removeAt, flags) -> tables[AssignmentPartition
+                    .shardOf(serverId, totalShards)]
+                    .insert(serverId, userId, roleId, removeAt, (flags & AssignmentTable.TEMPORARY_ROLE) != 0));
+        }
+        if (migrated.isEmpty()) return 0;
+
+        for (int shard = 0; shard < totalShards; shard++) {
+            if (!directory(shard).isDirectory() && !directory(shard).mkdirs())
+                throw new IOException("Could not create directory " + directory(shard));
+
+            AssignmentStore target = open(shard);
+            target.load(new AssignmentTable(), Long.MAX_VALUE);
+            target.replace(tables[shard]);
+            target.close();
+        }
+
+        // only retired once everything is stored, a failed migration is repeated on the next start
+        for (AssignmentStore store : migrated) store.retire();
+
+        log.info("Moved [" + count + "] assignments from [" + migrated.size() + "] old locations to ["
+                + totalShards + "] shards");
+        return count;
+    }
+}
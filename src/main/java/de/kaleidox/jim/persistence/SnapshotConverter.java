@@ -0,0 +1,42 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.kaleidox.jim.AssignmentTable;
+
+/*
+Converts a snapshot between the JSON and the binary format.
+Usage: SnapshotConverter <JSON|BINARY> <source file> <JSON|BINARY> <target file>
+ */
+public final class SnapshotConverter {
+    private SnapshotConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: SnapshotConverter <JSON|BINARY> <source file> <JSON|BINARY> <target file>");
+            System.exit(1);
+        }
+
+        int count = convert(
+                SnapshotFormat.valueOf(args[0].toUpperCase()),
+                new File(args[1]),
+                SnapshotFormat.valueOf(args[2].toUpperCase()),
+                new File(args[3])
+        );
+
+        System.out.println("Converted [" + count + "] assignments from " + args[1] + " to " + args[3]);
+    }
+
+    public static int convert(SnapshotFormat sourceFormat, File source, SnapshotFormat targetFormat, File target)
+            throws IOException {
+        AssignmentTable table = new AssignmentTable();
+
+        int count = sourceFormat.read(source, (serverId, userId, roleId, removeAt, flags) ->
+                table.insert(serverId, userId, roleId, removeAt, (flags & AssignmentTable.TEMPORARY_ROLE) != 0));
+        targetFormat.write(target, table);
+
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package de.kaleidox.jim.persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.kaleidox.jim.AssignmentTable;
+
+public enum SnapshotFormat {
+    JSON("timed.json") {
+        @Override
+        public int read(File file, AssignmentTable.Visitor sink) throws IOException {
+            return JsonSnapshot.read(file, sink);
+        }
+
+        @Override
+        public long write(File file, AssignmentTable table) throws IOException {
+            return JsonSnapshot.write(file, table);
+        }
+    },
+    BINARY("timed.bin") {
+        @Override
+        public int read(File file, AssignmentTable.Visitor sink) throws IOException {
+            return BinarySnapshot.read(file, sink);
+        }
+
+        @Override
+        public long write(File file, AssignmentTable table) throws IOException {
+            return BinarySnapshot.write(file, table);
+        }
+    };
+
+    private final String fileName;
+
+    SnapshotFormat(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public abstract int read(File file, AssignmentTable.Visitor sink) throws IOException;
+
+    public abstract long write(File file, AssignmentTable table) throws IOException;
+}
@@ -0,0 +1,144 @@
+package de.kaleidox.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A multiset of primitive {@code long} keys, backed by an open addressing table with linear probing.
+ * The key {@code 0} is reserved as the empty marker; Discord snowflakes are never {@code 0}.
+ * <p>
+ * Not thread safe.
+ */
+public class LongCounter {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size = 0;
+
+    public LongCounter() {
+        this(16);
+    }
+
+    public LongCounter(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public boolean contains(long key) {
+        return count(key) > 0;
+    }
+
+    public int count(long key) {
+        int slot = find(key);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int increment(long key) {
+        return add(key, 1);
+    }
+
+    public int decrement(long key) {
+        return add(key, -1);
+    }
+
+    /*
+    Returns the new count of the key. Keys whose count drops to zero or below are removed.
+     */
+    public int add(long key, int delta) {
+        if (key == 0) throw new IllegalArgumentException("Key 0 is reserved");
+
+        int slot = find(key);
+        if (slot >= 0) {
+            int count = counts[slot] + delta;
+            if (count > 0) counts[slot] = count;
+            else delete(slot);
+            return Math.max(count, 0);
+        }
+        if (delta <= 0) return 0;
+
+        if (size + 1 > keys.length * LOAD_FACTOR) resize(keys.length << 1);
+
+        slot = index(key);
+        while (keys[slot] != 0) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        counts[slot] = delta;
+        size++;
+
+        return delta;
+    }
+
+    public void remove(long key) {
+        int slot = find(key);
+        if (slot >= 0) delete(slot);
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    private int find(long key) {
+        int slot = index(key);
+
+        long current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void delete(int slot) {
+        // backward shift deletion, keeps probe sequences intact without tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+
+        long key;
+        while ((key = keys[next]) != 0) {
+            int home = index(key);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = key;
+                counts[gap] = counts[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[gap] = 0;
+        counts[gap] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+
+            int slot = index(oldKeys[i]);
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,132 @@
+package de.kaleidox.util.collections;
+
+/**
+ * Maps a pair of primitive {@code long} keys to an {@code int}, backed by an open addressing table with linear
+ * probing. The first key must never be {@code 0}, it is reserved as the empty marker.
+ * <p>
+ * Not thread safe.
+ */
+public class LongPairIntMap {
+    public static final int MISSING = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] firstKeys;
+    private long[] secondKeys;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+
+    public LongPairIntMap() {
+        this(16);
+    }
+
+    public LongPairIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+
+        firstKeys = new long[capacity];
+        secondKeys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int get(long first, long second) {
+        int slot = find(first, second);
+        return slot < 0 ? MISSING : values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void put(long first, long second, int value) {
+        if (first == 0) throw new IllegalArgumentException("First key 0 is reserved");
+
+        int slot = find(first, second);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+
+        if (size + 1 > firstKeys.length * LOAD_FACTOR) resize(firstKeys.length << 1);
+
+        slot = index(first, second);
+        while (firstKeys[slot] != 0) slot = (slot + 1) & mask;
+        firstKeys[slot] = first;
+        secondKeys[slot] = second;
+        values[slot] = value;
+        size++;
+    }
+
+    public int remove(long first, long second) {
+        int slot = find(first, second);
+        if (slot < 0) return MISSING;
+
+        int value = values[slot];
+        delete(slot);
+        return value;
+    }
+
+    public long memoryFootprint() {
+        return firstKeys.length * (8L + 8L + 4L);
+    }
+
+    private int find(long first, long second) {
+        int slot = index(first, second);
+
+        long current;
+        while ((current = firstKeys[slot]) != 0) {
+            if (current == first && secondKeys[slot] == second) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void delete(int slot) {
+        // backward shift deletion, keeps probe sequences intact without tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+
+        while (firstKeys[next] != 0) {
+            int home = index(firstKeys[next], secondKeys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                firstKeys[gap] = firstKeys[next];
+                secondKeys[gap] = secondKeys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        firstKeys[gap] = 0;
+        secondKeys[gap] = 0;
+        values[gap] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldFirst = firstKeys;
+        long[] oldSecond = secondKeys;
+        int[] oldValues = values;
+
+        firstKeys = new long[capacity];
+        secondKeys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldFirst.length; i++) {
+            if (oldFirst[i] == 0) continue;
+
+            int slot = index(oldFirst[i], oldSecond[i]);
+            while (firstKeys[slot] != 0) slot = (slot + 1) & mask;
+            firstKeys[slot] = oldFirst[i];
+            secondKeys[slot] = oldSecond[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private int index(long first, long second) {
+        long hash = (first * 0x9E3779B97F4A7C15L) ^ (second * 0xC2B2AE3D27D4EB4FL);
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
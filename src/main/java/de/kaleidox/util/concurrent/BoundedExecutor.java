@@ -0,0 +1,40 @@
+package de.kaleidox.util.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/*
+Runs at most [permits] tasks of the delegate at a time; the others wait for a permit on their own thread.
+Meant for executors that start a virtual thread per task, where waiting is cheap and a pool size is no limit.
+ */
+public class BoundedExecutor implements Executor {
+    private final Executor delegate;
+    private final int permits;
+    private final Semaphore semaphore;
+
+    public BoundedExecutor(Executor delegate, int permits) {
+        this.delegate = delegate;
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(() -> {
+            semaphore.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                semaphore.release();
+            }
+        });
+    }
+
+    public int getRunning() {
+        return permits - semaphore.availablePermits();
+    }
+
+    public int getWaiting() {
+        return semaphore.getQueueLength();
+    }
+}
@@ -0,0 +1,264 @@
+package de.kaleidox.util.concurrent;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.LongConsumer;
+
+import org.apache.logging.log4j.Logger;
+import org.javacord.core.util.logging.LoggerUtil;
+
+/**
+ * A hierarchical timing wheel that expires primitive references at a given epoch millisecond.
+ * <p>
+ * Insertion and cancellation are O(1) and lock-free for the caller; the buckets themselves are only ever touched by
+ * the single ticking thread of the wheel. Expired references are handed to the dispatcher, so the handler may block
+ * without delaying the next tick.
+ */
+public class ExpirationWheel implements Closeable {
+    private static final Logger log = LoggerUtil.getLogger(ExpirationWheel.class);
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 6;
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final String name;
+    private final long tickMillis;
+    private final LongConsumer handler;
+    private final Executor dispatcher;
+    private final Bucket[][] buckets;
+    private final Queue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+    private volatile long startMillis;
+    private Thread worker;
+    private long tick = 0;
+
+    public ExpirationWheel(String name, long tickDuration, TimeUnit unit, LongConsumer handler, Executor dispatcher) {
+        this.name = name;
+        this.tickMillis = Math.max(1, unit.toMillis(tickDuration));
+        this.handler = handler;
+        this.dispatcher = dispatcher;
+        this.buckets = new Bucket[LEVELS][WHEEL_SIZE];
+
+        for (int level = 0; level < LEVELS; level++)
+            for (int idx = 0; idx < WHEEL_SIZE; idx++)
+                buckets[level][idx] = new Bucket();
+    }
+
+    public Timeout schedule(long deadlineMillis, long ref) {
+        if (closed) throw new IllegalStateException("Wheel [" + name + "] is closed");
+        start();
+
+        Timeout timeout = new Timeout(this, deadlineMillis, ref);
+        pending.incrementAndGet();
+        additions.add(timeout);
+
+        return timeout;
+    }
+
+    public int size() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(tickMillis * 10);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) return;
+
+        startMillis = System.currentTimeMillis();
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            long due = startMillis + tick * tickMillis;
+
+            if (now < due) {
+                try {
+                    Thread.sleep(due - now);
+                } catch (InterruptedException ignored) {
+                }
+                continue;
+            }
+
+            processAdditions();
+            processCancellations();
+            advance();
+        }
+    }
+
+    private void processAdditions() {
+        Timeout timeout;
+        while ((timeout = additions.poll()) != null) {
+            if (timeout.state != Timeout.PENDING) continue;
+
+            long offset = timeout.deadlineMillis - startMillis;
+            timeout.tick = offset <= 0 ? 0 : (offset + tickMillis - 1) / tickMillis;
+            place(timeout);
+        }
+    }
+
+    private void processCancellations() {
+        Timeout timeout;
+        while ((timeout = cancellations.poll()) != null)
+            if (timeout.bucket != null) timeout.bucket.unlink(timeout);
+    }
+
+    private void place(Timeout timeout) {
+        long expires = Math.max(timeout.tick, tick);
+        long delta = Math.min(expires - tick, MAX_DELTA);
+        expires = tick + delta;
+
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) level++;
+
+        int idx = (int) ((expires >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        buckets[level][idx].link(timeout);
+    }
+
+    private void advance() {
+        int idx = (int) (tick & WHEEL_MASK);
+
+        if (idx == 0) {
+            int level = 1;
+            while (level < LEVELS && cascade(level) == 0) level++;
+        }
+
+        Bucket bucket = buckets[0][idx];
+        Timeout timeout;
+        while ((timeout = bucket.head) != null) {
+            bucket.unlink(timeout);
+            if (timeout.expire()) {
+                long ref = timeout.ref;
+                dispatcher.execute(() -> {
+                    try {
+                        handler.accept(ref);
+                    } catch (Throwable t) {
+                        log.error("Error in expiration handler of wheel [" + name + "]", t);
+                    }
+                });
+            }
+        }
+
+        tick++;
+    }
+
+    private int cascade(int level) {
+        int idx = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Bucket bucket = buckets[level][idx];
+
+        Timeout timeout;
+        while ((timeout = bucket.head) != null) {
+            bucket.unlink(timeout);
+            place(timeout);
+        }
+
+        return idx;
+    }
+
+    public static class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final ExpirationWheel wheel;
+        private final long deadlineMillis;
+        private final long ref;
+        private volatile int state = PENDING;
+        private long tick;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(ExpirationWheel wheel, long deadlineMillis, long ref) {
+            this.wheel = wheel;
+            this.deadlineMillis = deadlineMillis;
+            this.ref = ref;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public long getRef() {
+            return ref;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+
+            wheel.pending.decrementAndGet();
+            wheel.cancellations.add(this);
+            return true;
+        }
+
+        private boolean expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) return false;
+
+            wheel.pending.decrementAndGet();
+            return true;
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void link(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+
+            if (tail == null) head = timeout;
+            else tail.next = timeout;
+            tail = timeout;
+        }
+
+        private void unlink(Timeout timeout) {
+            if (timeout.prev == null) head = timeout.next;
+            else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev;
+            else timeout.next.prev = timeout.prev;
+
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
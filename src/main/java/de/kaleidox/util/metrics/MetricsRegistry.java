@@ -0,0 +1,295 @@
+package de.kaleidox.util.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A minimal registry of counters, histograms and gauges that renders itself in the Prometheus text format.
+ * <p>
+ * Every metric may have one label; updating a metric is lock-free, rendering it reads the current values without
+ * stopping writers, so a scrape may see a histogram that is a few observations ahead in its buckets.
+ */
+public class MetricsRegistry {
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public Counter counter(String name, String help, String label) {
+        return register(new Counter(name, help, label));
+    }
+
+    public Histogram histogram(String name, String help, String label, double... bounds) {
+        return register(new Histogram(name, help, label, bounds));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(new Gauge(name, help, null, () -> Collections.singletonMap("", value.getAsDouble())));
+    }
+
+    /*
+    A gauge whose labelled values are computed on every scrape.
+     */
+    public void gauge(String name, String help, String label, Supplier<Map<String, ? extends Number>> values) {
+        register(new Gauge(name, help, label, values));
+    }
+
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : metrics) metric.write(out);
+        return out.toString();
+    }
+
+    /*
+    One short line per metric and label, for humans.
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Metric metric : metrics) metric.summarize(lines);
+        return lines;
+    }
+
+    private <T extends Metric> T register(T metric) {
+        for (Metric other : metrics)
+            if (other.name.equals(metric.name))
+                throw new IllegalArgumentException("Metric [" + metric.name + "] is already registered");
+
+        metrics.add(metric);
+        return metric;
+    }
+
+    private abstract static class Metric {
+        protected final String name;
+        protected final String help;
+        protected final String label;
+
+        private Metric(String name, String help, String label) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+        }
+
+        abstract void write(StringBuilder out);
+
+        abstract void summarize(List<String> lines);
+
+        protected void header(StringBuilder out, String type) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        protected String labels(String value, String extra) {
+            StringBuilder labels = new StringBuilder();
+            if (label != null && !value.isEmpty())
+                labels.append(label).append("=\"").append(escape(value)).append('"');
+            if (extra != null) labels.append(labels.length() > 0 ? "," : "").append(extra);
+
+            return labels.length() == 0 ? "" : "{" + labels + "}";
+        }
+
+        protected String display(String value) {
+            return value.isEmpty() ? name : name + "{" + value + "}";
+        }
+    }
+
+    public static class Counter extends Metric {
+        private final Map<String, LongAdder> values = new ConcurrentHashMap<>();
+
+        private Counter(String name, String help, String label) {
+            super(name, help, label);
+        }
+
+        public void inc() {
+            inc("", 1);
+        }
+
+        public void inc(String labelValue) {
+            inc(labelValue, 1);
+        }
+
+        public void inc(String labelValue, long amount) {
+            values.computeIfAbsent(labelValue, key -> new LongAdder()).add(amount);
+        }
+
+        public long get(String labelValue) {
+            LongAdder value = values.get(labelValue);
+            return value == null ? 0 : value.sum();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "counter");
+            values.forEach((labelValue, value) ->
+                    out.append(name).append(labels(labelValue, null)).append(' ').append(value.sum()).append('\n'));
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            values.forEach((labelValue, value) -> lines.add(display(labelValue) + ": " + value.sum()));
+        }
+    }
+
+    public static class Histogram extends Metric {
+        private final double[] bounds;
+        private final Map<String, Buckets> values = new ConcurrentHashMap<>();
+
+        private Histogram(String name, String help, String label, double... bounds) {
+            super(name, help, label);
+            this.bounds = bounds.clone();
+            Arrays.sort(this.bounds);
+        }
+
+        public void observe(double value) {
+            observe("", value);
+        }
+
+        public void observe(String labelValue, double value) {
+            Buckets buckets = values.computeIfAbsent(labelValue, key -> new Buckets(bounds.length));
+
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) bucket++;
+
+            buckets.counts[bucket].increment();
+            buckets.sum.add(value);
+        }
+
+        /*
+        Observes the seconds until the returned timer is closed.
+         */
+        public Timer time(String labelValue) {
+            long start = System.nanoTime();
+            return () -> observe(labelValue, (System.nanoTime() - start) / 1e9);
+        }
+
+        /*
+        Observes the seconds the body takes, also when it fails.
+         */
+        public <T> T time(String labelValue, Supplier<T> body) {
+            Timer timer = time(labelValue);
+            try {
+                return body.get();
+            } finally {
+                timer.close();
+            }
+        }
+
+        public long count(String labelValue) {
+            Buckets buckets = values.get(labelValue);
+            if (buckets == null) return 0;
+
+            long count = 0;
+            for (LongAdder adder : buckets.counts) count += adder.sum();
+            return count;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "histogram");
+            values.forEach((labelValue, buckets) -> {
+                long cumulative = 0;
+                for (int i = 0; i <= bounds.length; i++) {
+                    cumulative += buckets.counts[i].sum();
+                    String le = i < bounds.length ? format(bounds[i]) : "+Inf";
+                    out.append(name).append("_bucket").append(labels(labelValue, "le=\"" + le + "\""))
+                            .append(' ').append(cumulative).append('\n');
+                }
+                out.append(name).append("_sum").append(labels(labelValue, null))
+                        .append(' ').append(format(buckets.sum.sum())).append('\n');
+                out.append(name).append("_count").append(labels(labelValue, null))
+                        .append(' ').append(cumulative).append('\n');
+            });
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            values.forEach((labelValue, buckets) -> {
+                long[] counts = new long[bounds.length + 1];
+                long total = 0;
+                for (int i = 0; i < counts.length; i++) total += counts[i] = buckets.counts[i].sum();
+                if (total == 0) return;
+
+                lines.add(display(labelValue) + ": n=" + total
+                        + " mean=" + round(buckets.sum.sum() / total)
+                        + " p50<=" + quantileBound(counts, total, 0.5)
+                        + " p99<=" + quantileBound(counts, total, 0.99));
+            });
+        }
+
+        private String quantileBound(long[] counts, long total, double quantile) {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= quantile * total) return format(bounds[i]);
+            }
+            return "+Inf";
+        }
+
+        public interface Timer extends AutoCloseable {
+            @Override
+            void close();
+        }
+
+        private static class Buckets {
+            private final LongAdder[] counts;
+            private final DoubleAdder sum = new DoubleAdder();
+
+            private Buckets(int bounds) {
+                counts = new LongAdder[bounds + 1];
+                for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+            }
+        }
+    }
+
+    private static class Gauge extends Metric {
+        private final Supplier<Map<String, ? extends Number>> values;
+
+        private Gauge(String name, String help, String label, Supplier<Map<String, ? extends Number>> values) {
+            super(name, help, label);
+            this.values = values;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "gauge");
+            values.get().forEach((labelValue, value) -> out.append(name).append(labels(labelValue, null))
+                    .append(' ').append(format(value.doubleValue())).append('\n'));
+        }
+
+        @Override
+        void summarize(List<String> lines) {
+            Map<String, ? extends Number> current = values.get();
+
+            if (label == null || current.size() <= 5) {
+                current.forEach((labelValue, value) -> lines.add(display(labelValue) + ": "
+                        + round(value.doubleValue())));
+                return;
+            }
+
+            double total = 0;
+            for (Number value : current.values()) total += value.doubleValue();
+            lines.add(name + ": " + round(total) + " over " + current.size() + " " + label + "s");
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String round(double value) {
+        if (value == Math.rint(value)) return format(value);
+        return String.format(Locale.ROOT, "%.3g", value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,373 @@
+package de.kaleidox.util.time;
+
+import java.text.ParseException;
+
+/**
+ * Parses the time expressions of the assignment commands directly over a {@link CharSequence}.
+ * <p>
+ * Three forms are understood:
+ * <ul>
+ * <li>Unit durations like {@code 1w 2d 3h 4m 5s}; a trailing number without a unit counts as minutes</li>
+ * <li>ISO-8601 durations like {@code P1W}, {@code P2DT3H} or {@code PT90M}, without years and months</li>
+ * <li>Absolute timestamps like {@code until 2026-12-01T10:00Z}, {@code until 2026-12-01 10:00:30+02:00} or
+ * {@code until 2026-12-01}; timestamps without an offset are UTC</li>
+ * </ul>
+ * All arithmetic is done in {@code long} and fails on overflow. Parsing allocates nothing unless it fails; the
+ * results of {@code String} expressions are kept in a small cache, so repeated expressions are not parsed again.
+ */
+public final class DurationParser {
+    /* the latest epoch second whose epoch millisecond still fits into a long */
+    public static final long MAX_EPOCH_SECOND = Long.MAX_VALUE / 1000;
+
+    private static final String UNTIL = "until";
+    private static final String[] UNIT_NAMES = {"WEEKS", "DAYS", "HOURS", "MINUTES", "SECONDS"};
+    private static final long[] UNIT_SECONDS = {7 * 24 * 60 * 60, 24 * 60 * 60, 60 * 60, 60, 1};
+    private static final int WEEKS = 0, DAYS = 1, HOURS = 2, MINUTES = 3, SECONDS = 4;
+
+    private static final int CACHE_SIZE = 256;
+    private static final CacheEntry[] CACHE = new CacheEntry[CACHE_SIZE];
+
+    private DurationParser() {
+    }
+
+    /*
+    Returns the epoch second the expression points at, seen from the given epoch second.
+     */
+    public static long resolve(CharSequence expression, long nowEpochSecond) throws ParseException {
+        int length = expression.length();
+        int start = skipWhitespace(expression, 0, length);
+        int timestamp = untilEnd(expression, start, length);
+
+        long value = parseCached(expression, start, length, timestamp);
+
+        long epochSecond;
+        if (timestamp >= 0) {
+            if (value <= nowEpochSecond)
+                throw new ParseException("Timestamp lies in the past: [" + expression + "]", timestamp);
+            epochSecond = value;
+        } else try {
+            epochSecond = Math.addExact(nowEpochSecond, value);
+        } catch (ArithmeticException e) {
+            throw new ParseException("Duration is too long: [" + expression + "]", 0);
+        }
+
+        if (epochSecond > MAX_EPOCH_SECOND)
+            throw new ParseException("Duration is too long: [" + expression + "]", 0);
+
+        return epochSecond;
+    }
+
+    /*
+    Returns the length of a relative duration expression in seconds.
+     */
+    public static long parseDuration(CharSequence expression) throws ParseException {
+        int length = expression.length();
+        int start = skipWhitespace(expression, 0, length);
+
+        if (untilEnd(expression, start, length) >= 0)
+            throw new ParseException("Not a duration: [" + expression + "]", start);
+
+        return parseCached(expression, start, length, -1);
+    }
+
+    private static long parseCached(CharSequence expression, int start, int end, int timestamp) throws ParseException {
+        if (!(expression instanceof String))
+            return parse(expression, start, end, timestamp);
+
+        // a direct mapped cache; entries are immutable, so racing writers only cost a parse
+        int slot = spread(expression.hashCode()) & (CACHE_SIZE - 1);
+        CacheEntry entry = CACHE[slot];
+        if (entry != null && entry.expression.equals(expression)) return entry.value;
+
+        long value = parse(expression, start, end, timestamp);
+        CACHE[slot] = new CacheEntry((String) expression, value);
+
+        return value;
+    }
+
+    private static long parse(CharSequence expression, int start, int end, int timestamp) throws ParseException {
+        if (timestamp >= 0) return parseTimestamp(expression, skipWhitespace(expression, timestamp, end), end);
+        if (start == end) throw new ParseException("Empty duration", 0);
+
+        char first = expression.charAt(start);
+        if (first == 'P' || first == 'p') return parseIso(expression, start + 1, end);
+
+        return parseUnits(expression, start, end);
+    }
+
+    private static long parseUnits(CharSequence expression, int start, int end) throws ParseException {
+        long total = 0, value = 0;
+        boolean pending = false;
+        int seen = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = expression.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                value = appendDigit(expression, value, c, i);
+                pending = true;
+            } else if (!Character.isWhitespace(c)) {
+                int unit = unit(c);
+                if (unit < 0)
+                    throw new ParseException("Unknown identifier: [" + c + "]", i);
+                if ((seen & 1 << unit) != 0)
+                    throw new ParseException("Illegal duplication: " + UNIT_NAMES[unit] + " field [" + expression + "]", i);
+
+                seen |= 1 << unit;
+                total = add(expression, total, value, unit, i);
+                value = 0;
+                pending = false;
+            }
+        }
+
+        if (pending) {
+            if ((seen & 1 << MINUTES) != 0)
+                throw new ParseException("Illegal duplication: MINUTES field [" + expression + "]", end);
+            total = add(expression, total, value, MINUTES, end);
+        }
+
+        return total;
+    }
+
+    private static long parseIso(CharSequence expression, int start, int end) throws ParseException {
+        long total = 0, value = 0;
+        boolean time = false, pending = false, any = false;
+        int seen = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = Character.toUpperCase(expression.charAt(i));
+
+            if (c >= '0' && c <= '9') {
+                value = appendDigit(expression, value, c, i);
+                pending = true;
+                continue;
+            }
+
+            if (c == 'T' && !time && !pending) {
+                time = true;
+                continue;
+            }
+
+            int unit;
+            switch (c) {
+                case 'W':
+                    unit = time ? -1 : WEEKS;
+                    break;
+                case 'D':
+                    unit = time ? -1 : DAYS;
+                    break;
+                case 'H':
+                    unit = time ? HOURS : -1;
+                    break;
+                case 'M':
+                    if (!time) throw new ParseException("Months are not supported: [" + expression + "]", i);
+                    unit = MINUTES;
+                    break;
+                case 'S':
+                    unit = time ? SECONDS : -1;
+                    break;
+                case 'Y':
+                    throw new ParseException("Years are not supported: [" + expression + "]", i);
+                case '.':
+                case ',':
+                    throw new ParseException("Fractions are not supported: [" + expression + "]", i);
+                default:
+                    unit = -1;
+            }
+
+            if (unit < 0 || !pending || (seen & 1 << unit) != 0)
+                throw new ParseException("Invalid ISO-8601 duration: [" + expression + "]", i);
+
+            seen |= 1 << unit;
+            total = add(expression, total, value, unit, i);
+            value = 0;
+            pending = false;
+            any = true;
+        }
+
+        if (pending || !any)
+            throw new ParseException("Invalid ISO-8601 duration: [" + expression + "]", end);
+
+        return total;
+    }
+
+    /*
+    yyyy-MM-dd[('T'|' ')HH:mm[:ss[.fraction]]][Z|±HH[[:]mm]]
+     */
+    private static long parseTimestamp(CharSequence expression, int start, int end) throws ParseException {
+        while (end > start && Character.isWhitespace(expression.charAt(end - 1))) end--;
+
+        int i = start;
+        long year = digits(expression, i, 4, end);
+        i = expect(expression, i + 4, '-', end);
+        int month = (int) digits(expression, i, 2, end);
+        i = expect(expression, i + 2, '-', end);
+        int day = (int) digits(expression, i, 2, end);
+        i += 2;
+
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+            throw new ParseException("Invalid date: [" + expression + "]", start);
+
+        long seconds = 0;
+        if (i < end && (expression.charAt(i) == 'T' || expression.charAt(i) == 't' || expression.charAt(i) == ' ')) {
+            int hour = (int) digits(expression, i + 1, 2, end);
+            i = expect(expression, i + 3, ':', end);
+            int minute = (int) digits(expression, i, 2, end);
+            i += 2;
+
+            int second = 0;
+            if (i < end && expression.charAt(i) == ':') {
+                second = (int) digits(expression, i + 1, 2, end);
+                i += 3;
+
+                if (i < end && expression.charAt(i) == '.') {
+                    i++;
+                    while (i < end && expression.charAt(i) >= '0' && expression.charAt(i) <= '9') i++;
+                }
+            }
+
+            if (hour > 23 || minute > 59 || second > 59)
+                throw new ParseException("Invalid time: [" + expression + "]", start);
+            seconds = hour * 3600 + minute * 60 + second;
+        }
+
+        int offset = 0;
+        if (i < end) {
+            char c = expression.charAt(i);
+
+            if (c == 'Z' || c == 'z') i++;
+            else if (c == '+' || c == '-') {
+                int hours = (int) digits(expression, i + 1, 2, end);
+                int minutes = 0;
+                i += 3;
+
+                if (i < end && expression.charAt(i) == ':') i++;
+                if (i < end) {
+                    minutes = (int) digits(expression, i, 2, end);
+                    i += 2;
+                }
+
+                if (hours > 18 || minutes > 59)
+                    throw new ParseException("Invalid offset: [" + expression + "]", start);
+                offset = (c == '-' ? -1 : 1) * (hours * 3600 + minutes * 60);
+            }
+        }
+
+        if (i != end)
+            throw new ParseException("Invalid timestamp: [" + expression + "]", i);
+
+        return epochDay(year, month, day) * 86400 + seconds - offset;
+    }
+
+    /*
+    Returns the index after the "until" keyword and its whitespace, or -1 if the expression is no timestamp.
+     */
+    private static int untilEnd(CharSequence expression, int start, int end) {
+        int keyword = start + UNTIL.length();
+        if (keyword >= end || !Character.isWhitespace(expression.charAt(keyword))) return -1;
+
+        for (int i = 0; i < UNTIL.length(); i++)
+            if (Character.toLowerCase(expression.charAt(start + i)) != UNTIL.charAt(i)) return -1;
+
+        return keyword;
+    }
+
+    private static long appendDigit(CharSequence expression, long value, char digit, int index) throws ParseException {
+        try {
+            return Math.addExact(Math.multiplyExact(value, 10), digit - '0');
+        } catch (ArithmeticException e) {
+            throw new ParseException("Number is too large: [" + expression + "]", index);
+        }
+    }
+
+    private static long add(CharSequence expression, long total, long value, int unit, int index) throws ParseException {
+        try {
+            return Math.addExact(total, Math.multiplyExact(value, UNIT_SECONDS[unit]));
+        } catch (ArithmeticException e) {
+            throw new ParseException("Duration is too long: [" + expression + "]", index);
+        }
+    }
+
+    private static long digits(CharSequence expression, int from, int count, int end) throws ParseException {
+        if (from + count > end)
+            throw new ParseException("Invalid timestamp: [" + expression + "]", from);
+
+        long value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = expression.charAt(i);
+            if (c < '0' || c > '9')
+                throw new ParseException("Invalid timestamp: [" + expression + "]", i);
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    private static int expect(CharSequence expression, int index, char c, int end) throws ParseException {
+        if (index >= end || expression.charAt(index) != c)
+            throw new ParseException("Invalid timestamp: [" + expression + "]", index);
+
+        return index + 1;
+    }
+
+    private static int unit(char c) {
+        switch (c) {
+            case 'w':
+                return WEEKS;
+            case 'd':
+                return DAYS;
+            case 'h':
+                return HOURS;
+            case 'm':
+                return MINUTES;
+            case 's':
+                return SECONDS;
+            default:
+                return -1;
+        }
+    }
+
+    private static int skipWhitespace(CharSequence expression, int from, int end) {
+        while (from < end && Character.isWhitespace(expression.charAt(from))) from++;
+        return from;
+    }
+
+    private static int lengthOfMonth(long year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /* days since 1970-01-01 of a proleptic gregorian date */
+    private static long epochDay(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class CacheEntry {
+        private final String expression;
+        private final long value;
+
+        private CacheEntry(String expression, long value) {
+            this.expression = expression;
+            this.value = value;
+        }
+    }
+}
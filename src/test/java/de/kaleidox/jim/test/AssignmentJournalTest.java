@@ -0,0 +1,89 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.persistence.AssignmentJournal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentJournalTest {
+    @Test
+    public void testRotationAndReplay() throws IOException {
+        File file = File.createTempFile("timed", ".journal");
+        File rotated = new File(file.getPath() + ".1");
+        file.deleteOnExit();
+        rotated.deleteOnExit();
+
+        AssignmentJournal journal = new AssignmentJournal(file, 10, TimeUnit.MILLISECONDS);
+        journal.open();
+        journal.append(record(1));
+        journal.rotate();
+        journal.append(record(2));
+        journal.close();
+
+        assertTrue(rotated.exists());
+        assertEquals("[1, 2]", replay(file).toString());
+
+        journal.open();
+        journal.commitRotation();
+        journal.close();
+
+        assertFalse(rotated.exists());
+        assertEquals("[2]", replay(file).toString());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        File file = File.createTempFile("timed", ".journal");
+        file.deleteOnExit();
+
+        AssignmentJournal journal = new AssignmentJournal(file, 10, TimeUnit.MILLISECONDS);
+        journal.open();
+        journal.append(record(1));
+        journal.close();
+        Files.write(file.toPath(), "{\"seq\":".getBytes(), StandardOpenOption.APPEND);
+
+        assertEquals("[1]", replay(file).toString());
+    }
+
+    @Test
+    public void testTornRecordIsCutOffOnOpen() throws IOException {
+        File file = File.createTempFile("timed", ".journal");
+        file.deleteOnExit();
+
+        AssignmentJournal journal = new AssignmentJournal(file, 10, TimeUnit.MILLISECONDS);
+        journal.open();
+        journal.append(record(1));
+        journal.close();
+        Files.write(file.toPath(), "{\"seq\":".getBytes(), StandardOpenOption.APPEND);
+
+        journal.open();
+        journal.append(record(2));
+        journal.append(record(3));
+        journal.close();
+
+        assertEquals("[1, 2, 3]", replay(file).toString());
+    }
+
+    private static JsonNode record(int seq) {
+        return JsonNodeFactory.instance.objectNode().put("seq", seq);
+    }
+
+    private static List<Integer> replay(File file) throws IOException {
+        List<Integer> records = new ArrayList<>();
+        new AssignmentJournal(file, 10, TimeUnit.MILLISECONDS).replay(record -> records.add(record.get("seq").asInt()));
+        return records;
+    }
+}
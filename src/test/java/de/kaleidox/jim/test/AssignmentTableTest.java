@@ -0,0 +1,215 @@
+package de.kaleidox.jim.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.TemporaryAssignment;
+
+import org.junit.Test;
+
+import static de.kaleidox.jim.AssignmentTable.NONE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentTableTest {
+    @Test
+    public void testInsertAndFind() {
+        AssignmentTable table = new AssignmentTable(4);
+
+        long handle = table.insert(1, 10, 100, 5000, true);
+        assertNotEquals(NONE, handle);
+        assertEquals(NONE, table.insert(1, 10, 100, 5000, true));
+        assertEquals(handle, table.find(1, 10, 100, 5000));
+
+        TemporaryAssignment assignment = table.view(handle);
+        assertEquals(1, assignment.getServerId());
+        assertEquals(10, assignment.getUserId());
+        assertEquals(100, assignment.getRoleid());
+        assertEquals(5000, assignment.getRemoveAtEpochSecond());
+        assertTrue(assignment.isTemporaryRole());
+
+        for (int i = 0; i < 100; i++) table.insert(1, 10, 200 + i, 5000, false);
+        assertEquals(101, table.size());
+        assertEquals(handle, table.find(1, 10, 100, 5000));
+    }
+
+    @Test
+    public void testRoleIndex() {
+        AssignmentTable table = new AssignmentTable();
+
+        long first = table.insert(1, 10, 100, 5000, false);
+        long second = table.insert(1, 10, 100, 6000, false);
+        table.insert(1, 11, 100, 5000, false);
+
+        assertTrue(table.isTrackedRole(100));
+        assertFalse(table.isTrackedRole(101));
+        assertEquals(2, table.findByRole(100, 10).length);
+        assertEquals(3, table.pending());
+
+        assertTrue(table.setFlag(first, AssignmentTable.CLEANUPABLE));
+        assertFalse(table.setFlag(first, AssignmentTable.CLEANUPABLE));
+        assertEquals(2, table.pending());
+        assertEquals(1, table.findByRole(100, 10).length);
+        assertEquals(second, table.findByRole(100, 10)[0]);
+
+        assertEquals(1, table.freeAll(AssignmentTable.CLEANUPABLE));
+        table.free(second);
+        assertEquals(0, table.findByRole(100, 10).length);
+        assertTrue(table.isTrackedRole(100));
+        assertEquals(1, table.size());
+        assertEquals(1, table.pending());
+    }
+
+    @Test
+    public void testStaleHandles() {
+        AssignmentTable table = new AssignmentTable();
+
+        long handle = table.insert(1, 10, 100, 5000, false);
+        assertTrue(table.free(handle));
+        assertFalse(table.free(handle));
+        assertNull(table.view(handle));
+
+        long reused = table.insert(2, 20, 200, 5000, false);
+        assertEquals((int) handle, (int) reused);
+        assertNotEquals(handle, reused);
+        assertNull(table.view(handle));
+        assertFalse(table.setFlag(handle, AssignmentTable.REMOVING));
+        assertEquals(NONE, table.find(1, 10, 100, 5000));
+    }
+
+    @Test
+    public void testIncrementalSweep() {
+        AssignmentTable table = new AssignmentTable();
+        for (int i = 0; i < 10; i++) table.insert(1, 10 + i, 100, 5000 + i, false);
+        table.free(table.find(1, 13, 100, 5003));
+
+        List<Long> visited = new ArrayList<>();
+        table.sweep(4, (handle, removeAt, flags) -> visited.add(removeAt));
+        assertEquals(Arrays.asList(5000L, 5001L, 5002L), visited);
+
+        visited.clear();
+        table.sweep(8, (handle, removeAt, flags) -> {
+            visited.add(removeAt);
+            table.free(handle);
+        });
+        assertEquals(Arrays.asList(5004L, 5005L, 5006L, 5007L, 5008L, 5009L, 5000L, 5001L), visited);
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testRemovalTimeIndex() {
+        AssignmentTable table = new AssignmentTable();
+        long[] handles = new long[10];
+        for (int i = 0; i < 10; i++) handles[i] = table.insert(1, 10 + i % 2, 100 + i, 9000 - i * 100, false);
+        long other = table.insert(2, 10, 100, 1000, false);
+        table.insert(2, 10, 100, 2000, false);
+
+        assertEquals(10, table.countByServer(1));
+        assertEquals(2, table.countByServer(1, 8200));
+        assertEquals(0, table.countByServer(1, 8099));
+        assertEquals(10, table.countByServer(1, Long.MAX_VALUE));
+        assertEquals(handles[9], table.findByServer(1, 0, 3)[0]);
+        assertEquals(handles[6], table.findByServer(1, 3, 3)[0]);
+        assertEquals(1, table.findByServer(1, 9, 3).length);
+        assertEquals(5, table.findByUser(1, 11).length);
+        assertEquals(handles[9], table.findByUser(1, 11)[0]);
+
+        assertTrue(table.reschedule(handles[9], 10_000));
+        assertEquals(handles[8], table.findByServer(1, 0, 1)[0]);
+        assertEquals(handles[9], table.findByServer(1, 9, 1)[0]);
+        assertEquals(10_000, table.view(handles[9]).getRemoveAtEpochSecond());
+        assertEquals(handles[9], table.find(1, 11, 109, 10_000));
+        assertFalse(table.reschedule(other, 2000));
+
+        table.setFlag(handles[8], AssignmentTable.REMOVING);
+        assertFalse(table.reschedule(handles[8], 10_000));
+        assertEquals(handles[7], table.findByServer(1, 0, 1)[0]);
+        assertEquals(9, table.countByServer(1));
+
+        table.free(handles[8]);
+        assertEquals(9, table.countByServer(1));
+        assertEquals(2, table.countByServer(2));
+    }
+
+    @Test
+    public void testServerChain() {
+        AssignmentTable table = new AssignmentTable();
+        table.insert(1, 10, 100, 5000, false);
+        long removing = table.insert(1, 11, 100, 6000, false);
+        table.insert(2, 10, 100, 5000, false);
+        table.free(table.insert(1, 12, 100, 7000, false));
+        table.setFlag(removing, AssignmentTable.REMOVING);
+
+        List<Long> visited = new ArrayList<>();
+        table.forEachOfServer(1, (serverId, userId, roleId, removeAt, flags) -> visited.add(userId));
+        visited.sort(Comparator.naturalOrder());
+        assertEquals(Arrays.asList(10L, 11L), visited);
+
+        visited.clear();
+        table.forEachOfServer(3, (serverId, userId, roleId, removeAt, flags) -> visited.add(userId));
+        assertTrue(visited.isEmpty());
+
+        long[] servers = table.servers();
+        Arrays.sort(servers);
+        assertArrayEquals(new long[]{1, 2}, servers);
+    }
+
+    @Test
+    public void testFailedRemovalIsKept() {
+        AssignmentTable table = new AssignmentTable();
+        long first = table.insert(1, 10, 100, 1000, false);
+        long second = table.insert(1, 11, 100, 2000, false);
+
+        assertFalse(table.endRemoval(first));
+        table.setFlag(first, AssignmentTable.REMOVING);
+        assertEquals(second, table.findByServer(1, 0, 1)[0]);
+
+        assertTrue(table.endRemoval(first));
+        assertFalse(table.endRemoval(first));
+        assertEquals(first, table.findByServer(1, 0, 1)[0]);
+        assertEquals(2, table.countByServer(1));
+        assertEquals(2, table.pending());
+
+        table.setFlag(second, AssignmentTable.REMOVING);
+        table.setFlag(second, AssignmentTable.CLEANUPABLE);
+        assertFalse(table.endRemoval(second));
+        assertEquals(1, table.countByServer(1));
+    }
+
+    @Test
+    public void testRemovalTimeIndexPages() {
+        AssignmentTable table = new AssignmentTable();
+        Random random = new Random(1);
+        List<Long> live = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) live.add(table.insert(1, i, 100, 1000 + random.nextInt(500), false));
+        for (int i = 0; i < 1000; i++) {
+            long handle = live.get(random.nextInt(live.size()));
+
+            if (i % 2 == 0) {
+                table.free(handle);
+                live.remove(handle);
+            } else assertTrue(table.reschedule(handle, 2000 + i));
+        }
+
+        live.sort(Comparator.<Long>comparingLong(handle -> table.view(handle).getRemoveAtEpochSecond())
+                .thenComparingInt(handle -> (int) (long) handle));
+        assertEquals(live.size(), table.countByServer(1));
+
+        for (int offset = 0; offset < live.size(); offset += 97) {
+            long[] page = table.findByServer(1, offset, 10);
+
+            assertEquals(Math.min(10, live.size() - offset), page.length);
+            for (int i = 0; i < page.length; i++) assertEquals((long) live.get(offset + i), page[i]);
+        }
+        assertEquals(0, table.findByServer(1, live.size(), 10).length);
+    }
+}
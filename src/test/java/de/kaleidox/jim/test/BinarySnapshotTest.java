@@ -0,0 +1,73 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.BinarySnapshot;
+import de.kaleidox.jim.persistence.SnapshotConverter;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinarySnapshotTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = File.createTempFile("timed", ".bin");
+        file.deleteOnExit();
+
+        BinarySnapshot.write(file, table());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        // header, four records and the index of two servers
+        assertEquals(32 + 4 * 25 + 2 * 24, file.length());
+
+        assertEquals("[1:10:100:5000:0, 1:10:101:8000:0, 1:11:100:7000:0, 2:20:200:6000:1]",
+                read(SnapshotFormat.BINARY, file).toString());
+    }
+
+    @Test
+    public void testConversion() throws IOException {
+        File json = File.createTempFile("timed", ".json");
+        File binary = File.createTempFile("timed", ".bin");
+        json.deleteOnExit();
+        binary.deleteOnExit();
+
+        SnapshotFormat.JSON.write(json, table());
+        assertEquals(4, SnapshotConverter.convert(SnapshotFormat.JSON, json, SnapshotFormat.BINARY, binary));
+
+        assertEquals(read(SnapshotFormat.JSON, json), read(SnapshotFormat.BINARY, binary));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsForeignFile() throws IOException {
+        File file = File.createTempFile("timed", ".json");
+        file.deleteOnExit();
+
+        SnapshotFormat.JSON.write(file, table());
+        BinarySnapshot.read(file, (serverId, userId, roleId, removeAt, flags) -> {
+        });
+    }
+
+    private static AssignmentTable table() {
+        AssignmentTable table = new AssignmentTable();
+        table.insert(1, 10, 100, 5000, false);
+        table.insert(2, 20, 200, 6000, true);
+        table.insert(1, 11, 100, 7000, false);
+        table.insert(1, 10, 101, 8000, false);
+        table.setFlag(table.insert(3, 30, 300, 9000, false), AssignmentTable.CLEANUPABLE);
+        return table;
+    }
+
+    private static List<String> read(SnapshotFormat format, File file) throws IOException {
+        List<String> read = new ArrayList<>();
+        format.read(file, (serverId, userId, roleId, removeAt, flags) ->
+                read.add(serverId + ":" + userId + ":" + roleId + ":" + removeAt + ":" + flags));
+        read.sort(String::compareTo);
+        return read;
+    }
+}
@@ -0,0 +1,132 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.AssignmentPersistence;
+import de.kaleidox.jim.persistence.DatabaseStore;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHorizon() throws IOException {
+        File directory = folder.newFolder("jim-db");
+
+        DatabaseStore store = new DatabaseStore(directory);
+        store.load(new AssignmentTable(), 1000);
+        store.replace(table());
+        store.close();
+
+        AssignmentTable table = new AssignmentTable();
+        store = new DatabaseStore(directory);
+        assertEquals(2, store.load(table, 1000));
+        assertEquals(2, table.size());
+        assertTrue(store.isDeferred(7));
+        assertFalse(store.isDeferred(5));
+
+        List<Long> loaded = new ArrayList<>();
+        assertEquals(1, store.advance(table, 6000, loaded::add));
+        assertEquals(1, loaded.size());
+        assertEquals(5000, table.view(loaded.get(0)).getRemoveAtEpochSecond());
+        assertFalse(store.isDeferred(7));
+        store.close();
+    }
+
+    @Test
+    public void testCancelDeferred() throws IOException {
+        File directory = folder.newFolder("jim-db");
+
+        DatabaseStore store = new DatabaseStore(directory);
+        store.load(new AssignmentTable(), 1000);
+        store.replace(table());
+        assertEquals(1, store.cancelDeferred(1, 10, 7));
+        assertEquals(0, store.cancelDeferred(1, 10, 7));
+        store.store(new AssignmentTable());
+        assertFalse(store.isDeferred(7));
+        store.close();
+
+        store = new DatabaseStore(directory);
+        assertEquals(2, store.load(new AssignmentTable(), Long.MAX_VALUE));
+        store.close();
+    }
+
+    @Test
+    public void testFindDeferred() throws IOException {
+        File directory = folder.newFolder("jim-db");
+
+        AssignmentTable table = table();
+        table.insert(1, 11, 7, 6000, true);
+        table.insert(2, 10, 7, 7000, false);
+
+        DatabaseStore store = new DatabaseStore(directory);
+        store.load(new AssignmentTable(), 1000);
+        store.replace(table);
+        assertEquals(2, store.countDeferred(1));
+        assertEquals(1, store.countDeferred(2));
+
+        List<Long> found = new ArrayList<>();
+        store.findDeferred(1, 0, 0, 10, (serverId, userId, roleId, removeAt, flags) -> found.add(removeAt));
+        assertEquals(Arrays.asList(5000L, 6000L), found);
+
+        found.clear();
+        store.findDeferred(1, 0, 1, 10, (serverId, userId, roleId, removeAt, flags) -> found.add(removeAt));
+        assertEquals(Collections.singletonList(6000L), found);
+
+        found.clear();
+        store.findDeferred(1, 11, 0, 10, (serverId, userId, roleId, removeAt, flags) -> {
+            assertEquals(AssignmentTable.TEMPORARY_ROLE, flags);
+            found.add(removeAt);
+        });
+        assertEquals(Collections.singletonList(6000L), found);
+        store.close();
+    }
+
+    @Test
+    public void testImportsSnapshot() throws IOException {
+        File directory = folder.newFolder("jim-db");
+
+        AssignmentPersistence persistence = new AssignmentPersistence(
+                directory,
+                SnapshotFormat.BINARY,
+                50,
+                TimeUnit.MILLISECONDS
+        );
+        persistence.load(new AssignmentTable());
+        persistence.store(table());
+        persistence.close();
+
+        DatabaseStore store = new DatabaseStore(directory);
+        assertTrue(store.hasData());
+        assertEquals(3, store.load(new AssignmentTable(), Long.MAX_VALUE));
+        store.close();
+
+        assertTrue(new File(directory, "timed.bin.migrated").exists());
+        assertFalse(new File(directory, "timed.bin").exists());
+    }
+
+    private static AssignmentTable table() {
+        AssignmentTable table = new AssignmentTable();
+        table.insert(1, 10, 5, 100, false);
+        table.insert(1, 11, 5, 200, true);
+        table.insert(1, 10, 7, 5000, false);
+
+        return table;
+    }
+}
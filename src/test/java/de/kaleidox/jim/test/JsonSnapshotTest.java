@@ -0,0 +1,61 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.JsonSnapshot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonSnapshotTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = File.createTempFile("timed", ".json");
+        file.deleteOnExit();
+
+        AssignmentTable table = new AssignmentTable();
+        table.insert(1, 10, 100, 5000, false);
+        table.insert(2, 20, 200, 6000, true);
+        table.insert(1, 11, 100, 7000, false);
+        table.insert(1, 10, 101, 8000, false);
+        table.setFlag(table.insert(3, 30, 300, 9000, false), AssignmentTable.CLEANUPABLE);
+
+        JsonSnapshot.write(file, table);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        JsonNode tree = new ObjectMapper().readTree(file);
+        assertEquals(2, tree.size());
+        assertEquals(2, tree.path("1").path("10").path("assignments").size());
+        assertEquals(Instant.ofEpochSecond(6000).toString(),
+                tree.path("2").path("20").path("assignments").path(0).path("removeat").asText());
+        assertTrue(tree.path("2").path("20").path("assignments").path(0).path("temporaryrole").asBoolean());
+
+        List<String> read = new ArrayList<>();
+        int count = JsonSnapshot.read(file, (serverId, userId, roleId, removeAt, flags) ->
+                read.add(serverId + ":" + userId + ":" + roleId + ":" + removeAt + ":" + flags));
+
+        assertEquals(4, count);
+        read.sort(String::compareTo);
+        assertEquals("[1:10:100:5000:0, 1:10:101:8000:0, 1:11:100:7000:0, 2:20:200:6000:1]", read.toString());
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        File file = File.createTempFile("timed", ".json");
+        file.deleteOnExit();
+
+        assertEquals(0, JsonSnapshot.read(file, (serverId, userId, roleId, removeAt, flags) -> {
+            throw new AssertionError();
+        }));
+    }
+}
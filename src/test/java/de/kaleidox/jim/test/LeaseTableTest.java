@@ -0,0 +1,230 @@
+package de.kaleidox.jim.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.cluster.ClusterCoordinator;
+import de.kaleidox.jim.cluster.LeaseTable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeaseTableTest {
+    @Test
+    public void testRebalance() throws IOException, InterruptedException {
+        File file = File.createTempFile("leases", ".json");
+        file.deleteOnExit();
+
+        LeaseTable a = new LeaseTable(file, "a", 200);
+        LeaseTable b = new LeaseTable(file, "b", 200);
+
+        a.join(4, () -> {});
+        assertEquals(set(0, 1, 2, 3), a.renew());
+
+        b.join(4, () -> {});
+        assertEquals(set(), b.renew());
+        // a gives up its surplus, which b takes over once released
+        assertEquals(set(0, 1), a.renew());
+        a.release(2);
+        a.release(3);
+        assertEquals(set(2, 3), b.renew());
+
+        // b dies, its leases run out
+        Thread.sleep(250);
+        assertEquals(set(0, 1, 2, 3), a.renew());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherPartitionCount() throws IOException {
+        File file = File.createTempFile("leases", ".json");
+        file.deleteOnExit();
+
+        new LeaseTable(file, "a", 10_000).join(4, () -> {});
+        new LeaseTable(file, "b", 10_000).join(2, () -> {});
+    }
+
+    /*
+    Starting a partition takes longer than a lease, the leases of this member must not run out meanwhile.
+     */
+    @Test
+    public void testSlowStartKeepsLeases() throws IOException, InterruptedException {
+        File file = File.createTempFile("leases", ".json");
+        file.deleteOnExit();
+        LeaseTable leases = new LeaseTable(file, "slow", 300);
+        LeaseTable observer = new LeaseTable(file, "observer", 300);
+
+        leases.join(4, () -> {});
+        ClusterCoordinator coordinator = new ClusterCoordinator(leases, new ClusterCoordinator.Owner() {
+            @Override
+            public void acquired(int partition) throws InterruptedException {
+                Thread.sleep(500);
+            }
+
+            @Override
+            public void lost(int partition) {
+            }
+        });
+        coordinator.start();
+
+        try {
+            awaitOwners(observer, 4, 1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+
+            while (coordinator.getRunning().size() < 4) {
+                assertEquals(4, observer.owners().size());
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(50);
+            }
+        } finally {
+            coordinator.close();
+        }
+    }
+
+    /*
+    Stopping a partition takes longer than a lease; the leases this member keeps must not run out meanwhile, and the
+    ones it gives up must only be taken over once their partition has stopped.
+     */
+    @Test
+    public void testSlowStopKeepsLeases() throws IOException, InterruptedException {
+        File file = File.createTempFile("leases", ".json");
+        file.deleteOnExit();
+        LeaseTable leases = new LeaseTable(file, "slow", 300);
+        LeaseTable other = new LeaseTable(file, "other", 300);
+        Set<Integer> stopped = Collections.synchronizedSet(new HashSet<>());
+
+        leases.join(4, () -> {});
+        ClusterCoordinator coordinator = new ClusterCoordinator(leases, new ClusterCoordinator.Owner() {
+            @Override
+            public void acquired(int partition) {
+            }
+
+            @Override
+            public void lost(int partition) throws InterruptedException {
+                Thread.sleep(500);
+                stopped.add(partition);
+            }
+        });
+        coordinator.start();
+
+        try {
+            awaitOwners(other, 4, 1);
+            other.join(4, () -> {});
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+
+            Set<Integer> taken;
+            do {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(50);
+
+                taken = other.renew();
+                assertTrue(stopped.containsAll(taken));
+                assertTrue(Collections.frequency(other.owners().values(), "slow") >= 2);
+            } while (taken.size() < 2);
+
+            assertEquals(2, Collections.frequency(other.owners().values(), "slow"));
+        } finally {
+            coordinator.close();
+        }
+    }
+
+    /*
+    Two processes share four partitions; once one of them is killed, the other one takes over all of them.
+     */
+    @Test
+    public void testFailoverAcrossProcesses() throws IOException, InterruptedException {
+        File file = File.createTempFile("leases", ".json");
+        file.deleteOnExit();
+        LeaseTable observer = new LeaseTable(file, "observer", 300);
+
+        Process first = member(file, "first");
+        awaitOwners(observer, 4, 1);
+        Process second = member(file, "second");
+
+        try {
+            Map<Integer, String> owners = awaitOwners(observer, 4, 2);
+            assertEquals(2, Collections.frequency(owners.values(), "first"));
+
+            first.destroyForcibly().waitFor();
+            owners = awaitOwners(observer, 4, 1);
+            assertTrue(owners.values().stream().allMatch("second"::equals));
+        } finally {
+            first.destroyForcibly();
+            second.destroyForcibly();
+        }
+    }
+
+    private static Process member(File file, String name) throws IOException {
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                LeaseTableTest.class.getName(),
+                file.getPath(),
+                name
+        ).redirectErrorStream(true).start();
+
+        // drains the output, so the member never blocks on it
+        Thread reader = new Thread(() -> {
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                while (output.readLine() != null) ;
+            } catch (IOException ignored) {
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        return process;
+    }
+
+    private static Map<Integer, String> awaitOwners(LeaseTable observer, int partitions, int owners)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+
+        while (true) {
+            Map<Integer, String> current = observer.owners();
+            if (current.size() == partitions && new HashSet<>(current.values()).size() == owners) return current;
+            if (System.nanoTime() > deadline) throw new AssertionError("Leases did not settle: " + current);
+
+            Thread.sleep(50);
+        }
+    }
+
+    private static Set<Integer> set(Integer... partitions) {
+        return new HashSet<>(Arrays.asList(partitions));
+    }
+
+    /*
+    A cluster member that holds its leases until it is killed.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LeaseTable leases = new LeaseTable(new File(args[0]), args[1], 300);
+        List<Integer> running = Collections.synchronizedList(new ArrayList<>());
+
+        leases.join(4, () -> {});
+        new ClusterCoordinator(leases, new ClusterCoordinator.Owner() {
+            @Override
+            public void acquired(int partition) {
+                running.add(partition);
+            }
+
+            @Override
+            public void lost(int partition) {
+                running.remove((Integer) partition);
+            }
+        }).start();
+
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
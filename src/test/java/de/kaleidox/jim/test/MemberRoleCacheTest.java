@@ -0,0 +1,50 @@
+package de.kaleidox.jim.test;
+
+import de.kaleidox.jim.MemberRoleCache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemberRoleCacheTest {
+    @Test
+    public void testRoleEvents() {
+        MemberRoleCache cache = new MemberRoleCache(10);
+        cache.put(1, 10, new long[]{30, 10});
+
+        cache.roleAdded(1, 10, 20);
+        cache.roleAdded(1, 10, 20);
+        assertArrayEquals(new long[]{10, 20, 30}, cache.get(1, 10));
+
+        cache.roleRemoved(1, 10, 10);
+        assertArrayEquals(new long[]{20, 30}, cache.get(1, 10));
+        assertTrue(MemberRoleCache.contains(cache.get(1, 10), 30));
+        assertFalse(MemberRoleCache.contains(cache.get(1, 10), 10));
+
+        // members that were never requested stay unknown instead of looking like they have no roles
+        cache.roleAdded(1, 11, 20);
+        assertNull(cache.get(1, 11));
+        assertNull(cache.get(2, 10));
+
+        cache.invalidate(1, 10);
+        assertNull(cache.get(1, 10));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        MemberRoleCache cache = new MemberRoleCache(3);
+        for (long user = 1; user <= 3; user++) cache.put(1, user, new long[]{user});
+
+        cache.get(1, 1);
+        cache.put(1, 4, new long[0]);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(1, 2));
+        assertArrayEquals(new long[]{1}, cache.get(1, 1));
+        assertArrayEquals(new long[0], cache.get(1, 4));
+    }
+}
@@ -0,0 +1,44 @@
+package de.kaleidox.jim.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import de.kaleidox.jim.RemovalCoalescer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RemovalCoalescerTest {
+    @Test
+    public void testOneCallPerMember() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<long[]> calls = new ArrayList<>();
+        RemovalCoalescer coalescer = new RemovalCoalescer(100, () -> scheduler, (serverId, userId, roleIds) -> {
+            synchronized (calls) {
+                calls.add(new long[]{serverId, userId, roleIds.length});
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+
+        CompletableFuture<Void> first = coalescer.remove(1, 10, 100);
+        CompletableFuture<Void> second = coalescer.remove(1, 10, 101);
+        coalescer.remove(1, 10, 101);
+        CompletableFuture<Void> other = coalescer.remove(1, 11, 100);
+
+        assertSame(first, second);
+        CompletableFuture.allOf(first, other).join();
+        scheduler.shutdown();
+
+        assertEquals(2, calls.size());
+        calls.sort((a, b) -> Long.compare(a[1], b[1]));
+        assertArrayEquals(new long[]{1, 10, 2}, calls.get(0));
+        assertArrayEquals(new long[]{1, 11, 1}, calls.get(1));
+        assertEquals(0, coalescer.getOpen());
+    }
+}
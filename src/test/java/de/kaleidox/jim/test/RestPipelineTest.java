@@ -0,0 +1,63 @@
+package de.kaleidox.jim.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.kaleidox.jim.RestPipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RestPipelineTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @Test
+    public void testBoundedInFlight() {
+        RestPipeline pipeline = new RestPipeline(2, 1, 1, () -> scheduler);
+        List<CompletableFuture<Object>> attempts = new ArrayList<>();
+
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            results.add(pipeline.submit(() -> {
+                CompletableFuture<Object> attempt = new CompletableFuture<>();
+                attempts.add(attempt);
+                return attempt;
+            }));
+
+        assertEquals(2, attempts.size());
+        assertEquals(2, pipeline.getInFlight());
+        assertEquals(3, pipeline.getQueued());
+
+        attempts.get(0).complete(null);
+        assertEquals(3, attempts.size());
+        assertTrue(results.get(0).isDone());
+
+        for (int i = 1; i < 5; i++) attempts.get(i).complete(null);
+        assertEquals(0, pipeline.getInFlight());
+        assertTrue(results.stream().allMatch(CompletableFuture::isDone));
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws InterruptedException, ExecutionException, TimeoutException {
+        RestPipeline pipeline = new RestPipeline(1, 3, 10, () -> scheduler);
+        AtomicInteger calls = new AtomicInteger(0);
+
+        pipeline.submit(() -> {
+            CompletableFuture<Object> attempt = new CompletableFuture<>();
+            if (calls.incrementAndGet() < 3) attempt.completeExceptionally(new RuntimeException("503"));
+            else attempt.complete(null);
+            return attempt;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, calls.get());
+    }
+}
@@ -0,0 +1,103 @@
+package de.kaleidox.jim.test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import de.kaleidox.jim.RoleNameIndex;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import org.javacord.api.entity.permission.Role;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.event.server.role.RoleChangeNameEvent;
+import org.javacord.api.event.server.role.RoleDeleteEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoleNameIndexTest {
+    private static final String[] WORDS = {"Admin", "Mod", "Member", "Muted", "Event", "Red", "Blue", "VIP", "Team"};
+
+    @Test
+    public void testSameResultAsFullScan() {
+        Random random = new Random(7);
+        List<Role> roles = new ArrayList<>();
+        Server server = stub(Server.class, "getId", 1L, "getRoles", roles);
+
+        for (int i = 0; i < 200; i++)
+            roles.add(role(i, WORDS[random.nextInt(WORDS.length)] + (random.nextBoolean() ? " " : "")
+                    + WORDS[random.nextInt(WORDS.length)] + random.nextInt(20)));
+
+        for (int i = 0; i < 500; i++) {
+            String query = roles.get(random.nextInt(roles.size())).getName();
+            query = query.substring(random.nextInt(3)) + WORDS[random.nextInt(WORDS.length)].substring(0, 2);
+
+            assertEquals(query, fullScan(roles, query), RoleNameIndex.INSTANCE.find(server, query));
+        }
+    }
+
+    @Test
+    public void testRoleEvents() {
+        List<Role> roles = new ArrayList<>();
+        Server server = stub(Server.class, "getId", 2L, "getRoles", roles);
+        Role muted = role(1, "Muted");
+        roles.add(muted);
+
+        assertEquals(Optional.of(muted), RoleNameIndex.INSTANCE.find(server, "muted"));
+
+        RoleNameIndex.INSTANCE.onRoleChangeName(stub(RoleChangeNameEvent.class,
+                "getServer", server, "getRole", muted, "getNewName", "Silenced"));
+        assertEquals(Optional.empty(), RoleNameIndex.INSTANCE.find(server, "muted"));
+        assertEquals(Optional.of(muted), RoleNameIndex.INSTANCE.find(server, "Silencd"));
+
+        RoleNameIndex.INSTANCE.onRoleDelete(stub(RoleDeleteEvent.class, "getServer", server, "getRole", muted));
+        assertEquals(Optional.empty(), RoleNameIndex.INSTANCE.find(server, "Silencd"));
+    }
+
+    /*
+    Rates every role, the first of several equally rated roles wins; what the index has to match.
+     */
+    private static Optional<Role> fullScan(Collection<Role> roles, String name) {
+        Role best = null;
+        int bestRatio = RoleNameIndex.THRESHOLD;
+
+        for (Role role : roles) {
+            int ratio = FuzzySearch.ratio(name, role.getName());
+
+            if (ratio > bestRatio) {
+                best = role;
+                bestRatio = ratio;
+            }
+        }
+
+        return Optional.ofNullable(best);
+    }
+
+    private static Role role(long id, String name) {
+        return stub(Role.class, "getId", id, "getName", name, "getPosition", (int) id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Object... getters) {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < getters.length; i += 2) values.put((String) getters[i], getters[i + 1]);
+
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + values;
+                default:
+                    return values.get(method.getName());
+            }
+        });
+    }
+}
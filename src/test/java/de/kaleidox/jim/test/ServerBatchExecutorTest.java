@@ -0,0 +1,64 @@
+package de.kaleidox.jim.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.kaleidox.jim.ServerBatchExecutor;
+
+import org.javacord.api.exception.RatelimitException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServerBatchExecutorTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @Test
+    public void testRatePerServer() throws InterruptedException, ExecutionException, TimeoutException {
+        ServerBatchExecutor executor = new ServerBatchExecutor(2, 200, TimeUnit.MILLISECONDS, 10, 1, () -> scheduler);
+        AtomicInteger started = new AtomicInteger(0);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            results.add(executor.submit(1, () -> {
+                started.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }));
+
+        assertEquals(2, started.get());
+        assertEquals(3, executor.getQueued());
+
+        // another server has its own bucket
+        assertTrue(executor.submit(2, () -> CompletableFuture.completedFuture(null)).isDone());
+
+        for (CompletableFuture<Object> result : results) result.get(5, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(5, started.get());
+    }
+
+    @Test
+    public void testPauseOnRatelimit() throws InterruptedException, ExecutionException, TimeoutException {
+        ServerBatchExecutor executor = new ServerBatchExecutor(10, 1, TimeUnit.SECONDS, 100, 3, () -> scheduler);
+        AtomicInteger calls = new AtomicInteger(0);
+
+        long start = System.nanoTime();
+        executor.submit(1, () -> {
+            CompletableFuture<Object> call = new CompletableFuture<>();
+            if (calls.incrementAndGet() == 1) call.completeExceptionally(new RatelimitException(null, "429", null));
+            else call.complete(null);
+            return call;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, calls.get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+}
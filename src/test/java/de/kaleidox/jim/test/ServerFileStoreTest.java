@@ -0,0 +1,110 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.AssignmentPersistence;
+import de.kaleidox.jim.persistence.ServerFileStore;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerFileStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesDirtyServersOnly() throws IOException {
+        File directory = folder.newFolder("jim-servers");
+
+        AssignmentTable table = new AssignmentTable();
+        ServerFileStore store = store(directory);
+        store.load(table, Long.MAX_VALUE);
+        store.record("add", table.view(table.insert(1, 10, 100, 5000, false)));
+        store.record("add", table.view(table.insert(2, 10, 100, 5000, false)));
+        assertTrue(store.store(table) > 0);
+        assertEquals(0, store.store(table));
+
+        File first = new File(directory, "servers/1.bin");
+        File second = new File(directory, "servers/2.bin");
+        assertTrue(first.setLastModified(0));
+        assertTrue(second.setLastModified(0));
+
+        store.record("add", table.view(table.insert(2, 11, 100, 5000, true)));
+        store.store(table);
+        assertEquals(0, first.lastModified());
+        assertTrue(second.lastModified() > 0);
+
+        // the last assignment of a server takes its file with it
+        long handle = table.find(1, 10, 100, 5000);
+        store.record("remove", table.view(handle));
+        table.free(handle);
+        store.store(table);
+        assertFalse(first.exists());
+        store.close();
+
+        AssignmentTable loaded = new AssignmentTable();
+        store = store(directory);
+        assertEquals(2, store.load(loaded, Long.MAX_VALUE));
+        assertTrue(loaded.find(2, 11, 100, 5000) != AssignmentTable.NONE);
+        store.close();
+    }
+
+    @Test
+    public void testSplitsSnapshot() throws IOException {
+        File directory = folder.newFolder("jim-servers");
+
+        AssignmentTable table = new AssignmentTable();
+        for (long server = 1; server <= 5; server++) table.insert(server, 10, 100, 5000, false);
+        AssignmentPersistence persistence = new AssignmentPersistence(
+                directory,
+                SnapshotFormat.BINARY,
+                50,
+                TimeUnit.MILLISECONDS
+        );
+        persistence.load(new AssignmentTable());
+        persistence.store(table);
+        persistence.close();
+
+        ServerFileStore store = store(directory);
+        assertTrue(store.hasData());
+        assertEquals(5, store.load(new AssignmentTable(), Long.MAX_VALUE));
+        store.close();
+
+        assertTrue(new File(directory, "timed.bin.migrated").exists());
+        for (long server = 1; server <= 5; server++)
+            assertTrue(new File(directory, "servers/" + server + ".bin").exists());
+
+        store = store(directory);
+        assertEquals(5, store.load(new AssignmentTable(), Long.MAX_VALUE));
+        store.close();
+    }
+
+    /*
+    A closed store may already belong to another process, storing into it would overwrite the files of that one.
+     */
+    @Test(expected = IOException.class)
+    public void testRejectsStoreOnceClosed() throws IOException {
+        File directory = folder.newFolder("jim-servers");
+
+        AssignmentTable table = new AssignmentTable();
+        ServerFileStore store = store(directory);
+        store.load(table, Long.MAX_VALUE);
+        store.record("add", table.view(table.insert(1, 10, 100, 5000, false)));
+        store.close();
+
+        store.store(table);
+    }
+
+    private static ServerFileStore store(File directory) {
+        return new ServerFileStore(directory, SnapshotFormat.BINARY, 50, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,71 @@
+package de.kaleidox.jim.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.kaleidox.jim.AssignmentPartition;
+import de.kaleidox.jim.AssignmentTable;
+import de.kaleidox.jim.persistence.AssignmentStore;
+import de.kaleidox.jim.persistence.ShardLayout;
+import de.kaleidox.jim.persistence.SnapshotFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardLayoutTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRepartition() throws IOException {
+        File directory = folder.newFolder("jim-shards");
+
+        AssignmentTable table = new AssignmentTable();
+        for (long server = 1; server <= 8; server++)
+            table.insert(server << 22, 10, 100, 5000, false);
+        store(new ShardLayout(directory, SnapshotFormat.BINARY, 1), 0, table);
+
+        ShardLayout three = new ShardLayout(directory, SnapshotFormat.BINARY, 3);
+        assertEquals(8, three.repartition());
+        assertFalse(new ShardLayout(directory, SnapshotFormat.BINARY, 1).open(0).hasData());
+        assertEquals(0, three.repartition());
+
+        int total = 0;
+        for (int shard = 0; shard < 3; shard++) {
+            AssignmentTable loaded = load(three, shard);
+            total += loaded.size();
+
+            int expected = shard;
+            loaded.forEach((serverId, userId, roleId, removeAt, flags) ->
+                    assertEquals(expected, AssignmentPartition.shardOf(serverId, 3)));
+        }
+        assertEquals(8, total);
+
+        // and back to a single shard
+        ShardLayout one = new ShardLayout(directory, SnapshotFormat.BINARY, 1);
+        assertEquals(8, one.repartition());
+        assertEquals(8, load(one, 0).size());
+        assertTrue(new File(three.directory(0), "timed.bin.migrated").exists());
+    }
+
+    private static void store(ShardLayout layout, int shard, AssignmentTable table) throws IOException {
+        AssignmentStore persistence = layout.open(shard);
+        persistence.load(new AssignmentTable(), Long.MAX_VALUE);
+        persistence.replace(table);
+        persistence.close();
+    }
+
+    private static AssignmentTable load(ShardLayout layout, int shard) throws IOException {
+        AssignmentTable table = new AssignmentTable();
+        AssignmentStore persistence = layout.open(shard);
+        persistence.load(table, Long.MAX_VALUE);
+        persistence.close();
+
+        return table;
+    }
+}
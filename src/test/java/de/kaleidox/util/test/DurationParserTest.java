@@ -0,0 +1,78 @@
+package de.kaleidox.util.test;
+
+import java.text.ParseException;
+import java.time.Instant;
+
+import de.kaleidox.util.time.DurationParser;
+
+import org.junit.Test;
+
+import static de.kaleidox.util.time.DurationParser.parseDuration;
+import static de.kaleidox.util.time.DurationParser.resolve;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DurationParserTest {
+    private static final long NOW = Instant.parse("2026-01-01T00:00:00Z").getEpochSecond();
+
+    @Test
+    public void testUnits() throws ParseException {
+        assertEquals(330, parseDuration("5m30s"));
+        assertEquals(60, parseDuration("1"));
+        assertEquals(9 * 86400 + 3 * 3600 + 4 * 60 + 5, parseDuration("1w 2d 3h 4m 5s"));
+        assertEquals(5000L * 7 * 86400, parseDuration("5000w"));
+        assertEquals(parseDuration("1h"), parseDuration(new StringBuilder("1h")));
+    }
+
+    @Test
+    public void testIso() throws ParseException {
+        assertEquals(7 * 86400, parseDuration("P1W"));
+        assertEquals(2 * 86400 + 3 * 3600, parseDuration("P2DT3H"));
+        assertEquals(90 * 60 + 15, parseDuration("pt90m15s"));
+
+        assertFails("P1M");
+        assertFails("P1Y");
+        assertFails("PT1.5S");
+        assertFails("PT");
+        assertFails("P1H");
+    }
+
+    @Test
+    public void testTimestamps() throws ParseException {
+        assertEquals(Instant.parse("2026-12-01T10:00:00Z").getEpochSecond(), resolve("until 2026-12-01T10:00Z", NOW));
+        assertEquals(Instant.parse("2026-12-01T08:00:30Z").getEpochSecond(),
+                resolve("UNTIL 2026-12-01 10:00:30+02:00", NOW));
+        assertEquals(Instant.parse("2028-02-29T00:00:00Z").getEpochSecond(), resolve("until 2028-02-29", NOW));
+        assertEquals(NOW + 600, resolve("10m", NOW));
+
+        assertFails("until 2025-12-31T23:59Z");
+        assertFails("until 2027-02-29");
+        assertFails("until 2026-12-01T25:00Z");
+        assertFails("until tomorrow");
+    }
+
+    @Test
+    public void testErrors() {
+        assertFails("");
+        assertFails("5x");
+        assertFails("5m5m");
+        assertFails("5m 30");
+        assertFails("99999999999999999999s");
+        assertFails("9999999999999999w");
+
+        try {
+            resolve(DurationParser.MAX_EPOCH_SECOND + "s", NOW);
+            fail();
+        } catch (ParseException expected) {
+        }
+    }
+
+    private static void assertFails(String expression) {
+        try {
+            if (expression.startsWith("until")) resolve(expression, NOW);
+            else parseDuration(expression);
+            fail("Parsed [" + expression + "]");
+        } catch (ParseException expected) {
+        }
+    }
+}
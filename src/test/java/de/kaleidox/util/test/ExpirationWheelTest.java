@@ -0,0 +1,62 @@
+package de.kaleidox.util.test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.kaleidox.util.concurrent.ExpirationWheel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpirationWheelTest {
+    @Test
+    public void testExpirationOrder() throws InterruptedException {
+        List<Long> expired = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        ExpirationWheel wheel = new ExpirationWheel("test", 1, TimeUnit.MILLISECONDS, i -> {
+            expired.add(i);
+            latch.countDown();
+        }, Runnable::run);
+
+        long now = System.currentTimeMillis();
+        wheel.schedule(now + 300, 3); // cascades down from the second level
+        wheel.schedule(now + 20, 1);
+        wheel.schedule(now - 1000, 0);
+        wheel.schedule(now + 80, 2);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals("[0, 1, 2]", expired.toString());
+        assertEquals(1, wheel.size());
+        assertTrue(System.currentTimeMillis() - now >= 80);
+
+        wheel.close();
+    }
+
+    @Test
+    public void testCancellation() throws InterruptedException {
+        List<Long> expired = new CopyOnWriteArrayList<>();
+        ExpirationWheel wheel = new ExpirationWheel("test", 1, TimeUnit.MILLISECONDS, expired::add, Runnable::run);
+
+        long now = System.currentTimeMillis();
+        ExpirationWheel.Timeout cancelled = wheel.schedule(now + 50, 1);
+        ExpirationWheel.Timeout kept = wheel.schedule(now + 50, 2);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.size());
+
+        Thread.sleep(200);
+
+        assertEquals("[2]", expired.toString());
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel());
+        assertEquals(0, wheel.size());
+
+        wheel.close();
+    }
+}
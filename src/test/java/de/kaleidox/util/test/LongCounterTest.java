@@ -0,0 +1,49 @@
+package de.kaleidox.util.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import de.kaleidox.util.collections.LongCounter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongCounterTest {
+    @Test
+    public void testCounting() {
+        LongCounter counter = new LongCounter();
+
+        assertEquals(1, counter.increment(42));
+        assertEquals(2, counter.increment(42));
+        assertTrue(counter.contains(42));
+        assertEquals(1, counter.decrement(42));
+        assertEquals(0, counter.decrement(42));
+        assertFalse(counter.contains(42));
+        assertEquals(0, counter.decrement(42));
+        assertEquals(0, counter.size());
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        LongCounter counter = new LongCounter(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = 1 + random.nextInt(2000);
+            int delta = random.nextBoolean() ? 1 : -1;
+
+            counter.add(key, delta);
+            expected.merge(key, delta, Integer::sum);
+            if (expected.get(key) <= 0) expected.remove(key);
+        }
+
+        assertEquals(expected.size(), counter.size());
+        for (long key = 1; key <= 2000; key++)
+            assertEquals(expected.getOrDefault(key, 0).intValue(), counter.count(key));
+    }
+}
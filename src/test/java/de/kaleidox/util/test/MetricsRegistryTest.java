@@ -0,0 +1,61 @@
+package de.kaleidox.util.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import de.kaleidox.util.metrics.MetricsEndpoint;
+import de.kaleidox.util.metrics.MetricsRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+    @Test
+    public void testPrometheusText() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter failures = registry.counter("failures_total", "Failures", "operation");
+        MetricsRegistry.Histogram lag = registry.histogram("lag_seconds", "Lag", null, 1, 5);
+        registry.gauge("pending", "Pending", "server", () -> Collections.singletonMap("42", 3));
+
+        failures.inc("delete");
+        failures.inc("delete");
+        lag.observe(0.5);
+        lag.observe(2);
+        lag.observe(10);
+
+        String text = registry.toPrometheusText();
+        assertTrue(text, text.contains("# TYPE failures_total counter\nfailures_total{operation=\"delete\"} 2\n"));
+        assertTrue(text, text.contains("lag_seconds_bucket{le=\"1\"} 1\n"));
+        assertTrue(text, text.contains("lag_seconds_bucket{le=\"5\"} 2\n"));
+        assertTrue(text, text.contains("lag_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("lag_seconds_sum 12.5\n"));
+        assertTrue(text, text.contains("lag_seconds_count 3\n"));
+        assertTrue(text, text.contains("pending{server=\"42\"} 3\n"));
+
+        assertEquals("lag_seconds: n=3 mean=4.17 p50<=5 p99<=+Inf", registry.summary().get(1));
+    }
+
+    @Test
+    public void testEndpoint() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests", null).inc();
+
+        try (MetricsEndpoint endpoint = new MetricsEndpoint(registry, 0)) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openConnection();
+
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream()) {
+                byte[] body = new byte[4096];
+                int length = in.read(body);
+                assertTrue(new String(body, 0, length, StandardCharsets.UTF_8).contains("requests_total 1\n"));
+            }
+        }
+    }
+}